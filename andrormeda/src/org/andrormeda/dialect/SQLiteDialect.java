@@ -18,8 +18,10 @@ import org.ormada.entity.EntityMetaData;
 
 import android.content.Context;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 /**
@@ -118,6 +120,22 @@ public class SQLiteDialect extends SQLiteOpenHelper implements Dialect<SQLiteVal
         return "integer not null primary key autoincrement";
     }
 
+	@Override
+	public void beginTransaction() {
+	    this.database.beginTransaction();
+	}
+
+	@Override
+	public void commitTransaction() {
+	    this.database.setTransactionSuccessful();
+	    this.database.endTransaction();
+	}
+
+	@Override
+	public void rollbackTransaction() {
+	    this.database.endTransaction();
+	}
+
     @Override
 	public void execSQL(String stmt) {
 		this.database.execSQL(stmt);
@@ -128,26 +146,94 @@ public class SQLiteDialect extends SQLiteOpenHelper implements Dialect<SQLiteVal
 		this.database.delete(table, whereClause, whereArgs);
 	}
 
+	/**
+	 * Save the rows in one transaction.  SQLite has no JDBC style batching, so instead new rows
+	 * are inserted with a compiled statement per column shape, which is reused for every row
+	 * with the same columns.
+	 * 
+	 */
 	@Override
 	public Map<String, List<Long>> bulkSave(Map<String, List<SQLiteValueSet>> valueMap) {
 	    this.database.beginTransaction();
+	    Map<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
 	    try {
 	        Map<String, List<Long>> idMap = new HashMap<String, List<Long>>();
 	        for (Map.Entry<String, List<SQLiteValueSet>> e : valueMap.entrySet()) {
 	            List<Long> idList = new ArrayList<Long>();
 	            idMap.put(e.getKey(), idList);
 	            for (SQLiteValueSet values : e.getValue()) {
-	                long newId = this.save(e.getKey(), values);
-	                idList.add(newId);
+	                long id = values.getContentValues().getAsLong(EntityMetaData.ID_FIELD);
+	                if (Entity.isSaved(id)) {
+	                    this.update(e.getKey(), values, EntityMetaData.ID_FIELD + " = " + id, null);
+	                } else {
+	                    values.getContentValues().remove(EntityMetaData.ID_FIELD);
+	                    id = this.insert(e.getKey(), values, statements);
+	                }
+	                idList.add(id);
 	            }
 	        }
 	        this.database.setTransactionSuccessful();
 	        return idMap;
 	    } finally {
+	        for (SQLiteStatement statement : statements.values()) {
+	            statement.close();
+	        }
+	        this.database.endTransaction();
+	    }
+	}
+
+	@Override
+	public void bulkInsert(String table, List<SQLiteValueSet> valueList) {
+	    this.database.beginTransaction();
+	    Map<String, SQLiteStatement> statements = new HashMap<String, SQLiteStatement>();
+	    try {
+	        for (SQLiteValueSet values : valueList) {
+	            this.insert(table, values, statements);
+	        }
+	        this.database.setTransactionSuccessful();
+	    } finally {
+	        for (SQLiteStatement statement : statements.values()) {
+	            statement.close();
+	        }
 	        this.database.endTransaction();
 	    }
 	}
 
+	/**
+	 * Insert a row using a compiled statement for its table and columns, compiling and
+	 * caching the statement if it does not already exist.
+	 * 
+	 * @param table
+	 * @param values
+	 * @param statements The compiled statements, keyed by sql
+	 * @return
+	 */
+	private long insert(String table, SQLiteValueSet values, Map<String, SQLiteStatement> statements) {
+	    List<String> fields = new ArrayList<String>();
+	    StringBuilder fieldsBuilder = new StringBuilder();
+	    StringBuilder valuesBuilder = new StringBuilder();
+	    for (Map.Entry<String, Object> e : values.getContentValues().valueSet()) {
+	        if (!fields.isEmpty()) {
+	            fieldsBuilder.append(",");
+	            valuesBuilder.append(",");
+	        }
+	        fields.add(e.getKey());
+	        fieldsBuilder.append(e.getKey());
+	        valuesBuilder.append("?");
+	    }
+	    String sql = "insert into " + table + "(" + fieldsBuilder + ") values(" + valuesBuilder + ")";
+	    SQLiteStatement statement = statements.get(sql);
+	    if (statement == null) {
+	        statement = this.database.compileStatement(sql);
+	        statements.put(sql, statement);
+	    }
+	    statement.clearBindings();
+	    for (int ii = 0; ii < fields.size(); ii++) {
+	        DatabaseUtils.bindObjectToProgram(statement, ii + 1, values.getContentValues().get(fields.get(ii)));
+	    }
+	    return statement.executeInsert();
+	}
+
 	@Override
 	public long count(String table, String whereClause, String[] whereParams)
 	        throws SQLException {
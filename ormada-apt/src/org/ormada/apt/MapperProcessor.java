@@ -0,0 +1,306 @@
+package org.ormada.apt;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.PackageElement;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+import javax.tools.Diagnostic.Kind;
+
+import org.ormada.annotations.Mapped;
+import org.ormada.annotations.OneToMany;
+import org.ormada.annotations.Transient;
+import org.ormada.entity.FieldMapping;
+
+/**
+ * An annotation processor that generates an EntityMapper for each class marked with @Mapped.
+ *
+ * This follows the same conventions ORMDataSource uses when it reflects on an entity class:
+ * every public getter (get* or is*) not declared in Object or marked @Transient is a field,
+ * Collections are stored in join tables (and so are not part of the mapper), and a field is
+ * written using the setter whose parameter matches the getter's return type.
+ *
+ * Classes the processor cannot map (e.g. nested classes, or classes with unsupported field
+ * types) are reported as warnings and left to the Reflector.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+@SupportedAnnotationTypes("org.ormada.annotations.Mapped")
+public class MapperProcessor extends AbstractProcessor {
+
+    public static final String MAPPER_SUFFIX = "_Mapper";
+
+    private static final String ID_GETTER = "getId";
+
+    /**
+     * One mapped column of an entity class.
+     *
+     */
+    static class Column {
+        String  name;
+        String  getter;
+        String  setter;
+        String  typeName;
+        int     typeCode;
+        boolean id;
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element e : roundEnv.getElementsAnnotatedWith(Mapped.class)) {
+            if (e.getKind() != ElementKind.CLASS) {
+                error(e, "@Mapped can only be placed on a class");
+                continue;
+            }
+            TypeElement type = (TypeElement) e;
+            if (!checkMappable(type)) {
+                continue;
+            }
+            List<Column> columns = buildColumns(type);
+            if (columns != null) {
+                writeMapper(type, columns);
+            }
+        }
+        return true;
+    }
+
+    private boolean checkMappable(TypeElement type) {
+        if (type.getNestingKind() != NestingKind.TOP_LEVEL) {
+            warn(type, "Mappers can only be generated for top level classes, " + type + " will use reflection");
+            return false;
+        }
+        if (!type.getModifiers().contains(Modifier.PUBLIC) || type.getModifiers().contains(Modifier.ABSTRACT)) {
+            warn(type, "Mappers can only be generated for public, concrete classes, " + type + " will use reflection");
+            return false;
+        }
+        boolean hasConstructor = false;
+        for (ExecutableElement c : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (c.getParameters().isEmpty() && c.getModifiers().contains(Modifier.PUBLIC)) {
+                hasConstructor = true;
+            }
+        }
+        if (!hasConstructor) {
+            warn(type, type + " does not have a public no argument constructor, and will use reflection");
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Build the columns for the entity class.
+     *
+     * @param type
+     * @return The columns, or null if the class cannot be mapped
+     */
+    private List<Column> buildColumns(TypeElement type) {
+        Elements elements = processingEnv.getElementUtils();
+        Types    types    = processingEnv.getTypeUtils();
+
+        TypeMirror collection = types.erasure(elements.getTypeElement("java.util.Collection").asType());
+
+        List<Column> columns = new ArrayList<Column>();
+        boolean hasId = false;
+        for (ExecutableElement m : ElementFilter.methodsIn(elements.getAllMembers(type))) {
+            if (!isPersisted(m)) {
+                continue;
+            }
+            TypeMirror returnType = m.getReturnType();
+            if (types.isAssignable(types.erasure(returnType), collection)) {
+                //collections are kept in join tables, which are handled by ORMDataSource
+                if (m.getAnnotation(OneToMany.class) == null) {
+                    error(m, "Collections must be marked with the appropriate annotation, or @Transient");
+                    return null;
+                }
+                continue;
+            }
+
+            Column c   = new Column();
+            c.name     = getFieldName(m);
+            c.getter   = m.getSimpleName().toString();
+            c.typeName = types.erasure(returnType).toString();
+            c.typeCode = typeCodeOf(returnType);
+            c.id       = c.getter.equals(ID_GETTER);
+            c.setter   = findSetter(type, c.name, returnType);
+            if (c.typeCode == FieldMapping.TYPE_UNSUPPORTED) {
+                warn(m, "Unsupported type " + returnType + ", " + type + " will use reflection");
+                return null;
+            }
+            hasId |= c.id;
+            columns.add(c);
+        }
+        if (!hasId) {
+            error(type, type + " does not define an id attribute");
+            return null;
+        }
+        for (Column c : columns) {
+            if (c.id && c.setter == null) {
+                error(type, type + " does not define a setter for the id attribute");
+                return null;
+            }
+        }
+        return columns;
+    }
+
+    private boolean isPersisted(ExecutableElement m) {
+        String name = m.getSimpleName().toString();
+        Element declaring = m.getEnclosingElement();
+        return ((name.startsWith("get") && name.length() > 3) || (name.startsWith("is") && name.length() > 2)) &&
+                m.getModifiers().contains(Modifier.PUBLIC)  &&
+                !m.getModifiers().contains(Modifier.STATIC) &&
+                m.getParameters().isEmpty()                 &&
+                m.getReturnType().getKind() != TypeKind.VOID &&
+                !((TypeElement) declaring).getQualifiedName().contentEquals("java.lang.Object") &&
+                m.getAnnotation(Transient.class) == null;
+    }
+
+    private String getFieldName(ExecutableElement m) {
+        String name = m.getSimpleName().toString();
+        String stripped = name.startsWith("is") ? name.substring(2) : name.substring(3);
+        return stripped.substring(0, 1).toLowerCase() + stripped.substring(1);
+    }
+
+    private String findSetter(TypeElement type, String fieldName, TypeMirror fieldType) {
+        Types  types = processingEnv.getTypeUtils();
+        String name  = "set" + fieldName.substring(0, 1).toUpperCase() + fieldName.substring(1);
+        for (ExecutableElement m : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            if (m.getSimpleName().contentEquals(name) &&
+                    m.getModifiers().contains(Modifier.PUBLIC) &&
+                    !m.getModifiers().contains(Modifier.STATIC) &&
+                    m.getParameters().size() == 1 &&
+                    types.isSameType(types.erasure(m.getParameters().get(0).asType()), types.erasure(fieldType))) {
+                return name;
+            }
+        }
+        //not all persisted fields can be written to...this is only an error if we try to fetch it
+        return null;
+    }
+
+    /**
+     * Resolve the type code for a field type.
+     *
+     * NOTE: this must be kept in sync with FieldMapping.typeCodeOf
+     *
+     * @param t
+     * @return
+     */
+    private int typeCodeOf(TypeMirror t) {
+        Elements elements = processingEnv.getElementUtils();
+        Types    types    = processingEnv.getTypeUtils();
+        switch (t.getKind()) {
+        case INT:     return FieldMapping.TYPE_INT;
+        case SHORT:   return FieldMapping.TYPE_SHORT;
+        case LONG:    return FieldMapping.TYPE_LONG;
+        case FLOAT:   return FieldMapping.TYPE_FLOAT;
+        case DOUBLE:  return FieldMapping.TYPE_DOUBLE;
+        case BOOLEAN: return FieldMapping.TYPE_BOOLEAN;
+        case BYTE:    return FieldMapping.TYPE_BYTE;
+        case CHAR:    return FieldMapping.TYPE_CHAR;
+        default:
+            break;
+        }
+
+        TypeMirror erased = types.erasure(t);
+        String     name   = erased.toString();
+        if (name.equals("java.lang.Integer")) {
+            return FieldMapping.TYPE_INT;
+        } else if (name.equals("java.lang.Short")) {
+            return FieldMapping.TYPE_SHORT;
+        } else if (name.equals("java.lang.Long")) {
+            return FieldMapping.TYPE_LONG;
+        } else if (name.equals("java.lang.Float")) {
+            return FieldMapping.TYPE_FLOAT;
+        } else if (name.equals("java.lang.Double")) {
+            return FieldMapping.TYPE_DOUBLE;
+        } else if (name.equals("java.lang.Boolean")) {
+            return FieldMapping.TYPE_BOOLEAN;
+        } else if (name.equals("java.lang.Byte")) {
+            return FieldMapping.TYPE_BYTE;
+        } else if (name.equals("java.lang.Character")) {
+            return FieldMapping.TYPE_CHAR;
+        } else if (types.isAssignable(erased, types.erasure(elements.getTypeElement("java.lang.Enum").asType()))) {
+            return FieldMapping.TYPE_ENUM;
+        } else if (name.equals("java.lang.String")) {
+            return FieldMapping.TYPE_STRING;
+        } else if (types.isAssignable(erased, elements.getTypeElement("java.util.Date").asType())) {
+            return FieldMapping.TYPE_DATE;
+        } else if (isEntity(t)) {
+            return FieldMapping.TYPE_ENTITY;
+        } else if (types.isAssignable(erased, elements.getTypeElement("java.io.Serializable").asType())) {
+            return FieldMapping.TYPE_SERIALIZABLE;
+        }
+        return FieldMapping.TYPE_UNSUPPORTED;
+    }
+
+    /**
+     * Test if a type is an entity.  At build time, we do not know which classes will be registered
+     * with the ORMDataSource, so a type is treated as an entity if it is marked @Mapped or defines
+     * an id getter.  ORMDataSource checks the generated mapper against the registered classes.
+     *
+     * @param t
+     * @return
+     */
+    private boolean isEntity(TypeMirror t) {
+        if (t.getKind() != TypeKind.DECLARED) {
+            return false;
+        }
+        TypeElement type = (TypeElement) processingEnv.getTypeUtils().asElement(t);
+        if (type.getAnnotation(Mapped.class) != null) {
+            return true;
+        }
+        for (ExecutableElement m : ElementFilter.methodsIn(processingEnv.getElementUtils().getAllMembers(type))) {
+            if (m.getSimpleName().contentEquals(ID_GETTER) && m.getParameters().isEmpty() &&
+                    m.getModifiers().contains(Modifier.PUBLIC)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void writeMapper(TypeElement type, List<Column> columns) {
+        PackageElement pkg = processingEnv.getElementUtils().getPackageOf(type);
+        String packageName = pkg.isUnnamed() ? null : pkg.getQualifiedName().toString();
+        String mapperName  = type.getSimpleName() + MAPPER_SUFFIX;
+        try {
+            String qualifiedName = packageName != null ? packageName + "." + mapperName : mapperName;
+            Writer w = processingEnv.getFiler().createSourceFile(qualifiedName, type).openWriter();
+            try {
+                new MapperWriter(w).write(packageName, type.getSimpleName().toString(), mapperName, columns);
+            } finally {
+                w.close();
+            }
+        } catch (IOException e) {
+            error(type, "Unable to write " + mapperName + ": " + e.getMessage());
+        }
+    }
+
+    private void warn(Element e, String msg) {
+        processingEnv.getMessager().printMessage(Kind.WARNING, msg, e);
+    }
+
+    private void error(Element e, String msg) {
+        processingEnv.getMessager().printMessage(Kind.ERROR, msg, e);
+    }
+}
@@ -0,0 +1,241 @@
+package org.ormada.apt;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.List;
+
+import org.ormada.apt.MapperProcessor.Column;
+import org.ormada.entity.FieldMapping;
+
+/**
+ * Writes the source for a generated EntityMapper.
+ *
+ * NOTE: the conversions written here must be kept in sync with ORMDataSource.setValueIntoContentValues
+ * and EntityBuilder.setValueFromCursor, since a mapped and a reflected class must read and write
+ * the same data.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+class MapperWriter {
+
+    private static final String[] TYPE_NAMES = {
+        "TYPE_INT", "TYPE_SHORT", "TYPE_LONG", "TYPE_FLOAT", "TYPE_DOUBLE", "TYPE_BOOLEAN", "TYPE_BYTE",
+        "TYPE_CHAR", "TYPE_ENUM", "TYPE_STRING", "TYPE_DATE", "TYPE_ENTITY", "TYPE_SERIALIZABLE"
+    };
+
+    private PrintWriter out;
+
+    public MapperWriter(Writer w) {
+        this.out = new PrintWriter(w);
+    }
+
+    public void write(String packageName, String className, String mapperName, List<Column> columns) {
+        if (packageName != null) {
+            out.println("package " + packageName + ";");
+            out.println();
+        }
+        out.println("import org.ormada.dialect.QueryCursor;");
+        out.println("import org.ormada.dialect.ValueSet;");
+        out.println("import org.ormada.entity.EntityMapper;");
+        out.println("import org.ormada.entity.FieldMapping;");
+        out.println();
+        out.println("/**");
+        out.println(" * Generated by the ORMada annotation processor from " + className + ".  Do not edit.");
+        out.println(" */");
+        out.println("@SuppressWarnings(\"unchecked\")");
+        out.println("public final class " + mapperName + " implements EntityMapper<" + className + "> {");
+        out.println();
+        writeConstants(columns);
+        writeSimpleMethods(className, columns);
+        writeColumns(className, columns);
+        readColumn(className, columns);
+        out.println("}");
+        out.flush();
+    }
+
+    private void writeConstants(List<Column> columns) {
+        out.print("    private static final String[] COLUMNS = {");
+        for (int ii = 0; ii < columns.size(); ii++) {
+            out.print((ii > 0 ? ", " : "") + "\"" + columns.get(ii).name + "\"");
+        }
+        out.println("};");
+        out.print("    private static final int[]    TYPES   = {");
+        for (int ii = 0; ii < columns.size(); ii++) {
+            out.print((ii > 0 ? ", " : "") + "FieldMapping." + TYPE_NAMES[columns.get(ii).typeCode]);
+        }
+        out.println("};");
+        out.println();
+    }
+
+    private void writeSimpleMethods(String className, List<Column> columns) {
+        Column id = null;
+        for (Column c : columns) {
+            if (c.id) {
+                id = c;
+            }
+        }
+        out.println("    public Class<" + className + "> getEntityClass() {");
+        out.println("        return " + className + ".class;");
+        out.println("    }");
+        out.println();
+        out.println("    public String[] getColumnNames() {");
+        out.println("        return COLUMNS.clone();");
+        out.println("    }");
+        out.println();
+        out.println("    public int[] getColumnTypes() {");
+        out.println("        return TYPES.clone();");
+        out.println("    }");
+        out.println();
+        out.println("    public " + className + " newInstance() {");
+        out.println("        return new " + className + "();");
+        out.println("    }");
+        out.println();
+        out.println("    public long getId(" + className + " o) {");
+        out.println("        return o." + id.getter + "();");
+        out.println("    }");
+        out.println();
+        out.println("    public void setId(" + className + " o, long id) {");
+        out.println("        o." + id.setter + "(id);");
+        out.println("    }");
+        out.println();
+    }
+
+    private void writeColumns(String className, List<Column> columns) {
+        out.println("    public void writeColumns(" + className + " o, ValueSet values, boolean includeId) {");
+        for (Column c : columns) {
+            String indent = "        ";
+            if (c.id) {
+                out.println("        if (includeId) {");
+                indent += "    ";
+            }
+            String key = "\"" + c.name + "\"";
+            String get = "o." + c.getter + "()";
+            switch (c.typeCode) {
+            case FieldMapping.TYPE_CHAR:
+                out.println(indent + "values.put(" + key + ", String.valueOf(" + get + "));");
+                break;
+            case FieldMapping.TYPE_ENUM:
+                out.println(indent + "values.put(" + key + ", " + get + ".name());");
+                break;
+            case FieldMapping.TYPE_DATE:
+                //NOTE: since dates cannot be < 0, and null long columns are a pain in the butt,
+                // use -1 to denote null
+                out.println(indent + "{");
+                out.println(indent + "    " + c.typeName + " v = " + get + ";");
+                out.println(indent + "    if (v != null) {");
+                out.println(indent + "        values.put(" + key + ", v.getTime());");
+                out.println(indent + "    } else {");
+                out.println(indent + "        values.put(" + key + ", -1);");
+                out.println(indent + "    }");
+                out.println(indent + "}");
+                break;
+            case FieldMapping.TYPE_ENTITY:
+                //entities: store the id, or -1 for null
+                out.println(indent + "{");
+                out.println(indent + "    " + c.typeName + " v = " + get + ";");
+                out.println(indent + "    if (v != null) {");
+                out.println(indent + "        long id = v.getId();");
+                out.println(indent + "        if (id == 0) {");
+                out.println(indent + "            throw new RuntimeException(\"Reference stored to unsaved entity (id=0)\");");
+                out.println(indent + "        }");
+                out.println(indent + "        values.put(" + key + ", id);");
+                out.println(indent + "    } else {");
+                out.println(indent + "        values.put(" + key + ", -1);");
+                out.println(indent + "    }");
+                out.println(indent + "}");
+                break;
+            case FieldMapping.TYPE_SERIALIZABLE:
+                out.println(indent + "try {");
+                out.println(indent + "    java.io.ByteArrayOutputStream baos = new java.io.ByteArrayOutputStream();");
+                out.println(indent + "    java.io.ObjectOutputStream out = new java.io.ObjectOutputStream(baos);");
+                out.println(indent + "    out.writeObject(" + get + ");");
+                out.println(indent + "    values.put(" + key + ", baos.toByteArray());");
+                out.println(indent + "    out.close();");
+                out.println(indent + "} catch (java.io.IOException ex) {");
+                out.println(indent + "    throw new RuntimeException(ex);");
+                out.println(indent + "}");
+                break;
+            default:
+                //numbers, booleans and strings are put as is
+                out.println(indent + "values.put(" + key + ", " + get + ");");
+                break;
+            }
+            if (c.id) {
+                out.println("        }");
+            }
+        }
+        out.println("    }");
+        out.println();
+    }
+
+    private void readColumn(String className, List<Column> columns) {
+        out.println("    public void readColumn(" + className + " o, int column, QueryCursor c, int col) throws Exception {");
+        out.println("        switch (column) {");
+        for (int ii = 0; ii < columns.size(); ii++) {
+            Column c = columns.get(ii);
+            out.println("        case " + ii + ":");
+            if (c.typeCode == FieldMapping.TYPE_ENTITY) {
+                //skip these...they're processed separately
+                out.println("            break;");
+                continue;
+            }
+            if (c.setter == null) {
+                out.println("            throw new NoSuchMethodException(\"No setter for '" + c.name + "' in " + className + "\");");
+                continue;
+            }
+            String set = "o." + c.setter + "(";
+            switch (c.typeCode) {
+            case FieldMapping.TYPE_INT:
+                out.println("            " + set + "c.getInt(col));");
+                break;
+            case FieldMapping.TYPE_SHORT:
+                out.println("            " + set + "c.getShort(col));");
+                break;
+            case FieldMapping.TYPE_LONG:
+                out.println("            " + set + "c.getLong(col));");
+                break;
+            case FieldMapping.TYPE_FLOAT:
+                out.println("            " + set + "c.getFloat(col));");
+                break;
+            case FieldMapping.TYPE_DOUBLE:
+                out.println("            " + set + "c.getDouble(col));");
+                break;
+            case FieldMapping.TYPE_BOOLEAN:
+                out.println("            " + set + "c.getInt(col) == 1);");
+                break;
+            case FieldMapping.TYPE_BYTE:
+                out.println("            " + set + "c.getBlob(col)[0]);");
+                break;
+            case FieldMapping.TYPE_CHAR:
+                out.println("            " + set + "c.getString(col).charAt(0));");
+                break;
+            case FieldMapping.TYPE_ENUM:
+                out.println("            " + set + c.typeName + ".valueOf(c.getString(col)));");
+                break;
+            case FieldMapping.TYPE_STRING:
+                out.println("            " + set + "c.getString(col));");
+                break;
+            case FieldMapping.TYPE_DATE:
+                out.println("            {");
+                out.println("                long val = c.getLong(col);");
+                out.println("                " + set + "val >= 0 ? new " + c.typeName + "(val) : null);");
+                out.println("            }");
+                break;
+            case FieldMapping.TYPE_SERIALIZABLE:
+                out.println("            {");
+                out.println("                java.io.ObjectInputStream in = new java.io.ObjectInputStream(new java.io.ByteArrayInputStream(c.getBlob(col)));");
+                out.println("                " + c.typeName + " ro = (" + c.typeName + ") in.readObject();");
+                out.println("                in.close();");
+                out.println("                " + set + "ro);");
+                out.println("            }");
+                break;
+            }
+            out.println("            break;");
+        }
+        out.println("        default:");
+        out.println("            throw new IllegalArgumentException(\"Unknown column: \" + column);");
+        out.println("        }");
+        out.println("    }");
+    }
+}
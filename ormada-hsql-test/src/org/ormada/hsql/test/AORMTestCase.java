@@ -0,0 +1,93 @@
+package org.ormada.hsql.test;
+
+import java.io.File;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+import org.ormada.ORMDataSource;
+import org.ormada.hsql.test.model.Owner;
+import org.ormada.hsql.test.model.Pet;
+import org.ormada.hsql.test.model.Tagged;
+
+/**
+ * A base test case that opens an ORM data source over a fresh HSQL database for each test.
+ * 
+ * @author Jesse Rosalia
+ *
+ */
+public abstract class AORMTestCase extends TestCase {
+
+	protected File          dbDir;
+	protected TestDialect   dialect;
+	protected ORMDataSource orm;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		this.dbDir = File.createTempFile("ormada", "");
+		if (!this.dbDir.delete() || !this.dbDir.mkdir()) {
+			throw new IOException("Unable to create " + this.dbDir);
+		}
+		this.dialect = new TestDialect(getDbPath(), 1, getMaxConnections());
+		this.orm     = new ORMDataSource(this.dialect, Owner.class, Pet.class, Tagged.class);
+		this.orm.open();
+		this.dialect.clearLog();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		try {
+			this.dialect.execSQL("shutdown");
+			this.orm.close();
+		} finally {
+			delete(this.dbDir);
+		}
+		super.tearDown();
+	}
+
+	/**
+	 * Get the number of connections the dialect may open.  Override to test with a pool of connections.
+	 * 
+	 * @return
+	 */
+	protected int getMaxConnections() {
+		return 1;
+	}
+
+	protected String getDbPath() {
+		return new File(this.dbDir, "test").getPath();
+	}
+
+	/**
+	 * Count the rows written to a table since the dialect's log was last cleared.
+	 * 
+	 * @param table
+	 * @return
+	 */
+	protected int writes(String table) {
+		return this.dialect.count("save", table) + this.dialect.count("insert", table) + this.dialect.count("update", table);
+	}
+
+	protected Owner newOwner(String name, int pets) {
+		Owner owner = new Owner();
+		owner.setName(name);
+		for (int ii = 0; ii < pets; ii++) {
+			Pet pet = new Pet();
+			pet.setName(name + ii);
+			pet.setOwner(owner);
+			owner.getPets().add(pet);
+		}
+		return owner;
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (File f : files) {
+				delete(f);
+			}
+		}
+		file.delete();
+	}
+}
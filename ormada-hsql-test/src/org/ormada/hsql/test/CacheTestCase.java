@@ -0,0 +1,82 @@
+package org.ormada.hsql.test;
+
+import java.util.List;
+
+import org.ormada.cache.QueryCache;
+import org.ormada.cache.SecondLevelCache;
+import org.ormada.hsql.test.model.Owner;
+
+public class CacheTestCase extends AORMTestCase {
+
+	public void testSecondLevelCache() {
+		SecondLevelCache cache = new SecondLevelCache(100);
+		this.orm.setSecondLevelCache(cache);
+		Owner owner = newOwner("a", 2);
+		this.orm.save(owner);
+
+		this.dialect.clearLog();
+		Owner first = this.orm.get(Owner.class, owner.getId());
+		int ownerQueries = this.dialect.count("query", "Owner");
+		int petQueries   = this.dialect.count("query", "Pet");
+		this.dialect.clearLog();
+		//the rows come from the cache...only the references and collections are looked up
+		Owner second = this.orm.get(Owner.class, owner.getId());
+		assertEquals(ownerQueries - 1, this.dialect.count("query", "Owner"));
+		assertEquals(petQueries - 1, this.dialect.count("query", "Pet"));
+		assertTrue(cache.getHits() > 0);
+		assertNotSame(first, second);
+		assertEquals("a", second.getName());
+		assertEquals(2, second.getPets().size());
+
+		second.setName("b");
+		this.orm.save(second);
+		assertEquals("b", this.orm.get(Owner.class, owner.getId()).getName());
+
+		this.orm.delete(second);
+		assertNull(this.orm.get(Owner.class, owner.getId()));
+	}
+
+	public void testSecondLevelCacheDeleteAll() {
+		this.orm.setSecondLevelCache(new SecondLevelCache(100));
+		Owner owner = newOwner("a", 0);
+		this.orm.save(owner);
+		this.orm.get(Owner.class, owner.getId());
+
+		this.orm.deleteAll(Owner.class, "name = 'a'");
+		assertNull(this.orm.get(Owner.class, owner.getId()));
+	}
+
+	public void testQueryCache() {
+		QueryCache cache = new QueryCache(10);
+		this.orm.setQueryCache(cache);
+		this.orm.setSecondLevelCache(new SecondLevelCache(100));
+		for (int ii = 0; ii < 3; ii++) {
+			this.orm.save(newOwner("q" + ii, 0));
+		}
+
+		assertEquals(1, this.orm.count(Owner.class, "name = ?", new String[] { "q1" }));
+		this.dialect.clearLog();
+		assertEquals(1, this.orm.count(Owner.class, "name = ?", new String[] { "q1" }));
+		assertEquals(0, this.dialect.count("query", "Owner"));
+		assertEquals(1, cache.getHits());
+
+		List<Owner> owners = this.orm.getAll(Owner.class, null);
+		List<Owner> cached = this.orm.getAll(Owner.class, null);
+		assertEquals(2, cache.getHits());
+		assertEquals(3, cached.size());
+		for (int ii = 0; ii < owners.size(); ii++) {
+			assertEquals(owners.get(ii).getName(), cached.get(ii).getName());
+		}
+
+		//the parameters are part of the key
+		assertEquals(0, this.orm.count(Owner.class, "name = ?", new String[] { "q9" }));
+
+		Owner owner = newOwner("q1", 0);
+		this.orm.save(owner);
+		assertEquals(2, this.orm.count(Owner.class, "name = ?", new String[] { "q1" }));
+		assertEquals(4, this.orm.getAll(Owner.class, null).size());
+
+		this.orm.delete(owner);
+		assertEquals(3, this.orm.getAll(Owner.class, null).size());
+	}
+}
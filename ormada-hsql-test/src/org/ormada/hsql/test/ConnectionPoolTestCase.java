@@ -0,0 +1,133 @@
+package org.ormada.hsql.test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.ormada.dialect.ConnectionPool;
+import org.ormada.dialect.StatementCache;
+import org.ormada.hsql.test.model.Owner;
+
+public class ConnectionPoolTestCase extends AORMTestCase {
+
+	private static final int CONNECTIONS = 4;
+
+	@Override
+	protected int getMaxConnections() {
+		return CONNECTIONS;
+	}
+
+	public void testConcurrentSaves() throws Exception {
+		final List<Long> ids = Collections.synchronizedList(new ArrayList<Long>());
+		final List<Throwable> errors = Collections.synchronizedList(new ArrayList<Throwable>());
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int ii = 0; ii < 8; ii++) {
+			final String name = "t" + ii;
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					try {
+						for (int jj = 0; jj < 10; jj++) {
+							ids.add(orm.save(newOwner(name + "-" + jj, 2)));
+						}
+					} catch (Throwable e) {
+						errors.add(e);
+					}
+				}
+			};
+			threads.add(t);
+			t.start();
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		assertTrue(errors.toString(), errors.isEmpty());
+		assertEquals(80, this.orm.count(Owner.class, null, null));
+		for (long id : ids) {
+			assertEquals(2, this.orm.get(Owner.class, id).getPets().size());
+		}
+		ConnectionPool pool = this.dialect.getConnectionPool();
+		assertTrue(pool.size() <= CONNECTIONS);
+		assertEquals(pool.size(), pool.getIdleCount());
+	}
+
+	public void testBorrowIsReentrantAndWaits() throws Exception {
+		final ConnectionPool pool = new ConnectionPool(new ConnectionPool.ConnectionFactory() {
+			@Override
+			public Connection newConnection() throws SQLException {
+				return DriverManager.getConnection("jdbc:hsqldb:file:" + getDbPath(), "SA", "");
+			}
+		}, 1, 10);
+		try {
+			ConnectionPool.Lease lease = pool.borrow();
+			assertSame(lease, pool.borrow());
+			lease.release();
+
+			final ConnectionPool.Lease[] other = new ConnectionPool.Lease[1];
+			Thread t = new Thread() {
+				@Override
+				public void run() {
+					try {
+						other[0] = pool.borrow();
+						other[0].release();
+					} catch (SQLException e) {
+						throw new RuntimeException(e);
+					}
+				}
+			};
+			t.start();
+			//the other thread must wait until this thread's lease is handed back
+			while (pool.getWaits() == 0) {
+				Thread.sleep(5);
+			}
+			assertNull(other[0]);
+			lease.release();
+			t.join();
+
+			assertSame(lease, other[0]);
+			assertEquals(1, pool.size());
+			assertEquals(1, pool.getIdleCount());
+		} finally {
+			pool.close();
+		}
+		assertTrue(pool.isClosed());
+		try {
+			pool.borrow();
+			fail("Borrowed from a closed pool");
+		} catch (SQLException e) {
+			//expected
+		}
+	}
+
+	public void testStatementCache() throws Exception {
+		ConnectionPool.Lease lease = this.dialect.getConnectionPool().borrow();
+		try {
+			StatementCache cache = new StatementCache(lease.getConnection(), 1);
+			String sql = "select count(*) from Owner";
+			PreparedStatement ps = cache.acquire(sql, false);
+			//the cached statement is in use, so a second one is handed out and closed when it is released
+			PreparedStatement oneOff = cache.acquire(sql, false);
+			assertNotSame(ps, oneOff);
+			cache.release(oneOff);
+			assertTrue(oneOff.isClosed());
+			cache.release(ps);
+			assertFalse(ps.isClosed());
+			assertSame(ps, cache.acquire(sql, false));
+			assertEquals(1, cache.getHits());
+			cache.release(ps);
+
+			//caching another statement evicts the first
+			cache.release(cache.acquire("select count(*) from Pet", false));
+			assertTrue(ps.isClosed());
+			assertEquals(1, cache.size());
+			cache.clear();
+		} finally {
+			lease.release();
+		}
+	}
+}
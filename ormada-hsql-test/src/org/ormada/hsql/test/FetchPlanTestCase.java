@@ -0,0 +1,95 @@
+package org.ormada.hsql.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ormada.FetchPlan;
+import org.ormada.hsql.test.model.Owner;
+import org.ormada.hsql.test.model.Pet;
+
+public class FetchPlanTestCase extends AORMTestCase {
+
+	private Owner saveOwnerWithFriend() {
+		Owner owner = newOwner("owner", 3);
+		owner.setFriend(newOwner("friend", 0));
+		this.orm.save(owner);
+		return owner;
+	}
+
+	public void testPlan() {
+		Owner owner = saveOwnerWithFriend();
+
+		Owner fetched = this.orm.get(Owner.class, owner.getId(), new FetchPlan("friend"));
+		assertEquals("friend", fetched.getFriend().getName());
+		assertTrue(fetched.getPets().isEmpty());
+
+		fetched = this.orm.get(Owner.class, owner.getId(), FetchPlan.NONE);
+		assertNull(fetched.getFriend());
+		assertTrue(fetched.getPets().isEmpty());
+	}
+
+	public void testSaveKeepsUnfetchedCollection() {
+		Owner owner = saveOwnerWithFriend();
+
+		Owner fetched = this.orm.get(Owner.class, owner.getId(), new FetchPlan("friend"));
+		fetched.setName("renamed");
+		this.orm.save(fetched);
+
+		Owner full = this.orm.get(Owner.class, owner.getId());
+		assertEquals("renamed", full.getName());
+		assertEquals(3, full.getPets().size());
+		assertEquals(3, this.orm.count(Pet.class, null, null));
+	}
+
+	public void testSaveKeepsUnfetchedReference() {
+		Owner owner = saveOwnerWithFriend();
+
+		Owner fetched = this.orm.get(Owner.class, owner.getId(), new FetchPlan("pets"));
+		fetched.setName("renamed");
+		this.orm.save(fetched);
+		this.orm.saveAll(fetched.getPets());
+
+		Owner full = this.orm.get(Owner.class, owner.getId());
+		assertEquals("renamed", full.getName());
+		assertEquals("friend", full.getFriend().getName());
+		assertEquals(3, full.getPets().size());
+		for (Pet pet : full.getPets()) {
+			assertSame(full, pet.getOwner());
+		}
+	}
+
+	public void testChangeToUnfetchedCollectionIsRefused() {
+		Owner owner = saveOwnerWithFriend();
+
+		Owner fetched = this.orm.get(Owner.class, owner.getId(), new FetchPlan("friend"));
+		Pet pet = new Pet();
+		pet.setName("new");
+		fetched.getPets().add(pet);
+		try {
+			this.orm.save(fetched);
+			fail("Saved a change to a collection that was not fetched");
+		} catch (RuntimeException e) {
+			//expected
+		}
+		assertEquals(3, this.orm.get(Owner.class, owner.getId()).getPets().size());
+		assertEquals(3, this.orm.count(Pet.class, null, null));
+	}
+
+	public void testReplaceUnfetchedRelationships() {
+		Owner owner = saveOwnerWithFriend();
+
+		Owner fetched = this.orm.get(Owner.class, owner.getId(), FetchPlan.NONE);
+		fetched.setFriend(newOwner("other", 0));
+		List<Pet> pets = new ArrayList<Pet>();
+		Pet pet = new Pet();
+		pet.setName("only");
+		pets.add(pet);
+		fetched.setPets(pets);
+		this.orm.save(fetched);
+
+		Owner full = this.orm.get(Owner.class, owner.getId());
+		assertEquals("other", full.getFriend().getName());
+		assertEquals(1, full.getPets().size());
+		assertEquals("only", full.getPets().get(0).getName());
+	}
+}
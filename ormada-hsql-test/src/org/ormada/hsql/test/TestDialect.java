@@ -0,0 +1,119 @@
+package org.ormada.hsql.test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.ormada.dialect.DefaultValueSet;
+import org.ormada.dialect.QueryCursor;
+import org.ormada.hsql.dialect.HSQLDialect;
+
+/**
+ * An HSQL dialect for the tests, that keeps a log of the statements run against each table.
+ * 
+ * NOTE: HSQL identities start at 0, which the ORM reads as unsaved, so the ids here start at 1.
+ * @author Jesse Rosalia
+ *
+ */
+public class TestDialect extends HSQLDialect {
+
+	private final List<String> log = Collections.synchronizedList(new ArrayList<String>());
+
+	public TestDialect(String dbPath, int dbVersion) {
+		super(dbPath, dbVersion);
+	}
+
+	public TestDialect(String dbPath, int dbVersion, int maxConnections) {
+		super(dbPath, dbVersion, maxConnections);
+	}
+
+	@Override
+	public String getPrimaryKeyColumnType() {
+		return "bigint generated always as identity (start with 1) primary key";
+	}
+
+	/**
+	 * Count the statements of a kind (e.g. "insert", "delete") run against a table since the log was last cleared.
+	 * 
+	 * @param kind
+	 * @param table
+	 * @return
+	 */
+	public int count(String kind, String table) {
+		String entry = kind + " " + table;
+		int count = 0;
+		synchronized (this.log) {
+			for (String s : this.log) {
+				if (s.equals(entry)) {
+					count++;
+				}
+			}
+		}
+		return count;
+	}
+
+	public List<String> getLog() {
+		return log;
+	}
+
+	public void clearLog() {
+		this.log.clear();
+	}
+
+	@Override
+	public long save(String table, DefaultValueSet values) throws SQLException {
+		this.log.add("save " + table);
+		return super.save(table, values);
+	}
+
+	@Override
+	public Map<String, List<Long>> bulkSave(Map<String, List<DefaultValueSet>> valueMap) {
+		for (Map.Entry<String, List<DefaultValueSet>> e : valueMap.entrySet()) {
+			for (int ii = 0; ii < e.getValue().size(); ii++) {
+				this.log.add("save " + e.getKey());
+			}
+		}
+		return super.bulkSave(valueMap);
+	}
+
+	@Override
+	public long insert(String table, DefaultValueSet values) throws SQLException {
+		this.log.add("insert " + table);
+		return super.insert(table, values);
+	}
+
+	@Override
+	public void bulkInsert(String table, List<DefaultValueSet> rows) throws SQLException {
+		for (int ii = 0; ii < rows.size(); ii++) {
+			this.log.add("insert " + table);
+		}
+		super.bulkInsert(table, rows);
+	}
+
+	@Override
+	public void update(String table, DefaultValueSet values, String whereClause, String[] whereParams) throws SQLException {
+		this.log.add("update " + table);
+		super.update(table, values, whereClause, whereParams);
+	}
+
+	@Override
+	public void delete(String table, String whereClause, String[] whereParams) throws SQLException {
+		this.log.add("delete " + table);
+		super.delete(table, whereClause, whereParams);
+	}
+
+	@Override
+	public long count(String table, String whereClause, String[] whereParams) throws SQLException {
+		this.log.add("query " + table);
+		return super.count(table, whereClause, whereParams);
+	}
+
+	@Override
+	public QueryCursor query(String table, String[] fields, String selectionClause, String[] selectionArgs,
+			String groupBy, String having, String orderBy, String limit) throws SQLException {
+		this.log.add("query " + table);
+		return super.query(table, fields, selectionClause, selectionArgs, groupBy, having, orderBy, limit);
+	}
+}
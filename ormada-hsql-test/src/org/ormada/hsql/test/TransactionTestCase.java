@@ -0,0 +1,128 @@
+package org.ormada.hsql.test;
+
+import org.ormada.ORMDataSource;
+import org.ormada.Transaction;
+import org.ormada.cache.SecondLevelCache;
+import org.ormada.hsql.test.model.Owner;
+import org.ormada.hsql.test.model.Pet;
+
+public class TransactionTestCase extends AORMTestCase {
+
+	public void testCommit() {
+		Long id = this.orm.inTransaction(new Transaction<Long>() {
+			@Override
+			public Long run(ORMDataSource orm) {
+				orm.save(newOwner("a", 1));
+				return orm.save(newOwner("b", 2));
+			}
+		});
+		assertEquals(2, this.orm.count(Owner.class, null, null));
+		assertEquals(2, this.orm.get(Owner.class, id).getPets().size());
+	}
+
+	public void testRollback() {
+		final Owner saved = newOwner("saved", 0);
+		this.orm.save(saved);
+		final long savedId = saved.getId();
+
+		final Owner owner = newOwner("a", 2);
+		try {
+			this.orm.inTransaction(new Transaction<Object>() {
+				@Override
+				public Object run(ORMDataSource orm) {
+					orm.save(owner);
+					saved.setName("renamed");
+					orm.save(saved);
+					assertTrue(owner.getId() > 0);
+					throw new IllegalStateException("rollback");
+				}
+			});
+			fail("The transaction did not throw");
+		} catch (IllegalStateException e) {
+			//expected
+		}
+
+		//the inserted objects are unsaved again, and the updated one keeps its id
+		assertEquals(0, owner.getId());
+		for (Pet pet : owner.getPets()) {
+			assertEquals(0, pet.getId());
+		}
+		assertEquals(savedId, saved.getId());
+		assertEquals(1, this.orm.count(Owner.class, null, null));
+		assertEquals(0, this.orm.count(Pet.class, null, null));
+		assertEquals("saved", this.orm.get(Owner.class, savedId).getName());
+
+		//and can be saved again
+		this.orm.save(owner);
+		assertEquals(2, this.orm.get(Owner.class, owner.getId()).getPets().size());
+	}
+
+	public void testCheckedExceptionIsWrapped() {
+		try {
+			this.orm.inTransaction(new Transaction<Object>() {
+				@Override
+				public Object run(ORMDataSource orm) throws Exception {
+					orm.save(newOwner("a", 0));
+					throw new java.io.IOException("rollback");
+				}
+			});
+			fail("The transaction did not throw");
+		} catch (RuntimeException e) {
+			assertTrue(e.getCause() instanceof java.io.IOException);
+		}
+		assertEquals(0, this.orm.count(Owner.class, null, null));
+	}
+
+	public void testInnerFailureRollsBackOuter() {
+		final Owner outer = newOwner("outer", 0);
+		final Owner inner = newOwner("inner", 0);
+		try {
+			this.orm.inTransaction(new Transaction<Object>() {
+				@Override
+				public Object run(ORMDataSource orm) {
+					orm.save(outer);
+					try {
+						orm.inTransaction(new Transaction<Object>() {
+							@Override
+							public Object run(ORMDataSource orm) {
+								orm.save(inner);
+								throw new IllegalStateException("rollback");
+							}
+						});
+					} catch (IllegalStateException e) {
+						//swallowed, but the whole transaction is still rolled back
+					}
+					return null;
+				}
+			});
+			fail("The outer transaction committed");
+		} catch (RuntimeException e) {
+			//expected
+		}
+		assertEquals(0, outer.getId());
+		assertEquals(0, inner.getId());
+		assertEquals(0, this.orm.count(Owner.class, null, null));
+	}
+
+	public void testRollbackDropsCachedRows() {
+		this.orm.setSecondLevelCache(new SecondLevelCache(100));
+		final Owner owner = newOwner("a", 0);
+		this.orm.save(owner);
+		this.orm.get(Owner.class, owner.getId());
+		try {
+			this.orm.inTransaction(new Transaction<Object>() {
+				@Override
+				public Object run(ORMDataSource orm) {
+					owner.setName("b");
+					orm.save(owner);
+					//read (and maybe cache) the uncommitted row
+					assertEquals("b", orm.get(Owner.class, owner.getId()).getName());
+					throw new IllegalStateException("rollback");
+				}
+			});
+		} catch (IllegalStateException e) {
+			//expected
+		}
+		assertEquals("a", this.orm.get(Owner.class, owner.getId()).getName());
+	}
+}
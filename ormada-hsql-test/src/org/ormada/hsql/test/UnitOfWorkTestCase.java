@@ -0,0 +1,69 @@
+package org.ormada.hsql.test;
+
+import org.ormada.UnitOfWork;
+import org.ormada.hsql.test.model.Owner;
+import org.ormada.hsql.test.model.Pet;
+
+public class UnitOfWorkTestCase extends AORMTestCase {
+
+	public void testFlushWritesEachObjectOnce() {
+		Owner a = newOwner("a", 3);
+		Owner b = newOwner("b", 2);
+		UnitOfWork uow = new UnitOfWork(this.orm);
+		//register the children before their parents, and some objects twice
+		uow.registerAll(a.getPets());
+		uow.register(a);
+		uow.register(a);
+		uow.register(b);
+		uow.registerAll(b.getPets());
+		assertEquals(7, uow.size());
+
+		uow.flush();
+		assertEquals(0, uow.size());
+		assertEquals(2, writes("Owner"));
+		assertEquals(5, writes("Pet"));
+		assertTrue(a.getId() > 0 && b.getId() > 0);
+		assertEquals(3, this.orm.get(Owner.class, a.getId()).getPets().size());
+		assertEquals(2, this.orm.get(Owner.class, b.getId()).getPets().size());
+
+		//modify and flush again...each object is updated once
+		a.setName("a2");
+		Pet pet = a.getPets().get(0);
+		pet.setName("renamed");
+		uow.register(pet);
+		uow.register(a);
+		uow.register(pet);
+		this.dialect.clearLog();
+		uow.flush();
+		assertEquals(1, writes("Owner"));
+		assertEquals(3, writes("Pet"));
+		assertEquals("a2", this.orm.get(Owner.class, a.getId()).getName());
+		assertEquals("renamed", this.orm.get(Pet.class, pet.getId()).getName());
+	}
+
+	public void testFlushOwnedReferenceInSameUnit() {
+		Owner friend = newOwner("friend", 0);
+		Owner owner = newOwner("owner", 1);
+		owner.setFriend(friend);
+		UnitOfWork uow = new UnitOfWork(this.orm);
+		//the owner is registered first, so its friend is written by the owner's cascade
+		uow.register(owner);
+		uow.register(friend);
+
+		uow.flush();
+		assertTrue(friend.getId() > 0);
+		assertTrue(owner.getId() > 0);
+		assertEquals(2, writes("Owner"));
+		Owner fetched = this.orm.get(Owner.class, owner.getId());
+		assertEquals(friend.getId(), fetched.getFriend().getId());
+		assertEquals(1, fetched.getPets().size());
+	}
+
+	public void testClear() {
+		UnitOfWork uow = new UnitOfWork(this.orm);
+		uow.register(newOwner("a", 1));
+		uow.clear();
+		uow.flush();
+		assertEquals(0, this.orm.count(Owner.class, null, null));
+	}
+}
@@ -0,0 +1,144 @@
+package org.ormada.hsql.test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.ormada.dialect.QueryCursor;
+import org.ormada.hsql.test.model.Tagged;
+
+/**
+ * Tests for collections of values (e.g. strings and numbers), which are stored in a join table
+ * next to the parent's id.
+ * 
+ * NOTE: value collections are written but not read back by the ORM, so the join tables are read
+ * directly here.
+ * @author Jesse Rosalia
+ *
+ */
+public class ValueJoinTableTestCase extends AORMTestCase {
+
+	private Tagged newTagged() {
+		Tagged t = new Tagged();
+		t.setName("t");
+		t.getTags().addAll(Arrays.asList("a", "b", "b"));
+		t.getScores().addAll(Arrays.asList(1.5, 2.0));
+		t.getFlags().add(true);
+		return t;
+	}
+
+	/**
+	 * Read the values stored for a parent in a Tagged join table, sorted.
+	 * 
+	 * @param field
+	 * @param id
+	 * @return
+	 * @throws SQLException
+	 */
+	private List<String> values(String field, long id) throws SQLException {
+		List<String> values = new ArrayList<String>();
+		QueryCursor c = this.dialect.query("Tagged_" + field, new String[] { field }, "tagged = ?",
+				new String[] { String.valueOf(id) }, null, null, null);
+		try {
+			if (!c.isEmpty()) {
+				c.moveToFirst();
+				while (!c.isAfterLast()) {
+					values.add(c.getString(0));
+					c.moveToNext();
+				}
+			}
+		} finally {
+			c.close();
+		}
+		Collections.sort(values);
+		return values;
+	}
+
+	public void testSave() throws Exception {
+		Tagged t = newTagged();
+		this.orm.save(t);
+
+		assertEquals(Arrays.asList("a", "b", "b"), values("tags", t.getId()));
+		assertEquals(2, values("scores", t.getId()).size());
+		assertEquals(1, values("flags", t.getId()).size());
+	}
+
+	public void testAppendInsertsOnlyNewValues() throws Exception {
+		Tagged t = newTagged();
+		this.orm.save(t);
+
+		t.getTags().add("c");
+		this.dialect.clearLog();
+		this.orm.save(t);
+		assertEquals(1, this.dialect.count("insert", "Tagged_tags"));
+		assertEquals(0, this.dialect.count("delete", "Tagged_tags"));
+		assertEquals(Arrays.asList("a", "b", "b", "c"), values("tags", t.getId()));
+	}
+
+	public void testUnchangedStringsAreNotRewritten() {
+		Tagged t = newTagged();
+		this.orm.save(t);
+
+		this.dialect.clearLog();
+		this.orm.save(t);
+		assertEquals(0, this.dialect.count("insert", "Tagged_tags"));
+		assertEquals(0, this.dialect.count("delete", "Tagged_tags"));
+	}
+
+	public void testUnchangedNumbersAndBooleansAreNotRewritten() {
+		Tagged t = newTagged();
+		t.getFlags().add(false);
+		this.orm.save(t);
+
+		this.dialect.clearLog();
+		this.orm.save(t);
+		assertEquals(0, this.dialect.count("insert", "Tagged_scores"));
+		assertEquals(0, this.dialect.count("delete", "Tagged_scores"));
+		assertEquals(0, this.dialect.count("insert", "Tagged_flags"));
+		assertEquals(0, this.dialect.count("delete", "Tagged_flags"));
+	}
+
+	public void testRemoveDeletesOnlyThatValue() throws Exception {
+		Tagged t = newTagged();
+		t.getTags().add("c");
+		this.orm.save(t);
+
+		t.getTags().remove("a");
+		t.getScores().remove(2.0);
+		this.dialect.clearLog();
+		this.orm.save(t);
+		assertEquals(1, this.dialect.count("delete", "Tagged_tags"));
+		assertEquals(0, this.dialect.count("insert", "Tagged_tags"));
+		assertEquals(1, this.dialect.count("delete", "Tagged_scores"));
+		assertEquals(0, this.dialect.count("insert", "Tagged_scores"));
+		assertEquals(Arrays.asList("b", "b", "c"), values("tags", t.getId()));
+		assertEquals(1, values("scores", t.getId()).size());
+		assertEquals(1.5, Double.parseDouble(values("scores", t.getId()).get(0)), 0);
+	}
+
+	public void testRemoveDuplicate() throws Exception {
+		Tagged t = newTagged();
+		this.orm.save(t);
+
+		//the delete takes out both copies, so one is put back
+		t.getTags().remove("b");
+		t.getTags().add("d");
+		this.dialect.clearLog();
+		this.orm.save(t);
+		assertEquals(1, this.dialect.count("delete", "Tagged_tags"));
+		assertEquals(2, this.dialect.count("insert", "Tagged_tags"));
+		assertEquals(Arrays.asList("a", "b", "d"), values("tags", t.getId()));
+	}
+
+	public void testRemoveBoolean() throws Exception {
+		Tagged t = newTagged();
+		t.getFlags().add(false);
+		this.orm.save(t);
+
+		t.getFlags().remove(false);
+		this.orm.save(t);
+		assertEquals(Arrays.asList("TRUE"), values("flags", t.getId()));
+	}
+}
@@ -0,0 +1,49 @@
+package org.ormada.hsql.test.model;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ormada.annotations.OneToMany;
+
+public class Owner {
+
+	private long id;
+	private String name;
+
+	private Owner friend;
+
+	private List<Pet> pets = new ArrayList<Pet>();
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public Owner getFriend() {
+		return friend;
+	}
+
+	public void setFriend(Owner friend) {
+		this.friend = friend;
+	}
+
+	@OneToMany(Pet.class)
+	public List<Pet> getPets() {
+		return pets;
+	}
+
+	public void setPets(List<Pet> pets) {
+		this.pets = pets;
+	}
+}
@@ -0,0 +1,36 @@
+package org.ormada.hsql.test.model;
+
+import org.ormada.annotations.Reference;
+
+public class Pet {
+
+	private long id;
+	private String name;
+
+	private Owner owner;
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	@Reference
+	public Owner getOwner() {
+		return owner;
+	}
+
+	public void setOwner(Owner owner) {
+		this.owner = owner;
+	}
+}
@@ -0,0 +1,61 @@
+package org.ormada.hsql.test.model;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ormada.annotations.OneToMany;
+
+public class Tagged {
+
+	private long id;
+	private String name;
+
+	private List<String>  tags   = new ArrayList<String>();
+	private List<Double>  scores = new ArrayList<Double>();
+	private Set<Boolean>  flags  = new HashSet<Boolean>();
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	@OneToMany(String.class)
+	public List<String> getTags() {
+		return tags;
+	}
+
+	public void setTags(List<String> tags) {
+		this.tags = tags;
+	}
+
+	@OneToMany(Double.class)
+	public List<Double> getScores() {
+		return scores;
+	}
+
+	public void setScores(List<Double> scores) {
+		this.scores = scores;
+	}
+
+	@OneToMany(Boolean.class)
+	public Set<Boolean> getFlags() {
+		return flags;
+	}
+
+	public void setFlags(Set<Boolean> flags) {
+		this.flags = flags;
+	}
+}
@@ -4,14 +4,17 @@ import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
 
+import javax.sql.DataSource;
+
 import org.ormada.ORMDataSource;
 import org.ormada.dialect.AStandardSQLDialect;
+import org.ormada.dialect.ConnectionPool;
 import org.ormada.model.ORMeta;
 
 /**
  * An ORMada dialect for HyperSQL DB.
  * 
- * NOTE: currently only supports file based, in process DBs
+ * NOTE: currently only supports file based, in process DBs, unless a DataSource is provided
  * @author Jesse Rosalia
  *
  */
@@ -19,12 +22,40 @@ public class HSQLDialect extends AStandardSQLDialect {
 
     private static int CURRENT_DIALECT_VERSION = 1;
 
-	private String dbPath;
-    private int    dbVersion;
+	private String     dbPath;
+	private DataSource dataSource;
+    private int        dbVersion;
+    private int        maxConnections;
 
 	public HSQLDialect(String dbPath, int dbVersion) {
-		this.dbPath    = dbPath;
-		this.dbVersion = dbVersion;
+		this(dbPath, dbVersion, 1);
+	}
+
+	/**
+	 * Construct a dialect that opens up to maxConnections connections to the database file, so
+	 * several threads can use the database at once.
+	 * 
+	 * @param dbPath
+	 * @param dbVersion
+	 * @param maxConnections
+	 */
+	public HSQLDialect(String dbPath, int dbVersion, int maxConnections) {
+		this.dbPath         = dbPath;
+		this.dbVersion      = dbVersion;
+		this.maxConnections = maxConnections;
+	}
+
+	/**
+	 * Construct a dialect that borrows up to maxConnections connections from a DataSource.
+	 * 
+	 * @param dataSource
+	 * @param dbVersion
+	 * @param maxConnections
+	 */
+	public HSQLDialect(DataSource dataSource, int dbVersion, int maxConnections) {
+		this.dataSource     = dataSource;
+		this.dbVersion      = dbVersion;
+		this.maxConnections = maxConnections;
 	}
 
 	@Override
@@ -33,15 +64,28 @@ public class HSQLDialect extends AStandardSQLDialect {
 	    //must be done before doing anything else
 	    orm.setUseORMeta(true);
 	    
-		try {
-			Class.forName("org.hsqldb.jdbc.JDBCDriver");
-		} catch (Exception e) {
-			throw new RuntimeException("ERROR: failed to load HSQLDB JDBC driver.", e);
-		}
+		if (this.dataSource != null) {
+			super.setConnectionPool(new ConnectionPool(ConnectionPool.fromDataSource(this.dataSource),
+					this.maxConnections, getStatementCacheSize()));
+		} else {
+			try {
+				Class.forName("org.hsqldb.jdbc.JDBCDriver");
+			} catch (Exception e) {
+				throw new RuntimeException("ERROR: failed to load HSQLDB JDBC driver.", e);
+			}
 
-		Connection connection = DriverManager.getConnection("jdbc:hsqldb:file:"
-				+ this.dbPath, "SA", "");
-		super.setConnection(connection);
+			final String url = "jdbc:hsqldb:file:" + this.dbPath;
+			if (this.maxConnections > 1) {
+				super.setConnectionPool(new ConnectionPool(new ConnectionPool.ConnectionFactory() {
+					@Override
+					public Connection newConnection() throws SQLException {
+						return DriverManager.getConnection(url, "SA", "");
+					}
+				}, this.maxConnections, getStatementCacheSize()));
+			} else {
+				super.setConnection(DriverManager.getConnection(url, "SA", ""));
+			}
+		}
 
 		ORMeta meta = orm.getMetaData();
 		if (meta == null) {
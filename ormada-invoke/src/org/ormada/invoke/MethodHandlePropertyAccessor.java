@@ -0,0 +1,265 @@
+package org.ormada.invoke;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.ormada.reflect.PropertyAccessor;
+
+/**
+ * A property accessor that calls the getter and setter through MethodHandles.
+ *
+ * The handles are adapted once, when the accessor is built, to take the entity as an Object.
+ * Primitive properties (and their wrappers) also get a handle typed to the primitive, which
+ * the typed get and set methods call with invokeExact so the value is never boxed.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class MethodHandlePropertyAccessor implements PropertyAccessor {
+
+    private static final Map<Class<?>, Class<?>> primitives = new HashMap<Class<?>, Class<?>>();
+
+    static {
+        primitives.put(Integer.class,   int.class);
+        primitives.put(Short.class,     short.class);
+        primitives.put(Long.class,      long.class);
+        primitives.put(Float.class,     float.class);
+        primitives.put(Double.class,    double.class);
+        primitives.put(Boolean.class,   boolean.class);
+        primitives.put(Byte.class,      byte.class);
+        primitives.put(Character.class, char.class);
+    }
+
+    private final String       name;
+    private final MethodHandle getter;
+    private final MethodHandle setter;
+    private final MethodHandle typedGetter;
+    private final MethodHandle typedSetter;
+
+    /**
+     *
+     * @param getter
+     * @param setter The setter, or null if the property cannot be written to
+     * @throws IllegalAccessException If the getter or setter is not public
+     */
+    public MethodHandlePropertyAccessor(Method getter, Method setter) throws IllegalAccessException {
+        MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+        this.name = getter.getDeclaringClass().getCanonicalName() + "#" + getter.getName();
+
+        MethodHandle g = lookup.unreflect(getter);
+        this.getter = g.asType(MethodType.methodType(Object.class, Object.class));
+        Class<?> getType = toPrimitive(getter.getReturnType());
+        this.typedGetter = getType != null ? g.asType(MethodType.methodType(getType, Object.class)) : null;
+
+        if (setter != null) {
+            MethodHandle s = lookup.unreflect(setter);
+            this.setter = s.asType(MethodType.methodType(void.class, Object.class, Object.class));
+            Class<?> setType = toPrimitive(setter.getParameterTypes()[0]);
+            this.typedSetter = setType != null ? s.asType(MethodType.methodType(void.class, Object.class, setType)) : null;
+        } else {
+            this.setter      = null;
+            this.typedSetter = null;
+        }
+    }
+
+    private static Class<?> toPrimitive(Class<?> type) {
+        return type.isPrimitive() ? type : primitives.get(type);
+    }
+
+    private MethodHandle typedGetter(Class<?> type) {
+        if (typedGetter == null || typedGetter.type().returnType() != type) {
+            throw new UnsupportedOperationException(name + " is not a " + type.getName() + " property");
+        }
+        return typedGetter;
+    }
+
+    private MethodHandle typedSetter(Class<?> type) {
+        if (typedSetter == null || typedSetter.type().parameterType(1) != type) {
+            throw new UnsupportedOperationException(name + " cannot be set from a " + type.getName());
+        }
+        return typedSetter;
+    }
+
+    private static RuntimeException rethrow(Throwable t) {
+        if (t instanceof RuntimeException) {
+            return (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new RuntimeException(t);
+    }
+
+    @Override
+    public boolean isWritable() {
+        return setter != null;
+    }
+
+    @Override
+    public Object get(Object o) {
+        try {
+            return (Object) getter.invokeExact(o);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public int getInt(Object o) {
+        try {
+            return (int) typedGetter(int.class).invokeExact(o);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public short getShort(Object o) {
+        try {
+            return (short) typedGetter(short.class).invokeExact(o);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public long getLong(Object o) {
+        try {
+            return (long) typedGetter(long.class).invokeExact(o);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public float getFloat(Object o) {
+        try {
+            return (float) typedGetter(float.class).invokeExact(o);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public double getDouble(Object o) {
+        try {
+            return (double) typedGetter(double.class).invokeExact(o);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public boolean getBoolean(Object o) {
+        try {
+            return (boolean) typedGetter(boolean.class).invokeExact(o);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public byte getByte(Object o) {
+        try {
+            return (byte) typedGetter(byte.class).invokeExact(o);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public char getChar(Object o) {
+        try {
+            return (char) typedGetter(char.class).invokeExact(o);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void set(Object o, Object value) {
+        if (setter == null) {
+            throw new UnsupportedOperationException("No setter for " + name);
+        }
+        try {
+            setter.invokeExact(o, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void setInt(Object o, int value) {
+        try {
+            typedSetter(int.class).invokeExact(o, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void setShort(Object o, short value) {
+        try {
+            typedSetter(short.class).invokeExact(o, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void setLong(Object o, long value) {
+        try {
+            typedSetter(long.class).invokeExact(o, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void setFloat(Object o, float value) {
+        try {
+            typedSetter(float.class).invokeExact(o, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void setDouble(Object o, double value) {
+        try {
+            typedSetter(double.class).invokeExact(o, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void setBoolean(Object o, boolean value) {
+        try {
+            typedSetter(boolean.class).invokeExact(o, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void setByte(Object o, byte value) {
+        try {
+            typedSetter(byte.class).invokeExact(o, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+
+    @Override
+    public void setChar(Object o, char value) {
+        try {
+            typedSetter(char.class).invokeExact(o, value);
+        } catch (Throwable t) {
+            throw rethrow(t);
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package org.ormada.invoke;
+
+import java.lang.reflect.Method;
+
+import org.ormada.reflect.DefaultReflector;
+import org.ormada.reflect.PropertyAccessor;
+
+/**
+ * A reflector that reads and writes entity fields through MethodHandles instead of
+ * Method.invoke.  This requires Java 7, and is not available on Android.
+ *
+ * To use it, pass an instance into the ORMDataSource constructor:
+ *
+ *     new ORMDataSource(dialect, new MethodHandleReflector(), Cat.class, Kitten.class);
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class MethodHandleReflector extends DefaultReflector {
+
+    @Override
+    protected PropertyAccessor createAccessor(Method getter, Method setter) {
+        try {
+            return new MethodHandlePropertyAccessor(getter, setter);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
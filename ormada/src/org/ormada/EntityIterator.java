@@ -0,0 +1,97 @@
+package org.ormada;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.ormada.dialect.QueryCursor;
+
+/**
+ * An iterator over the results of a query, that builds the entities a chunk at a time
+ * from an open cursor.  Each chunk is fully populated (referenced entities and collections
+ * are fetched for the whole chunk at once) before it is handed out, and is dropped when
+ * the iterator moves on to the next chunk, so memory use depends on the chunk size and
+ * not on the size of the table.
+ *
+ * NOTE: each chunk is fetched separately, so an entity referenced from two chunks will be
+ * fetched twice, as two different objects.
+ *
+ * The iterator holds the cursor open until the last entity is returned, or until it is closed.
+ * Callers that stop early must call close.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class EntityIterator<T> implements Iterator<T> {
+
+    private ORMDataSource orm;
+    private Class<T>      clazz;
+    private QueryCursor   cursor;
+    private int           chunkSize;
+    private boolean       joined;
+
+    private List<T> chunk;
+    private int     inx;
+
+    EntityIterator(ORMDataSource orm, Class<T> clazz, QueryCursor cursor, int chunkSize, boolean joined) {
+        this.orm       = orm;
+        this.clazz     = clazz;
+        this.cursor    = cursor;
+        this.chunkSize = chunkSize;
+        this.joined    = joined;
+
+        if (cursor == null || cursor.isEmpty()) {
+            close();
+        } else {
+            cursor.moveToFirst();
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (this.chunk != null && this.inx < this.chunk.size()) {
+            return true;
+        }
+        //drop the old chunk before fetching the next one
+        this.chunk = null;
+        this.inx   = 0;
+        if (this.cursor == null) {
+            return false;
+        }
+        try {
+            this.chunk = this.orm.fetchChunk(this.clazz, this.cursor, this.chunkSize, this.joined);
+        } catch (RuntimeException e) {
+            close();
+            throw e;
+        }
+        if (this.cursor.isAfterLast()) {
+            close();
+        }
+        return !this.chunk.isEmpty();
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return this.chunk.get(this.inx++);
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Use ORMDataSource.delete to remove entities");
+    }
+
+    /**
+     * Close the underlying cursor.  Entities that have already been fetched may still be
+     * returned, but no more will be fetched.
+     *
+     */
+    public void close() {
+        if (this.cursor != null) {
+            this.cursor.close();
+            this.cursor = null;
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package org.ormada;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Describes which relationships (entity references and collections) to fetch along with
+ * the objects returned by get or getAll.
+ *
+ * A plan names relationship paths, by field name, from the class being fetched.  For example,
+ * new FetchPlan("kittens", "otherCat") fetches a Cat's kittens and its other cat, but not the
+ * other cat's kittens, and new FetchPlan("otherCat.kittens") fetches the other cat and its kittens.
+ * A plan with no paths fetches everything reachable.  A plan may also cap the number of
+ * relationships followed from the fetched objects; a max depth of 0 fetches only the objects'
+ * own fields.
+ *
+ * Relationships that are not fetched are left as the object's constructor set them.
+ *
+ * When an object fetched with a plan is saved, the references and collections that were left out
+ * are not written, so the persisted ones are kept, unless a new value (or collection) has been set
+ * into the field.  Adding to or removing from a collection that was left out is an error, as the
+ * collection does not hold the persisted entries.
+ *
+ * NOTE: an object is only built once per fetch, so if it is reached by two paths, it is filled in
+ * by whichever path reaches it first.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class FetchPlan {
+
+    public static final int UNLIMITED = -1;
+
+    /**
+     * Fetch everything reachable.
+     */
+    public static final FetchPlan ALL = new FetchPlan();
+
+    /**
+     * Fetch only the objects' own fields.
+     */
+    public static final FetchPlan NONE = new FetchPlan(0);
+
+    private static class Node {
+        private Map<String, Node> children = new HashMap<String, Node>();
+    }
+
+    //null means all fields
+    private final Node node;
+    private final int  maxDepth;
+
+    public FetchPlan(String ... paths) {
+        this(UNLIMITED, paths);
+    }
+
+    public FetchPlan(int maxDepth, String ... paths) {
+        Node root = null;
+        if (paths.length > 0) {
+            root = new Node();
+            for (String path : paths) {
+                Node n = root;
+                for (String field : path.split("\\.")) {
+                    Node child = n.children.get(field);
+                    if (child == null) {
+                        child = new Node();
+                        n.children.put(field, child);
+                    }
+                    n = child;
+                }
+            }
+        }
+        this.node     = root;
+        this.maxDepth = maxDepth;
+    }
+
+    private FetchPlan(Node node, int maxDepth) {
+        this.node     = node;
+        this.maxDepth = maxDepth;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    /**
+     * Test if the plan fetches a relationship field of the objects it applies to.
+     * 
+     * @param fieldName
+     * @return
+     */
+    public boolean includes(String fieldName) {
+        return this.maxDepth != 0 && (this.node == null || this.node.children.containsKey(fieldName));
+    }
+
+    /**
+     * Get the plan for the objects in a relationship field.
+     * 
+     * @param fieldName
+     * @return The plan, which fetches nothing if this plan does not include the field
+     */
+    FetchPlan getChild(String fieldName) {
+        if (!includes(fieldName)) {
+            return NONE;
+        }
+        if (this.node == null && this.maxDepth == UNLIMITED) {
+            return this;
+        }
+        return new FetchPlan(this.node == null ? null : this.node.children.get(fieldName),
+                this.maxDepth == UNLIMITED ? UNLIMITED : this.maxDepth - 1);
+    }
+}
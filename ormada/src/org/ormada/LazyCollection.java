@@ -0,0 +1,20 @@
+package org.ormada;
+
+import java.util.Collection;
+
+/**
+ * A collection that is fetched from the database the first time it is used.  These are set into
+ * entity collection fields when lazy collections are turned on (see ORMDataSource.setLazyCollections).
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public interface LazyCollection<T> extends Collection<T> {
+
+    /**
+     * Test if the collection has been fetched.
+     * 
+     * @return
+     */
+    public boolean isLoaded();
+}
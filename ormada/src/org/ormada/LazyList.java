@@ -0,0 +1,60 @@
+package org.ormada;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * A list that is fetched from the database the first time it is used.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class LazyList<T> extends AbstractList<T> implements LazyCollection<T> {
+
+    private LazyLoader<T> loader;
+    private long          id;
+    private List<T>       delegate;
+
+    LazyList(LazyLoader<T> loader, long id) {
+        this.loader = loader;
+        this.id     = id;
+    }
+
+    private List<T> list() {
+        if (this.delegate == null) {
+            this.delegate = (List<T>) this.loader.get(this.id);
+            this.loader   = null;
+        }
+        return this.delegate;
+    }
+
+    @Override
+    public boolean isLoaded() {
+        return this.delegate != null;
+    }
+
+    @Override
+    public T get(int index) {
+        return list().get(index);
+    }
+
+    @Override
+    public int size() {
+        return list().size();
+    }
+
+    @Override
+    public T set(int index, T element) {
+        return list().set(index, element);
+    }
+
+    @Override
+    public void add(int index, T element) {
+        list().add(index, element);
+    }
+
+    @Override
+    public T remove(int index) {
+        return list().remove(index);
+    }
+}
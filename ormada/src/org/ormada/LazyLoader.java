@@ -0,0 +1,58 @@
+package org.ormada;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.ormada.entity.EntityBuilder;
+import org.ormada.entity.FieldMapping;
+
+/**
+ * Loads one collection field for a batch of objects that were fetched together.  The first lazy
+ * collection to be used loads the collections for the whole batch, using the entity builder of the
+ * original fetch (so objects that were already built are reused), and the other lazy collections
+ * in the batch pick up their contents from the loader.
+ *
+ * NOTE: the loader holds on to the entity builder, and so to every object built in the original
+ * fetch, until the batch is loaded.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+class LazyLoader<T> {
+
+    private ORMDataSource orm;
+    private Class<?>      clazz;
+    private FieldMapping  field;
+    private List<?>       objects;
+    private EntityBuilder entityBuilder;
+    private FetchPlan     plan;
+
+    private Map<Long, Collection<T>> loaded;
+
+    LazyLoader(ORMDataSource orm, Class<?> clazz, FieldMapping field, List<?> objects, EntityBuilder entityBuilder, FetchPlan plan) {
+        this.orm           = orm;
+        this.clazz         = clazz;
+        this.field         = field;
+        this.objects       = objects;
+        this.entityBuilder = entityBuilder;
+        this.plan          = plan;
+    }
+
+    /**
+     * Get the collection for an object in this batch, loading the batch if needed.  This may be called
+     * only once per object.
+     * 
+     * @param id
+     * @return
+     */
+    Collection<T> get(long id) {
+        if (this.loaded == null) {
+            this.loaded = this.orm.loadCollections(this.clazz, this.field, this.objects, this.entityBuilder, this.plan);
+            //we don't need these anymore, so let them be collected
+            this.objects       = null;
+            this.entityBuilder = null;
+        }
+        return this.loaded.remove(id);
+    }
+}
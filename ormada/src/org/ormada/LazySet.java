@@ -0,0 +1,61 @@
+package org.ormada;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * A set that is fetched from the database the first time it is used.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class LazySet<T> extends AbstractSet<T> implements LazyCollection<T> {
+
+    private LazyLoader<T> loader;
+    private long          id;
+    private Set<T>        delegate;
+
+    LazySet(LazyLoader<T> loader, long id) {
+        this.loader = loader;
+        this.id     = id;
+    }
+
+    private Set<T> set() {
+        if (this.delegate == null) {
+            this.delegate = (Set<T>) this.loader.get(this.id);
+            this.loader   = null;
+        }
+        return this.delegate;
+    }
+
+    @Override
+    public boolean isLoaded() {
+        return this.delegate != null;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+        return set().iterator();
+    }
+
+    @Override
+    public int size() {
+        return set().size();
+    }
+
+    @Override
+    public boolean add(T e) {
+        return set().add(e);
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return set().contains(o);
+    }
+
+    @Override
+    public boolean remove(Object o) {
+        return set().remove(o);
+    }
+}
@@ -3,7 +3,6 @@ package org.ormada;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
-import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.sql.SQLException;
@@ -14,27 +13,41 @@ import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import org.ormada.annotations.OneToMany;
 import org.ormada.annotations.Reference;
 import org.ormada.annotations.Text;
 import org.ormada.annotations.Transient;
+import org.ormada.cache.QueryCache;
+import org.ormada.cache.RowCursor;
+import org.ormada.cache.SecondLevelCache;
+import org.ormada.dialect.DefaultValueSet;
 import org.ormada.dialect.Dialect;
 import org.ormada.dialect.QueryCursor;
 import org.ormada.dialect.ValueSet;
 import org.ormada.entity.Entity;
 import org.ormada.entity.EntityBuilder;
+import org.ormada.entity.EntityBuilder.ColumnRange;
+import org.ormada.entity.EntityMapper;
+import org.ormada.entity.EntityMapping;
 import org.ormada.entity.EntityMetaData;
+import org.ormada.entity.FieldMapping;
 import org.ormada.exception.MixedCollectionException;
 import org.ormada.exception.UnableToOpenException;
 import org.ormada.exception.UnsavedReferenceException;
 import org.ormada.model.ORMeta;
 import org.ormada.reflect.DefaultReflector;
+import org.ormada.reflect.PropertyAccessor;
 import org.ormada.reflect.Reflector;
+import org.ormada.util.InClause;
+import org.ormada.util.WeakIdentityMap;
 import org.ormada.util.Profiler;
 
 /**
@@ -51,6 +64,10 @@ import org.ormada.util.Profiler;
  *
  * Part of the ORMada project.
  * 
+ * A data source may be shared between threads, as long as its dialect is thread safe (e.g. AStandardSQLDialect,
+ * which lends each operation a connection from its pool).  The entities themselves are not synchronized, so
+ * threads must not save or modify the same objects at the same time.
+ * 
  * @author Jesse Rosalia
  *
  */
@@ -61,21 +78,222 @@ public class ORMDataSource {
 
     private static final int CURRENT_ORM_VERSION = 1;
 
+    private static final int CLASS_ENTITY = 1;
+    private static final int CLASS_ORMETA = 2;
+
+    // Suffix appended to an entity class name to find its generated mapper
+    private static final String MAPPER_SUFFIX = "_Mapper";
+
+    // Number of entities built at a time by iterate
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
     private List<Class<?>> entities;
 
     private Dialect database;
 
-    private boolean useORMeta;
+    private volatile boolean useORMeta;
+
+    private volatile boolean eagerJoins;
+
+    private volatile boolean lazyCollections;
+
+    private volatile SecondLevelCache secondLevelCache;
+
+    private volatile QueryCache queryCache;
+
+    //the executor to build fetched objects on, and the number of rows built per task (see setParallelHydration)
+    private volatile Executor hydrationExecutor;
+    private volatile int      hydrationChunkSize;
+
+    //the objects written so far by the unit of work that is flushing on each thread
+    private final ThreadLocal<Map<Object, Boolean>> flushed = new ThreadLocal<Map<Object, Boolean>>();
+
+    //the transaction in progress on each thread
+    private final ThreadLocal<TransactionState> transaction = new ThreadLocal<TransactionState>();
+
+    //snapshots of the entities fetched or saved through this data source, when dirty tracking is on
+    private volatile WeakIdentityMap<Object, Snapshot> snapshots;
+
+    //the relationships left out of the fetch plans that entities were fetched with
+    private final WeakIdentityMap<Object, Unfetched> unfetched = new WeakIdentityMap<Object, Unfetched>();
     
     private Reflector reflector;
 
+    private Map<Class<?>, EntityMapping> mappings;
+
+    // Classification of the registered classes, keyed by identity.  Classes that are not in
+    // this table are value types.
+    private Map<Class<?>, Integer> classKinds;
+
     public ORMDataSource(Dialect dialect, Class<?> ... entities) {
+        this(dialect, new DefaultReflector(), entities);
+    }
+
+    /**
+     * Construct a data source that uses the specified reflector to access entity fields.  This lets
+     * a platform that supports faster property access (e.g. MethodHandleReflector on Java 7) replace
+     * the default, Method.invoke based reflector.
+     *
+     * @param dialect
+     * @param reflector
+     * @param entities
+     */
+    public ORMDataSource(Dialect dialect, Reflector reflector, Class<?> ... entities) {
     	this.database  = dialect;
         this.entities  = Arrays.asList(entities);
-        this.reflector = new DefaultReflector();
+        this.reflector = reflector;
+        this.classKinds = buildClassKinds();
+        this.mappings = buildMappings();
+    }
+
+    /**
+     * Build the mapping model for all of the entity classes (and ORMeta).  This is done once,
+     * up front, so the save and fetch paths never have to scan the entity classes again.
+     *
+     * @return
+     */
+    private Map<Class<?>, EntityMapping> buildMappings() {
+        Map<Class<?>, EntityMapping> mappings = new IdentityHashMap<Class<?>, EntityMapping>();
+        mappings.put(ORMeta.class, buildMapping(ORMeta.class));
         for (Class<?> entity : entities) {
-            checkIsEntityClass(entity);
+            mappings.put(entity, buildMapping(entity));
+        }
+        return Collections.unmodifiableMap(mappings);
+    }
+
+    private EntityMapping buildMapping(Class<?> clazz) {
+        List<FieldMapping> columns     = new ArrayList<FieldMapping>();
+        List<FieldMapping> collections = new ArrayList<FieldMapping>();
+        for (Method m : clazz.getMethods()) {
+            if (!isPersisted(m)) {
+                continue;
+            }
+            String  fieldName = getFieldNameFromMethod(m);
+            boolean text      = m.isAnnotationPresent(Text.class);
+            if (isCollection(m)) {
+                OneToMany c = m.getAnnotation(OneToMany.class);
+                if (c == null || c.value() == null) {
+                    throw new RuntimeException("Collections must be marked with the appropriate annotation, or @Transient: " + m.toString());
+                }
+                //collections are filled using an adder if one exists, otherwise a setter
+                Method a = null;
+                Method s = null;
+                try {
+                    a = this.reflector.getAdder(clazz, fieldName, c.value());
+                } catch (NoSuchMethodException e) {
+                    s = findSetter(clazz, fieldName);
+                }
+                collections.add(new FieldMapping(fieldName, m, s, a, getAccessor(clazz, fieldName), isReference(m), text,
+                        c.value(), FieldMapping.typeCodeOf(c.value(), isEntity(c.value()))));
+            } else {
+                columns.add(new FieldMapping(fieldName, m, findSetter(clazz, fieldName), getAccessor(clazz, fieldName),
+                        FieldMapping.typeCodeOf(m.getReturnType(), isEntity(m.getReturnType())),
+                        EntityMetaData.isIdGetter(m), isReference(m), text));
+            }
+        }
+        return new EntityMapping(clazz, getTableNameForClass(clazz), columns, collections, findMapper(clazz, columns));
+    }
+
+    /**
+     * Find the mapper generated for an entity class by the annotation processor, if one exists.
+     *
+     * The mapper is only used if it agrees with the reflected columns, so a stale mapper (e.g. left
+     * over from an older build of the class) falls back to reflection instead of corrupting data.
+     *
+     * @param clazz
+     * @param columns
+     * @return The mapper, or null if there is no usable mapper for this class
+     */
+    private EntityMapper<?> findMapper(Class<?> clazz, List<FieldMapping> columns) {
+        EntityMapper<?> mapper;
+        try {
+            Class<?> mapperClass = Class.forName(clazz.getName() + MAPPER_SUFFIX, true, clazz.getClassLoader());
+            mapper = (EntityMapper<?>) mapperClass.getDeclaredConstructor().newInstance();
+        } catch (ClassNotFoundException e) {
+            //no generated mapper...use reflection
+            return null;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+
+        Map<String, FieldMapping> byName = new HashMap<String, FieldMapping>();
+        for (FieldMapping f : columns) {
+            byName.put(f.getName(), f);
+        }
+        String[] names = mapper.getColumnNames();
+        int[]    types = mapper.getColumnTypes();
+        boolean matches = mapper.getEntityClass() == clazz && names.length == columns.size();
+        for (int ii = 0; matches && ii < names.length; ii++) {
+            FieldMapping f = byName.get(names[ii]);
+            matches = f != null && f.getTypeCode() == types[ii];
+        }
+        if (!matches) {
+            //a stale mapper...use reflection until it is regenerated
+            return null;
+        }
+        return mapper;
+    }
+
+    private Method findSetter(Class<?> clazz, String fieldName) {
+        try {
+            return this.reflector.getSetter(clazz, fieldName);
+        } catch (NoSuchMethodException e) {
+            //not all persisted fields can be written to...this is only an error if we try to fetch it
+            return null;
+        }
+    }
+
+    private PropertyAccessor getAccessor(Class<?> clazz, String fieldName) {
+        try {
+            return this.reflector.getAccessor(clazz, fieldName);
+        } catch (NoSuchMethodException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Get the id of an entity object.  This uses the precomputed id accessor for the object's class,
+     * so it does not allocate or do any string keyed lookups.
+     *
+     * @param o
+     * @return
+     */
+    private long getId(Object o) {
+        EntityMapping mapping = this.mappings.get(o.getClass());
+        //NOTE: fall back to reflection for classes we do not have a mapping for (e.g. a subclass of an entity)
+        return mapping != null ? mapping.getId(o) : new Entity(reflector, o).getId();
+    }
+
+    private void setId(Object o, long id) {
+        EntityMapping mapping = this.mappings.get(o.getClass());
+        if (mapping != null) {
+            mapping.setId(o, id);
+        } else {
+            new Entity(reflector, o).setId(id);
+        }
+    }
+
+    /**
+     * Set the id of an object that was just written.  If the object was inserted, this is recorded
+     * in the current transaction, so the id can be taken back if the transaction is rolled back.
+     * 
+     * @param o
+     * @param id
+     */
+    private void assignId(Object o, long id) {
+        TransactionState state = this.transaction.get();
+        if (state != null && !Entity.isSaved(getId(o))) {
+            state.inserted(o);
+        }
+        setId(o, id);
+    }
+
+    EntityMapping getMapping(Class<?> clazz) {
+        EntityMapping mapping = this.mappings.get(clazz);
+        if (mapping == null) {
+            throw new RuntimeException("Class " + clazz.getCanonicalName() + " is not an entity class.  Did you remember to define an id attribute?");
         }
+        return mapping;
     }
 
     public void open() throws UnableToOpenException {
@@ -127,56 +345,46 @@ public class ORMDataSource {
     private void createTablesForClass(Dialect database,
             Class<?> clazz) throws SQLException {
         List<String> createStmts = new LinkedList<String>();
+        EntityMapping mapping = getMapping(clazz);
         //add the main class table
         StringBuilder fieldListBuilder = new StringBuilder();
-        for (Method m : clazz.getMethods()) {
-            //process the getters for singular objects here
-            //no collections...they get processed later
-            if (isPersisted(m) && !isCollection(m)) {
-                if (fieldListBuilder.length() > 0) {
-                    fieldListBuilder.append(",");
-                }
-                fieldListBuilder.append(getFieldNameFromMethod(m)).append(" ");
-                if (EntityMetaData.isIdGetter(m)) {
-                    if (!(long.class.isAssignableFrom(m.getReturnType()) || Long.class.isAssignableFrom(m.getReturnType()))) {
-                        throw new RuntimeException("Id field must be a long or Long type");
-                    }
-                    fieldListBuilder.append(" ").append(this.database.getPrimaryKeyColumnType());
-                } else {
-                    fieldListBuilder.append(getColumnType(m.getReturnType(), m.isAnnotationPresent(Text.class)));
+        //process the getters for singular objects here
+        //no collections...they get processed later
+        for (FieldMapping f : mapping.getColumns()) {
+            if (fieldListBuilder.length() > 0) {
+                fieldListBuilder.append(",");
+            }
+            fieldListBuilder.append(f.getName()).append(" ");
+            if (f.isId()) {
+                if (!(long.class.isAssignableFrom(f.getType()) || Long.class.isAssignableFrom(f.getType()))) {
+                    throw new RuntimeException("Id field must be a long or Long type");
                 }
+                fieldListBuilder.append(" ").append(this.database.getPrimaryKeyColumnType());
+            } else {
+                fieldListBuilder.append(getColumnType(f.getType(), f.isText()));
             }
         }
 
         //add to the list...we queue up the create statements and exec them all at the end
         // to avoid half creating the db and encountering an error
-        createStmts.add(String.format(DATABASE_CREATE_FMT, getTableNameForClass(clazz), fieldListBuilder.toString()));
+        String tableName = mapping.getTableName();
+        createStmts.add(String.format(DATABASE_CREATE_FMT, tableName, fieldListBuilder.toString()));
         //process collections here...collections will be stored in a join table
         // which will use this object's key and either a static value or
         // another objects key
-        for (Method m : clazz.getMethods()) {
-            if (isPersisted(m) && isCollection(m)) {
-                OneToMany c = m.getAnnotation(OneToMany.class);
-                if (c == null || c.value() == null) {
-                    throw new RuntimeException("Collections must be marked with the appropriate annotation, or @Transient: " + m.toString());
-                }
-
-                Class<?> colClass = c.value();
-                String fieldName = getFieldNameFromMethod(m);
-                //the join table name will be objname_fieldName
-                String tableName = getTableNameForClass(clazz);
-                String joinTableName = buildJoinTableName(tableName, fieldName);
-                fieldListBuilder = new StringBuilder();
-                //build the field list using the camel case representation of the object's class name
-                // and the fieldName.  This is similar to the table name..
-                //TODO: this breaks if the class name (table name) and the field name are the same, but that's unlikely
-                // since the class name is likely to be singular and the collection name is likely to be plural
-                fieldListBuilder.append(getJoinTableIDName(tableName))   .append(" ")
-                                .append(getColumnType(clazz, false))     .append(",")
-                                .append(getJoinTableValueName(fieldName)).append(" ")
-                                .append(getColumnType(c.value(), m.isAnnotationPresent(Text.class)));
-                createStmts.add(String.format(DATABASE_CREATE_FMT, joinTableName, fieldListBuilder.toString()));
-            }
+        for (FieldMapping f : mapping.getCollections()) {
+            //the join table name will be objname_fieldName
+            String joinTableName = buildJoinTableName(tableName, f.getName());
+            fieldListBuilder = new StringBuilder();
+            //build the field list using the camel case representation of the object's class name
+            // and the fieldName.  This is similar to the table name..
+            //TODO: this breaks if the class name (table name) and the field name are the same, but that's unlikely
+            // since the class name is likely to be singular and the collection name is likely to be plural
+            fieldListBuilder.append(getJoinTableIDName(tableName))    .append(" ")
+                            .append(getColumnType(clazz, false))      .append(",")
+                            .append(getJoinTableValueName(f.getName())).append(" ")
+                            .append(getColumnType(f.getValueClass(), f.isText()));
+            createStmts.add(String.format(DATABASE_CREATE_FMT, joinTableName, fieldListBuilder.toString()));
         }
 
         //execute all of the create statements
@@ -215,12 +423,33 @@ public class ORMDataSource {
     }
 
     public boolean isEntity(Class<?> typeClass) {
-        try {
-            new EntityMetaData(reflector, typeClass).getIdGetter();
-            //NOTE: ORMeta will not be in entities, but we want to treat it as an entity if we're using that class to store data.
-            return (ORMeta.class.isAssignableFrom(typeClass) && this.useORMeta) || entities.contains(typeClass);
-        } catch (Exception e) {}
-        return false;
+        Integer kind = this.classKinds.get(typeClass);
+        if (kind == null) {
+            //not registered...this is a value type
+            return false;
+        }
+        //NOTE: ORMeta will not be in entities, but we want to treat it as an entity if we're using that class to store data.
+        return kind == CLASS_ENTITY || (kind == CLASS_ORMETA && this.useORMeta);
+    }
+
+    /**
+     * Build the class classification table.  Every registered entity must define an id attribute;
+     * any class not in the table is a value type.
+     *
+     * @return
+     */
+    private Map<Class<?>, Integer> buildClassKinds() {
+        Map<Class<?>, Integer> kinds = new IdentityHashMap<Class<?>, Integer>();
+        kinds.put(ORMeta.class, CLASS_ORMETA);
+        for (Class<?> entity : entities) {
+            try {
+                new EntityMetaData(reflector, entity).getIdGetter();
+            } catch (NoSuchMethodException e) {
+                throw new RuntimeException("Class " + entity.getCanonicalName() + " is not an entity class.  Did you remember to define an id attribute?");
+            }
+            kinds.put(entity, CLASS_ENTITY);
+        }
+        return kinds;
     }
 
     private String getFieldNameFromMethod(Method m) {
@@ -272,20 +501,6 @@ public class ORMDataSource {
     private boolean isReference(Method m) {
         return m.isAnnotationPresent(Reference.class);
     }
-    /**
-     * Test if a field should be included in the insert/update ValueSet set
-     *
-     * NOTE: we test the method here...it's a little funky, but as a general rule
-     * if a getter exists (and it's not the id, or in Object), it can be
-     * inserted/updated.
-     *
-     * @param m
-     * @return
-     */
-    private boolean isIncludedInValueSet(Method m, boolean includeId) {
-        return isPersisted(m) && (includeId || !EntityMetaData.isIdGetter(m)) && !isCollection(m);
-    }
-
     private String toCamelCase(String str) {
         return str.substring(0, 1).toLowerCase() + str.substring(1);
     }
@@ -295,14 +510,13 @@ public class ORMDataSource {
         //drop any join tables
         //NOTE: because of how we drop these tables, we likely cannot have any actual foreign key constraints
         // or else we'll get all kinds of weird "out of order" issues
-        for (Method m : clazz.getMethods()) {
-            //clean up the join tables only if this collection is persisted
-            if (isPersisted(m) && isCollection(m)) {
-                database.execSQL("DROP TABLE IF EXISTS " + buildJoinTableName(getTableNameForClass(clazz), getFieldNameFromMethod(m)));
-            }
+        EntityMapping mapping = getMapping(clazz);
+        for (FieldMapping f : mapping.getCollections()) {
+            database.execSQL("DROP TABLE IF EXISTS " + buildJoinTableName(mapping.getTableName(), f.getName()));
         }
         //drop the main table
         database.execSQL("DROP TABLE IF EXISTS " + getTableNameForClass(clazz));
+        invalidate(clazz);
     }
 
     public void upgradeAllTables(int oldVersion, int newVersion) {
@@ -369,22 +583,52 @@ public class ORMDataSource {
      * the ID (so it can determine if it needs to insert or update)
      * @return
      */
+    @SuppressWarnings("unchecked")
     private List<ValueSet> dumpObjects(Class<?> clazz, Collection<Object> objects, boolean includeId) {
         List<ValueSet> valueSets = new ArrayList<ValueSet>(objects.size());
         for (Object o : objects) {
             valueSets.add(this.database.prepareValueSet());
         }
+        return writeColumns(clazz, objects, includeId, valueSets);
+    }
+
+    /**
+     * Write the columns for each object into the corresponding value set.
+     * 
+     * @param clazz
+     * @param objects
+     * @param includeId
+     * @param valueSets
+     * @return The value sets
+     */
+    @SuppressWarnings("unchecked")
+    private <V extends ValueSet> List<V> writeColumns(Class<?> clazz, Collection<?> objects, boolean includeId, List<V> valueSets) {
+        //use the compiled mapper, if there is one
+        EntityMapper<Object> mapper = (EntityMapper<Object>) getMapping(clazz).getMapper();
+        //NOTE: the mapper writes every column, so objects with unfetched references are written here
+        if (mapper != null && !hasUnfetched(objects)) {
+            int ii = 0;
+            for (Object o : objects) {
+                mapper.writeColumns(o, valueSets.get(ii), includeId);
+                ii++;
+            }
+            return valueSets;
+        }
         try {
-            for (Method m : clazz.getMethods()) {
-                //process the getters for singular objects here
-                //NOTE: exclude anything from the base Object class here, and possibly the id
-                //no collections...they get processed later
-                if (isIncludedInValueSet(m, includeId)) {
+            //process the getters for singular objects here
+            //NOTE: collections are not columns...they get processed later
+            for (FieldMapping f : getMapping(clazz).getColumns()) {
+                //NOTE: exclude the id, if requested
+                if (includeId || !f.isId()) {
+                    PropertyAccessor g = f.getAccessor();
                     int ii = 0;
                     for (Object o : objects) {
-                        Object val = m.invoke(o);
-                        ValueSet values = valueSets.get(ii);
-                        setValueIntoContentValues(values, m.getReturnType(), getFieldNameFromMethod(m), val);
+                        Object val = g.get(o);
+                        //leave out references that were not fetched, so the persisted ones are kept
+                        if (!f.isEntity() || !isUnfetched(o, f, val)) {
+                            ValueSet values = valueSets.get(ii);
+                            setValueIntoContentValues(values, f.getTypeCode(), f.getType(), f.getName(), val);
+                        }
                         ii++;
                     }
                 }
@@ -417,17 +661,8 @@ public class ORMDataSource {
      * @param clazz
      * @return
      */
-    private List<String> getColumns(Class<?> clazz) {
-        List<String> columns = new LinkedList<String>();
-        for (Method m : clazz.getMethods()) {
-            //process the getters for singular objects here
-            if (isPersisted(m)
-                    && !java.util.Collection.class.isAssignableFrom(m.getReturnType())) {
-                columns.add(getFieldNameFromMethod(m));
-            }
-        }
-
-        return columns;
+    private String[] getColumns(Class<?> clazz) {
+        return getMapping(clazz).getColumnNames();
     }
 
     /**
@@ -440,29 +675,40 @@ public class ORMDataSource {
      * @param c
      * @param col
      */
-    private void setValueIntoContentValues(ValueSet values, Class typeClass, String key, Object value) {
-        //use the setter parameter to determine the data type to get from the cursor
-        if (int.class.isAssignableFrom(typeClass) || Integer.class.isAssignableFrom(typeClass)) {
+    private void setValueIntoContentValues(ValueSet values, int typeCode, Class<?> typeClass, String key, Object value) {
+        //use the resolved type code to determine the data type to put into the value set
+        switch (typeCode) {
+        case FieldMapping.TYPE_INT:
             values.put(key, (Integer)value);
-        } else if (short.class.isAssignableFrom(typeClass) || Short.class.isAssignableFrom(typeClass)) {
+            break;
+        case FieldMapping.TYPE_SHORT:
             values.put(key, (Short)value);
-        } else if (long.class.isAssignableFrom(typeClass) || Long.class.isAssignableFrom(typeClass)) {
+            break;
+        case FieldMapping.TYPE_LONG:
             values.put(key, (Long)value);
-        } else if (float.class.isAssignableFrom(typeClass) || Float.class.isAssignableFrom(typeClass)) {
+            break;
+        case FieldMapping.TYPE_FLOAT:
             values.put(key, (Float)value);
-        } else if (double.class.isAssignableFrom(typeClass) || Double.class.isAssignableFrom(typeClass)) {
+            break;
+        case FieldMapping.TYPE_DOUBLE:
             values.put(key, (Double)value);
-        } else if (boolean.class.isAssignableFrom(typeClass) || Boolean.class.isAssignableFrom(typeClass)) {
+            break;
+        case FieldMapping.TYPE_BOOLEAN:
             values.put(key, (Boolean)value);
-        } else if (byte.class.isAssignableFrom(typeClass) || Byte.class.isAssignableFrom(typeClass)) {
+            break;
+        case FieldMapping.TYPE_BYTE:
             values.put(key, (Byte)value);
-        } else if (char.class.isAssignableFrom(typeClass) || Character.class.isAssignableFrom(typeClass)) {
+            break;
+        case FieldMapping.TYPE_CHAR:
             values.put(key, String.valueOf((Character)value));
-        } else if (Enum.class.isAssignableFrom(typeClass)) {
-            values.put(key, ((Enum)value).name());
-        } else if (String.class.isAssignableFrom(typeClass)) {
+            break;
+        case FieldMapping.TYPE_ENUM:
+            values.put(key, ((Enum<?>)value).name());
+            break;
+        case FieldMapping.TYPE_STRING:
             values.put(key, (String)value);
-        } else if (Date.class.isAssignableFrom(typeClass)) {
+            break;
+        case FieldMapping.TYPE_DATE:
             //NOTE: since dates cannot be < 0, and null long columns are a pain in the butt,
             // use -1 to denote null
             if (value != null) {
@@ -470,13 +716,13 @@ public class ORMDataSource {
             } else {
                 values.put(key, -1);
             }
-        } else if (isEntity(typeClass)) {
+            break;
+        case FieldMapping.TYPE_ENTITY:
             //NOTE: since entity ids cannot be < 0, and null long columns are a pain in the butt,
             // use -1 to denote null
         	if (value != null) {
-                Entity entity = new Entity(reflector, value);
                 //entities: store the ID
-        	    long id = (int)entity.getId();
+        	    long id = getId(value);
         	    if (id == 0) {
         	        System.out.println("WARN: reference stored to unsaved entity (id=0)");
         	        throw new RuntimeException("Reference stored to unsaved entity (id=0)");
@@ -485,7 +731,8 @@ public class ORMDataSource {
         	} else {
                 values.put(key, -1);
         	}
-        } else if (Serializable.class.isAssignableFrom(typeClass)) {
+        	break;
+        case FieldMapping.TYPE_SERIALIZABLE:
             try {
                 //unserialize the object
                 ByteArrayOutputStream baos = new ByteArrayOutputStream();
@@ -497,7 +744,8 @@ public class ORMDataSource {
             } catch (IOException ex) {
                 throw new RuntimeException(ex);
             }
-        } else {
+            break;
+        default:
             throw new RuntimeException("Unsupported type: " + typeClass.getCanonicalName());
         }
     }
@@ -535,39 +783,42 @@ public class ORMDataSource {
      * 
      * @param os
      */
-    private void checkReferences(Collection<Object> os) {
+    private void checkReferences(Collection<?> os) {
         //first, split up the collection by class...in most cases, this will only contain
         // one entry, but it gives us some flexibility
         Map<Class<?>, List<Object>> split = splitByClass(os);
-        //for each class, iterate through the methods...we only want to process persisted references
+        //for each class, iterate through the mapped fields...we only want to process persisted references
         for (Class<?> clazz : split.keySet()) {
             Collection<Object> col = split.get(clazz);
-            for (Method m : clazz.getMethods()) {
-                if (isPersisted(m) && isReference(m)) {
+            for (FieldMapping f : getMapping(clazz).getFields()) {
+                if (f.isReference()) {
                     try {
                         //if it's a referenced collection, we need to check all of the values to make sure theyre saved
-                        if (isCollection(m)) {
-                            OneToMany c = m.getAnnotation(OneToMany.class);
-                            if (c == null || c.value() == null) {
-                                throw new RuntimeException("Collections must be marked with the appropriate annotation, or @Transient");
-                            }
-                            if (isEntity(c.value())) {
+                        if (f.isCollection()) {
+                            if (f.isEntityCollection()) {
                                 //create a set to contain the aggregated values to check...this will speed up the check
                                 // as reflection and other setup code can be very slow (particularly on mobile).
                                 Set<Object> toCheck = new HashSet<Object>();
                                 //aggregate all of the entities in the collection field, for all objects in the class-based collection
                                 for (Object o : col) {
-                                    Collection<?> ref = (Collection<?>) m.invoke(o);
-                                    toCheck.addAll(ref);
+                                    Collection<?> ref = (Collection<?>) f.getAccessor().get(o);
+                                    if (ref != null) {
+                                        toCheck.addAll(ref);
+                                    }
                                 }
                                 //run a check for unsaved references against the aggregated set 
-                                doCheckForUnsavedReferences(clazz, m, c.value(), toCheck);
+                                doCheckForUnsavedReferences(clazz, f, toCheck);
                             }
                         }
                         //otherwise, check if its an entity reference
-                        else if (isEntity(m.getReturnType())) {
+                        else if (f.isEntity()) {
+                            //aggregate the referenced entities for all objects in the class-based collection
+                            List<Object> toCheck = new ArrayList<Object>(col.size());
+                            for (Object o : col) {
+                                toCheck.add(f.getAccessor().get(o));
+                            }
                             //run a check for unsaved references against the aggregated set 
-                            doCheckForUnsavedReferences(clazz, m, m.getReturnType(), col);
+                            doCheckForUnsavedReferences(clazz, f, toCheck);
                         }
                     } catch (Exception e) {
                         //if we've accidentally caught an UnsavedReferenceException, just rethrow it
@@ -583,26 +834,19 @@ public class ORMDataSource {
     }
 
     /**
-     * Run a check for unsaved references against a collection of objects.
+     * Run a check for unsaved references against a collection of referenced objects.
      * 
      * NOTE: if the collection is null or empty, this does nothing.
      * 
      * @param parentClass
-     * @param method
-     * @param valueClass
-     * @param objects
-     * @throws NoSuchMethodException
-     * @throws IllegalAccessException
-     * @throws InvocationTargetException
+     * @param field
+     * @param references
      */
-    private void doCheckForUnsavedReferences(Class<?> parentClass, Method method, Class<?> valueClass, Collection<?> objects) throws NoSuchMethodException,
-            IllegalAccessException, InvocationTargetException {
-        if (objects != null && !objects.isEmpty()) {
-            for (Object o : objects) {
-                Object r = method.invoke(o);
-                Entity entity = new Entity(reflector, r);
-                if (r != null && !entity.isSaved()) {
-                    throw new UnsavedReferenceException(parentClass, getFieldNameFromMethod(method));
+    private void doCheckForUnsavedReferences(Class<?> parentClass, FieldMapping field, Collection<?> references) {
+        if (references != null && !references.isEmpty()) {
+            for (Object r : references) {
+                if (r != null && !Entity.isSaved(getId(r))) {
+                    throw new UnsavedReferenceException(parentClass, field.getName());
                 }
             }
         }
@@ -611,9 +855,14 @@ public class ORMDataSource {
     public <T> void refresh(T o) {
     	checkIsOpened();
     	checkIsEntity(o);
-    	Entity entity = new Entity(reflector, o);
-    	Object persisted = doGet(o.getClass(), entity.getId(), newEntityBuilder());
+    	Object persisted = doGet(o.getClass(), getId(o), newEntityBuilder(), FetchPlan.ALL);
     	copy(persisted, o);
+    	//o now holds all of its relationships
+    	this.unfetched.remove(o);
+    	//o now holds the persisted state, so it takes on the fetched object's snapshot
+    	if (this.snapshots != null && this.snapshots.get(persisted) != null) {
+    	    this.snapshots.put(o, this.snapshots.get(persisted));
+    	}
     }
 
     /**
@@ -626,26 +875,54 @@ public class ORMDataSource {
      */
     private void copy(Object from, Object to) {
     	try {
-	        for (Method m : to.getClass().getMethods()) {
-	            Class<?> typeClass = m.getReturnType();
-	            if (isPersisted(m)) {
-	            	String fieldName = getFieldNameFromMethod(m);
-	            	Method g = this.reflector.getGetter(from.getClass(), fieldName);
-	            	Method s = this.reflector.getSetter(to.getClass(), fieldName);
-	            	//copy the value from "from" to "to"
-	            	s.invoke(to, new Object[]{g.invoke(from)});
+    	    EntityMapping fromMapping = getMapping(from.getClass());
+	        for (FieldMapping f : getMapping(to.getClass()).getFields()) {
+	            FieldMapping ff = fromMapping.getField(f.getName());
+	            if (ff == null || !f.getAccessor().isWritable()) {
+	                throw new NoSuchMethodException("Unable to copy '" + f.getName() + "' from " + from.getClass().getCanonicalName()
+	                        + " to " + to.getClass().getCanonicalName());
 	            }
+            	//copy the value from "from" to "to"
+            	f.getAccessor().set(to, ff.getAccessor().get(from));
 	        }
     	} catch (Exception e) {
     		throw new RuntimeException(e);
     	}
 	}
 
+    /**
+     * Save an object, and the objects it owns, in one transaction.
+     * 
+     * @param o
+     * @return The object's id
+     */
     public long save(Object o) {
-        return saveOne(o, true);
+        checkIsOpened();
+        beginTransaction();
+        boolean success = false;
+        try {
+            long id = saveOne(o, true);
+            success = true;
+            return id;
+        } finally {
+            endTransaction(success);
+        }
     }
 
     public long saveReferences(Object o) {
+        checkIsOpened();
+        beginTransaction();
+        boolean success = false;
+        try {
+            long id = doSaveReferences(o);
+            success = true;
+            return id;
+        } finally {
+            endTransaction(success);
+        }
+    }
+
+    private long doSaveReferences(Object o) {
         //check to see that we can save this object
         checkIsOpened();
         checkIsEntity(o);
@@ -657,11 +934,8 @@ public class ORMDataSource {
 //        save all dependent entities
 //        saveEntities(o);
         //insert the object into the database and update the object with the ID
-        ValueSet values = this.dumpObject(o, true);
         try {
-            long id = this.database.save(getTableNameForClass(o.getClass()), values);
-            Entity entity = new Entity(reflector, o);
-            entity.setId(id);
+            long id = writeObject(o);
             saveCollections(o, id, true);
             return id;
         } catch (SQLException se) {
@@ -682,6 +956,9 @@ public class ORMDataSource {
      * @throws UnsavedReferenceException
      */
     private long saveOne(Object o, boolean saveCollections) throws UnsavedReferenceException {
+        if (!markFlushed(o)) {
+            return getId(o);
+        }
         saveOneProf.enter();
     	//check to see that we can save this object
         checkIsOpened();
@@ -694,11 +971,8 @@ public class ORMDataSource {
         //save all dependent entities
         saveEntities(o);
         //insert the object into the database and update the object with the ID
-        ValueSet values = this.dumpObject(o, true);
     	try {
-    	    long id = this.database.save(getTableNameForClass(o.getClass()), values);
-            Entity entity = new Entity(reflector, o);
-            entity.setId(id);
+    	    long id = writeObject(o);
     		if (saveCollections) {
     		    saveCollections(o, id, false);
     		}
@@ -717,21 +991,15 @@ public class ORMDataSource {
      */
     private void saveEntities(Object o) {
         try {
-            String tableName = getTableNameForClass(o.getClass());
-            for (Method m : o.getClass().getMethods()) {
-                Class<?> typeClass = m.getReturnType();
-                if (isPersisted(m) && !isReference(m) && isEntity(typeClass)) {
-                    Entity entity = new Entity(reflector, o);
-//                    Method idM = getIdGetter(valueClass);
-//                    long id = (Long) idM.invoke(o);
-                    long id = entity.getId();
+            for (FieldMapping f : getMapping(o.getClass()).getEntityFields()) {
+                if (!f.isReference()) {
                     //NOTE: save every time...saveOne is smart enough to update (instead of just inserting)
                     // and we already filter out references
                     //TODO: I'd love to get away from using the @Reference annotation, and solve that problem
                     // using either reference counting or some other hidden ownership tracking (e.g. relationship
                     // that saves the object manages it, and everything else is a reference)
 //                    if (id <= 0) {
-                        Object e = m.invoke(o);
+                        Object e = f.getAccessor().get(o);
                         if (e != null) {
                             saveOne(e, true);
                         }
@@ -754,10 +1022,8 @@ public class ORMDataSource {
         }
         try {
             Class<?> clazz = objects.get(0).getClass();
-            String tableName = getTableNameForClass(clazz);
-            for (Method m : clazz.getMethods()) {
-                Class<?> typeClass = m.getReturnType();
-                if (isPersisted(m) && !isReference(m) && isEntity(typeClass)) {
+            for (FieldMapping f : getMapping(clazz).getEntityFields()) {
+                if (!f.isReference()) {
                     //NOTE: save every time...saveOne is smart enough to update (instead of just inserting)
                     // and we already filter out references
                     //TODO: I'd love to get away from using the @Reference annotation, and solve that problem
@@ -765,15 +1031,16 @@ public class ORMDataSource {
                     // that saves the object manages it, and everything else is a reference)
 //                    if (id <= 0) {
                     List<Object> entities = new ArrayList<Object>();
+                    PropertyAccessor g = f.getAccessor();
                     for (T o : objects) {
-                        Object e = m.invoke(o);
+                        Object e = g.get(o);
                         if (e != null) {
                             entities.add(e);
                         }
                     }
 
                     if (!entities.isEmpty()) {
-                        saveAll(entities);
+                        doSaveAll(entities);
                     }
                 }
             }
@@ -792,44 +1059,31 @@ public class ORMDataSource {
      */
     private void saveCollections(Object o, long id, boolean onlyReferences) {
     	try {
-	    	String tableName = getTableNameForClass(o.getClass());
-	        for (Method m : o.getClass().getMethods()) {
-	            if (isPersisted(m) && isCollection(m) && (!onlyReferences || isReference(m))) {
-	                OneToMany c = m.getAnnotation(OneToMany.class);
-	                if (c == null || c.value() == null) {
-	                    throw new RuntimeException("Collections must be marked with the appropriate annotation, or @Transient");
-	                }
-	
-	                String fieldName     = getFieldNameFromMethod(m);
+	        EntityMapping mapping = getMapping(o.getClass());
+	    	String tableName = mapping.getTableName();
+	        for (FieldMapping f : mapping.getCollections()) {
+	            if (!onlyReferences || f.isReference()) {
+	                String fieldName     = f.getName();
 	                String joinTableName = buildJoinTableName(tableName, fieldName);
-	                Collection<?> collection = (Collection<?>) m.invoke(o);
-
-	                if (collection != null && !collection.isEmpty()) {
-		                //if we're saving entities, we need to save the objects then associate the IDs in the join table
-		                //..otherwise, just save the value
-		                boolean saveIds = false;
-		                if (isEntity(c.value())) {
-		                    Map<Long, Collection<?>> map = new HashMap<Long, Collection<?>>();
-		                    map.put(id, collection);
-		                    //shortcut, to avoid dealing with reflection/annotations
-		                    boolean reference = onlyReferences || isReference(m);
-		                	//delete all of the old dependent objects for this collection
-		                	deleteDependents(joinTableName, c.value(), tableName, fieldName, reference, map);
-			                //save all the individual entities (which will populate the objects' ids) 
-		                	if (!reference) {
-		                	    saveAll(collection);
-		                	}
-			                saveIds = true;
-		                } else {
-		                	deleteValuesFromJoinTable(joinTableName, tableName, fieldName, Arrays.asList(id));
-		                }
-		                for (Object co : collection) {
-		                	Object coVal = saveIds ? new Entity(reflector, co).getId() : co;
-		                	addToJoinTable(joinTableName, c.value(), tableName, fieldName, id, co);
-		                }
+	                Collection<?> collection = (Collection<?>) f.getAccessor().get(o);
+
+	                if (collection != null && !isUnloaded(o, f, collection) && !collection.isEmpty()) {
+	                    boolean reference = onlyReferences || f.isReference();
+	                    //save all the individual entities first (which will populate the objects' ids), so
+	                    // the join table can be compared by id
+	                    if (f.isEntityCollection() && !reference) {
+	                        doSaveAll(collection);
+	                    }
+	                    if (isChanged(o, f, collection)) {
+	                        Map<Long, Collection<?>> map = new HashMap<Long, Collection<?>>();
+	                        map.put(id, collection);
+	                        writeJoinTable(joinTableName, f, tableName, reference, map);
+	                        updateSnapshot(o, f, collection);
+	                    }
 	                }
 	            }
 	        }
+	        invalidateQueries(o.getClass());
     	} catch (Exception e) {
     		throw new RuntimeException(e);
     	}
@@ -844,201 +1098,932 @@ public class ORMDataSource {
             Class<?> clazz = objects.iterator().next().getClass(); //assume all of them are the same
             Map<Long, Collection<?>> allObjMap = new HashMap<Long, Collection<?>>();
             List<Object> allObj = new ArrayList<Object>();
-            String tableName = getTableNameForClass(clazz);
-            for (Method m : clazz.getMethods()) {
-                if (isPersisted(m) && isCollection(m)) {
-                    OneToMany c = m.getAnnotation(OneToMany.class);
-                    if (c == null || c.value() == null) {
-                        throw new RuntimeException("Collections must be marked with the appropriate annotation, or @Transient");
+            EntityMapping mapping = getMapping(clazz);
+            String tableName = mapping.getTableName();
+            for (FieldMapping f : mapping.getCollections()) {
+                String fieldName     = f.getName();
+                String joinTableName = buildJoinTableName(tableName, fieldName);
+                allObj.clear();
+                allObjMap.clear();
+                for (Object o : objects) {
+                    Collection<?> collection;
+                    try {
+                        collection = (Collection<?>) f.getAccessor().get(o);
+                    } catch(IllegalArgumentException e) {
+                        System.out.println("balls");
+                        continue;
                     }
-    
-                    String fieldName     = getFieldNameFromMethod(m);
-                    String joinTableName = buildJoinTableName(tableName, fieldName);
-                    allObj.clear();
-                    allObjMap.clear();
-                    for (Object o : objects) {
-                        Collection<?> collection;
-                        try {
-                            collection = (Collection<?>) m.invoke(o);
-                        } catch(IllegalArgumentException e) {
-                            System.out.println("balls");
-                            continue;
-                        }
-                        if (collection != null && !collection.isEmpty()) {
-                            allObjMap.put(new Entity(reflector, o).getId(), collection);
-                            allObj.addAll(collection);
+                    if (collection != null && !isUnloaded(o, f, collection) && !collection.isEmpty()) {
+                        //NOTE: unchanged collections are left out of the map, so their join table entries are
+                        // not rewritten, but their entities are still saved
+                        if (isChanged(o, f, collection)) {
+                            allObjMap.put(getId(o), collection);
                         }
+                        allObj.addAll(collection);
                     }
+                }
 
-                    //if we're saving entities, we need to save the objects then associate the IDs in the join table
-                    //..otherwise, just save the value
-                    boolean saveIds = false;
-                    if (isEntity(c.value())) {
-                        boolean reference = isReference(m);
-                        //delete all of the old dependent objects for this collection
-                        deleteDependents(joinTableName, c.value(), tableName, fieldName, reference, allObjMap);
-                        //save all the individual entities (which will populate the objects' ids)
-                        if (!reference) {
-                            saveAll(allObj);
-                        }
-                        saveIds = true;
-                    } else {
-                        deleteValuesFromJoinTable(joinTableName, tableName, fieldName, allObjMap.keySet());
-                    }
-                    for (Object o : objects) {
-                        Entity entity = new Entity(reflector, o);
-                        long id = entity.getId();
-                        Collection<?> collection = allObjMap.get(id);
-                        if (collection != null && !collection.isEmpty()) {
-                            for (Object co : collection) {
-                                Object coVal = saveIds ? new Entity(reflector, co).getId() : co;
-                                addToJoinTable(joinTableName, c.value(), tableName, fieldName, id, co);
-                            }
-                        }
+                //save all the individual entities first (which will populate the objects' ids), so
+                // the join table can be compared by id
+                boolean reference = f.isReference();
+                if (f.isEntityCollection() && !reference) {
+                    doSaveAll(allObj);
+                }
+                writeJoinTable(joinTableName, f, tableName, reference, allObjMap);
+                for (Object o : objects) {
+                    Collection<?> collection = allObjMap.get(getId(o));
+                    if (collection != null) {
+                        updateSnapshot(o, f, collection);
                     }
                 }
             }
+            invalidateQueries(clazz);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
     /**
-     * Add an entry to a join/collection table.  In this case, value can be a simple or complex type, or an Entity.
+     * Drop an entity's row from the second level cache, and the cached query results for its class,
+     * after it is saved or deleted.
      * 
-     * This method uses setValueIntoContentValues to handle inserting the appropriate value for the object pasesd
-     * in.
-     * 
-     * @param joinTable
-     * @param valueClass
-     * @param tableName
-     * @param fieldName
+     * @param clazz
      * @param id
-     * @param value
-     * @throws Exception
      */
-    //TODO: this may be inefficient, with separate inserts.  can probably do bulk insert
-	private void addToJoinTable(String joinTable, Class<?> valueClass, String tableName, String fieldName, long id, Object value) throws Exception {
-		ValueSet values = database.prepareValueSet();
-		values.put(getJoinTableIDName(tableName), id);
-		setValueIntoContentValues(values, valueClass, getJoinTableValueName(fieldName), value);
-		database.insert(joinTable, values);
-	}
+    private void invalidate(Class<?> clazz, long id) {
+        TransactionState state = this.transaction.get();
+        if (state != null) {
+            state.invalidated(clazz, id);
+        }
+        if (this.secondLevelCache != null) {
+            this.secondLevelCache.invalidate(clazz, id);
+        }
+        invalidateQueries(clazz);
+    }
 
-	/**
-	 * Delete old dependent entries, before inserting new entries 
-	 * 
-	 * @param joinTable The name of the join table that holds the id maps between the owners and the dependents
-	 * @param valueClass The class of the dependent objects
-	 * @param tableName The raw table name of the parent object
-	 * @param fieldName The raw field name of the dependent collection
-	 * @param ids The ids of parent objects from which to delete dependents
-	 * @param toSave A collection of dependent objects that will be saved (don't delete these)
-	 * @throws SQLException 
-	 */
-	//TODO: this method should be split up into: findDependentsToDelete, deleteFromJoinTable, deleteDependents
-	private void deleteDependents(String joinTable, Class<?> valueClass, String tableName, String fieldName, boolean referenceField, Map<Long, Collection<?>> toSaveMap) throws SQLException {
-	    
-	    //process the toSaveMap into a map of child to collections of referencing parents
-	    //...the key set will be all of the join table references we need to pull
-	    // and the value set will let us check if we need to delete the object entirely
-	    Map<Long, Collection<Long>> childToParentMap = new HashMap<Long, Collection<Long>>();
-		//grab the ids of the objects to save...we will not delete these objects
-		for (Map.Entry<Long, Collection<?>> e : toSaveMap.entrySet()) {
-		    for (Object o : e.getValue()) {
-		        Entity entity = new Entity(reflector, o);
-    		    if (entity.isSaved()) {
-    		        long id = entity.getId();
-    		        Collection<Long> newC = childToParentMap.get(id);
-    		        if (newC == null) {
-    		            newC = new HashSet<Long>();
-    		            childToParentMap.put(id, newC);
-    		        }
-    		        newC.add(e.getKey());
-    		    }
-		    }
-		}
-		
-		String idName    = getJoinTableIDName(tableName);
-		String valueName = getJoinTableValueName(fieldName);
+    /**
+     * Drop all of a class's rows from the second level cache, and the cached query results for
+     * the class, after an unknown set of its rows are changed.
+     * 
+     * @param clazz
+     */
+    private void invalidate(Class<?> clazz) {
+        TransactionState state = this.transaction.get();
+        if (state != null) {
+            state.invalidated(clazz);
+        }
+        if (this.secondLevelCache != null) {
+            this.secondLevelCache.invalidate(clazz);
+        }
+        invalidateQueries(clazz);
+    }
 
-		//using our map of entity references to save, get all of the references that should probably be deleted
-		String joinTableWhereClause = idName + " in (" + flattenCollection(toSaveMap.keySet()) + ") and " + valueName + " not in (" + flattenCollection(childToParentMap.keySet()) + ")";
-        
-		QueryCursor c = database.query(joinTable, new String[] {idName, valueName}, joinTableWhereClause, null, null, null, null);
-		try {
-		    Map<Long, Collection<Long>> toDeleteMap = new HashMap<Long, Collection<Long>>();
-		    Set<Long> toDeleteSet = new HashSet<Long>();
-	        if (c != null && !c.isEmpty()) {
-				c.moveToFirst();
-				while(!c.isAfterLast()) {
-				    long id = c.getLong(0);
-				    Collection<Long> col = toDeleteMap.get(id);
-				    if (col == null) {
-				        col = new HashSet<Long>();
-				        toDeleteMap.put(id, col);
-				    }
-				    long refId = c.getLong(1);
-				    col.add(refId);
-				    toDeleteSet.add(refId);
-					c.moveToNext();
-				}
-	
-				//clean up
-                c.close();
-                c = null;
-
-                //delete the references in the join table
-                deleteValuesFromJoinTable(joinTable, tableName, fieldName, toSaveMap.keySet());
-
-                if (!referenceField) {
-                    //determine if that created any orphaned entities...if so, we want to delete the actual objects
-                    //NOTE: we determine orphans by querying for the set of objects whose references we just deleted...
-                    //...the ones we get back are the ones that still have incoming references, and remove those from our
-                    // set...what's left are the orphans.
-                    c = database.query(joinTable, new String[] {valueName}, valueName + " in (" + flattenCollection(toDeleteSet) + ")", null, null, null, null);
-                    if (c != null && !c.isEmpty()) {
-                        c.moveToFirst();
-                        while(!c.isAfterLast()) {
-                            toDeleteSet.remove(c.getLong(0));
-                            c.moveToNext();
-                        }
-    
-                        //clean up
-                        c.close();
-                        c = null;
-                        if (!toDeleteSet.isEmpty()) {
-            				//delete all the dependent objects (using the where clause built up)
-            				StringBuilder builder = new StringBuilder("id in (").append(flattenCollection(toDeleteSet)).append(")");
-            				deleteAll(valueClass, builder.toString());
-                        }
-                    }
-                }
-	        }
-		} finally {
-		    //just in case, we still need to clean up
-			if (c != null) {
-				c.close();
-			}
-		}
-	}
+    /**
+     * Drop the cached query results for a class, after any of its tables are written to.
+     * 
+     * @param clazz
+     */
+    private void invalidateQueries(Class<?> clazz) {
+        TransactionState state = this.transaction.get();
+        if (state != null) {
+            state.invalidatedQueries(clazz);
+        }
+        if (this.queryCache != null) {
+            this.queryCache.invalidate(clazz);
+        }
+    }
 
-	/**
-	 * Delete the specified entity references from the join table.
-	 * 
-	 * @param joinTable
-	 * @param tableName
-	 * @param fieldName
-	 * @param ids
-	 * @param values 
-	 */
-	private void deleteReferencesFromJoinTable(String joinTable, String tableName,
-			String fieldName, Map<Long, Collection<Long>> idMap) {
+    /**
+     * Start tracking the objects written on this thread, so each object is only written once
+     * until endFlush is called (see UnitOfWork).
+     * 
+     */
+    void beginFlush() {
+        this.flushed.set(new IdentityHashMap<Object, Boolean>());
+    }
 
-//	    StringBuilder builder = new StringBuilder();
-	    String idName    = getJoinTableIDName   (tableName);
-//	    String valueName = getJoinTableValueName(fieldName);
-//	    //build up a where clause to delete each parent's removed entities...this segregates the where clause
+    void endFlush() {
+        this.flushed.remove();
+    }
+
+    /**
+     * Mark an object as written by the current flush.
+     * 
+     * @param o
+     * @return False if the object was already written by the current flush, and should be skipped
+     */
+    private boolean markFlushed(Object o) {
+        Map<Object, Boolean> written = this.flushed.get();
+        return written == null || written.put(o, Boolean.TRUE) == null;
+    }
+
+    /**
+     * Mark objects as written by the current flush.
+     * 
+     * @param os
+     * @return The objects that were not already written by the current flush
+     */
+    private Collection<? extends Object> markFlushed(Collection<? extends Object> os) {
+        if (this.flushed.get() == null) {
+            return os;
+        }
+        List<Object> unwritten = new ArrayList<Object>(os.size());
+        for (Object o : os) {
+            if (markFlushed(o)) {
+                unwritten.add(o);
+            }
+        }
+        return unwritten;
+    }
+
+    /**
+     * Get the objects that were not already written by the current flush, without marking them.
+     * 
+     * @param os
+     * @return
+     */
+    private Collection<? extends Object> getUnflushed(Collection<? extends Object> os) {
+        Map<Object, Boolean> written = this.flushed.get();
+        if (written == null) {
+            return os;
+        }
+        List<Object> unwritten = new ArrayList<Object>(os.size());
+        for (Object o : os) {
+            if (!written.containsKey(o)) {
+                unwritten.add(o);
+            }
+        }
+        return unwritten;
+    }
+
+    /**
+     * Run work in one transaction.  The work is committed if it returns normally, and rolled back
+     * if it throws.  Transactions may be nested, in which case the work becomes part of the outer
+     * transaction.  The transaction belongs to the calling thread.
+     * 
+     * If the transaction is rolled back, the objects that were inserted in it are given back their
+     * unsaved ids, so saving them again inserts them again.
+     * 
+     * @param work
+     * @return The result of the work
+     */
+    public <T> T inTransaction(Transaction<T> work) {
+        checkIsOpened();
+        beginTransaction();
+        boolean success = false;
+        try {
+            T result = work.run(this);
+            success = true;
+            return result;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            endTransaction(success);
+        }
+    }
+
+    private void beginTransaction() {
+        TransactionState state = this.transaction.get();
+        if (state == null) {
+            state = new TransactionState();
+            this.transaction.set(state);
+        }
+        state.begin();
+        try {
+            this.database.beginTransaction();
+        } catch (SQLException e) {
+            if (state.end(true)) {
+                this.transaction.remove();
+            }
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Test if a transaction is in progress on the calling thread.  Reads in a transaction bypass the
+     * shared caches: the rows they read may include its uncommitted writes, and the cached rows may
+     * not include them.
+     * 
+     * @return
+     */
+    private boolean isInTransaction() {
+        return this.transaction.get() != null;
+    }
+
+    /**
+     * End the current transaction.  When this ends the outermost transaction, the caches and
+     * objects are brought up to date with the outcome.
+     * 
+     * @param success True to commit, false to roll back
+     */
+    private void endTransaction(boolean success) {
+        SQLException error = null;
+        try {
+            if (success) {
+                this.database.commitTransaction();
+            } else {
+                this.database.rollbackTransaction();
+            }
+        } catch (SQLException e) {
+            error = e;
+        }
+        TransactionState state = this.transaction.get();
+        if (state.end(success && error == null)) {
+            this.transaction.remove();
+            if (state.isFailed()) {
+                rolledBack(state);
+            } else {
+                committed(state);
+            }
+        }
+        //NOTE: a failed rollback is not thrown, so it does not hide the exception that caused the rollback
+        if (success && error != null) {
+            throw new RuntimeException(error);
+        }
+    }
+
+    /**
+     * Invalidate the rows written by a committed transaction again.  Another thread may have read
+     * and cached the old rows after they were first invalidated, but before the commit.
+     * 
+     * @param state
+     */
+    private void committed(TransactionState state) {
+        SecondLevelCache cache = this.secondLevelCache;
+        if (cache != null) {
+            for (Map.Entry<Class<?>, Set<Long>> entry : state.getRows().entrySet()) {
+                for (Long id : entry.getValue()) {
+                    cache.invalidate(entry.getKey(), id);
+                }
+            }
+            for (Class<?> clazz : state.getClasses()) {
+                cache.invalidate(clazz);
+            }
+        }
+        for (Class<?> clazz : state.getRows().keySet()) {
+            invalidateQueries(clazz);
+        }
+        for (Class<?> clazz : state.getClasses()) {
+            invalidateQueries(clazz);
+        }
+        for (Class<?> clazz : state.getQueries()) {
+            invalidateQueries(clazz);
+        }
+    }
+
+    /**
+     * Undo what a rolled back transaction did outside of the database: the objects inserted in it
+     * are marked unsaved again, and the caches and snapshots, which may hold rows read or written
+     * in the transaction, are cleared.
+     * 
+     * @param state
+     */
+    private void rolledBack(TransactionState state) {
+        for (Object o : state.getInserted()) {
+            setId(o, Entity.UNSAVED_ID);
+        }
+        for (Class<?> clazz : this.entities) {
+            invalidate(clazz);
+        }
+        if (this.snapshots != null) {
+            this.snapshots.clear();
+        }
+    }
+
+    /**
+     * Dump an object's columns (including the id) for a snapshot.
+     * 
+     * @param o
+     * @return
+     */
+    private DefaultValueSet dumpSnapshot(Object o) {
+        return writeColumns(o.getClass(), Arrays.asList(o), true, Arrays.asList(new DefaultValueSet())).get(0);
+    }
+
+    /**
+     * Get the contents of a collection, as recorded in a snapshot.  Entities are recorded by id, so
+     * the snapshot does not hold on to them.
+     * 
+     * @param f
+     * @param collection
+     * @return
+     */
+    private List<Object> getContents(FieldMapping f, Collection<?> collection) {
+        List<Object> contents = new ArrayList<Object>(collection.size());
+        for (Object e : collection) {
+            contents.add(f.isEntityCollection() ? getId(e) : e);
+        }
+        return contents;
+    }
+
+    /**
+     * Record the state of fetched objects, if dirty tracking is on.  This must be called after the
+     * objects' references and collections are filled in.
+     * 
+     * @param clazz
+     * @param objects
+     */
+    private void takeSnapshots(Class<?> clazz, List<?> objects) {
+        if (this.snapshots == null || objects.isEmpty()) {
+            return;
+        }
+        try {
+            List<DefaultValueSet> valueSets = new ArrayList<DefaultValueSet>(objects.size());
+            for (int ii = 0; ii < objects.size(); ii++) {
+                valueSets.add(new DefaultValueSet());
+            }
+            writeColumns(clazz, objects, true, valueSets);
+            List<FieldMapping> collections = getMapping(clazz).getCollections();
+            for (int ii = 0; ii < objects.size(); ii++) {
+                Object   o        = objects.get(ii);
+                Snapshot snapshot = new Snapshot(valueSets.get(ii));
+                for (FieldMapping f : collections) {
+                    Collection<?> collection = (Collection<?>) f.getAccessor().get(o);
+                    if (collection != null && !isUnloaded(o, f, collection)) {
+                        snapshot.setCollection(f.getName(), getContents(f, collection));
+                    }
+                }
+                this.snapshots.put(o, snapshot);
+            }
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Get the values to write for an object, when dirty tracking is on.
+     * 
+     * @param o
+     * @param current The object's current columns (from dumpSnapshot)
+     * @return The id and the changed columns, all of the columns if the object has not been
+     * fetched or saved before, or null if nothing has changed
+     */
+    private ValueSet getChangedValues(Object o, DefaultValueSet current) {
+        Snapshot snapshot = this.snapshots.get(o);
+        boolean  all      = snapshot == null || !Entity.isSaved(getId(o));
+        ValueSet values   = this.database.prepareValueSet();
+        boolean  changed  = false;
+        for (String field : current.getFields()) {
+            Object value = current.getAsObject(field);
+            if (field.equals(EntityMetaData.ID_FIELD)) {
+                copyValue(values, field, value);
+            } else if (all || !isSameValue(value, snapshot.getColumns().getAsObject(field))) {
+                copyValue(values, field, value);
+                changed = true;
+            }
+        }
+        return all || changed ? values : null;
+    }
+
+    private static boolean isSameValue(Object a, Object b) {
+        if (a instanceof byte[] && b instanceof byte[]) {
+            return Arrays.equals((byte[]) a, (byte[]) b);
+        }
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Copy a value from a DefaultValueSet into another value set.
+     * 
+     * @param values
+     * @param field
+     * @param value
+     */
+    private static void copyValue(ValueSet values, String field, Object value) {
+        if (value instanceof Integer) {
+            values.put(field, (Integer) value);
+        } else if (value instanceof Long) {
+            values.put(field, (Long) value);
+        } else if (value instanceof String) {
+            values.put(field, (String) value);
+        } else if (value instanceof Boolean) {
+            values.put(field, (Boolean) value);
+        } else if (value instanceof Double) {
+            values.put(field, (Double) value);
+        } else if (value instanceof Float) {
+            values.put(field, (Float) value);
+        } else if (value instanceof Short) {
+            values.put(field, (Short) value);
+        } else if (value instanceof Byte) {
+            values.put(field, (Byte) value);
+        } else if (value instanceof byte[]) {
+            values.put(field, (byte[]) value);
+        } else if (value == null) {
+            values.put(field, (String) null);
+        } else {
+            throw new RuntimeException("Unsupported value type: " + value.getClass().getCanonicalName());
+        }
+    }
+
+    /**
+     * Record an object's columns after it is saved, when dirty tracking is on.
+     * 
+     * @param o
+     * @param columns
+     * @param id
+     */
+    private void updateSnapshot(Object o, DefaultValueSet columns, long id) {
+        columns.put(EntityMetaData.ID_FIELD, id);
+        Snapshot snapshot = this.snapshots.get(o);
+        if (snapshot == null) {
+            this.snapshots.put(o, new Snapshot(columns));
+        } else {
+            snapshot.setColumns(columns);
+        }
+    }
+
+    /**
+     * Test if a collection has changed since the object was fetched or saved.  This is always true if
+     * dirty tracking is off.
+     * 
+     * @param o
+     * @param f
+     * @param collection
+     * @return
+     */
+    private boolean isChanged(Object o, FieldMapping f, Collection<?> collection) {
+        if (this.snapshots == null) {
+            return true;
+        }
+        Snapshot snapshot = this.snapshots.get(o);
+        List<Object> contents = snapshot != null ? snapshot.getCollection(f.getName()) : null;
+        return contents == null || !contents.equals(getContents(f, collection));
+    }
+
+    /**
+     * Record a collection's contents after it is saved, when dirty tracking is on.
+     * 
+     * @param o
+     * @param f
+     * @param collection
+     */
+    private void updateSnapshot(Object o, FieldMapping f, Collection<?> collection) {
+        if (this.snapshots == null) {
+            return;
+        }
+        Snapshot snapshot = this.snapshots.get(o);
+        if (snapshot != null) {
+            snapshot.setCollection(f.getName(), getContents(f, collection));
+        }
+    }
+
+    /**
+     * Write an object's row, and set its id.  With dirty tracking, only the changed columns are
+     * written, and nothing is written if the object has not changed.
+     * 
+     * @param o
+     * @return The object's id
+     * @throws SQLException
+     */
+    private long writeObject(Object o) throws SQLException {
+        String tableName = getTableNameForClass(o.getClass());
+        if (this.snapshots == null) {
+            long id = this.database.save(tableName, this.dumpObject(o, true));
+            assignId(o, id);
+            invalidate(o.getClass(), id);
+            return id;
+        }
+        DefaultValueSet current = dumpSnapshot(o);
+        ValueSet        values  = getChangedValues(o, current);
+        long id = getId(o);
+        if (values != null) {
+            id = this.database.save(tableName, values);
+            assignId(o, id);
+            invalidate(o.getClass(), id);
+        }
+        updateSnapshot(o, current, id);
+        return id;
+    }
+
+    /**
+     * Test if a collection is a lazy collection that has not been loaded.  These have not been
+     * changed since they were fetched, so they do not need to be saved.
+     * 
+     * @param collection
+     * @return
+     */
+    private boolean isUnloaded(Collection<?> collection) {
+        return collection instanceof LazyCollection && !((LazyCollection<?>) collection).isLoaded();
+    }
+
+    /**
+     * Test if an object's collection was not loaded, because it is an unloaded lazy collection or
+     * because it was left out of the fetch plan.
+     * 
+     * @param o
+     * @param f
+     * @param collection
+     * @return
+     * @throws RuntimeException If the collection was left out of the fetch plan, and has been changed since
+     */
+    private boolean isUnloaded(Object o, FieldMapping f, Collection<?> collection) {
+        if (isUnloaded(collection)) {
+            return true;
+        }
+        if (!isUnfetched(o, f, collection)) {
+            return false;
+        }
+        if (this.unfetched.get(o).isChanged(f.getName(), collection)) {
+            throw new RuntimeException("Collection '" + f.getName() + "' in " + o.getClass().getCanonicalName()
+                    + " was not fetched, so changes to it cannot be saved.  Fetch it, or set a new collection.");
+        }
+        return true;
+    }
+
+    /**
+     * Test if an object's relationship field still holds what was left in it by a fetch plan that did
+     * not include it.
+     * 
+     * @param o
+     * @param f
+     * @param value The field's current value
+     * @return
+     */
+    private boolean isUnfetched(Object o, FieldMapping f, Object value) {
+        Unfetched u = this.unfetched.get(o);
+        return u != null && u.isUnfetched(f.getName(), value);
+    }
+
+    private boolean hasUnfetched(Collection<?> objects) {
+        if (this.unfetched.size() == 0) {
+            return false;
+        }
+        for (Object o : objects) {
+            if (this.unfetched.get(o) != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Build an entry for a join/collection table.  In this case, value can be a simple or complex type, or an Entity.
+     * 
+     * This method uses setValueIntoContentValues to handle inserting the appropriate value for the object pasesd
+     * in.  The entries are inserted together with Dialect.bulkInsert.
+     * 
+     * @param field The collection field
+     * @param tableName
+     * @param id
+     * @param value
+     * @throws Exception
+     */
+	private ValueSet buildJoinTableRow(FieldMapping field, String tableName, long id, Object value) throws Exception {
+		ValueSet values = database.prepareValueSet();
+		values.put(getJoinTableIDName(tableName), id);
+		setValueIntoContentValues(values, field.getValueTypeCode(), field.getValueClass(), getJoinTableValueName(field.getName()), value);
+		return values;
+	}
+
+	/**
+	 * Bring the join table entries for a collection field up to date with the collections passed in.
+	 * 
+	 * The entries currently in the join table are compared against the collections, and only the
+	 * differences are written, so adding one element to a large collection inserts one row instead of
+	 * rewriting the whole collection.
+	 * 
+	 * @param joinTable The name of the join table that holds the collection entries
+	 * @param field The collection field
+	 * @param tableName The raw table name of the parent object
+	 * @param referenceField True if the collection only references its entities (and does not own them)
+	 * @param collections The collections to write, by parent id
+	 * @throws Exception
+	 */
+	private void writeJoinTable(String joinTable, FieldMapping field, String tableName, boolean referenceField, Map<Long, Collection<?>> collections) throws Exception {
+	    if (collections.isEmpty()) {
+	        return;
+	    }
+	    if (field.isEntityCollection()) {
+	        writeEntityJoinTable(joinTable, field, tableName, referenceField, collections);
+	    } else {
+	        writeValueJoinTable(joinTable, field, tableName, collections);
+	    }
+	}
+
+	/**
+	 * Write the differences between the join table and the entity collections passed in.  Entity
+	 * collections are compared by id, and entities that are removed from an owned collection are
+	 * deleted if nothing else references them.
+	 * 
+	 * NOTE: the collection entities must already be saved.
+	 * 
+	 * @param joinTable
+	 * @param field
+	 * @param tableName
+	 * @param referenceField
+	 * @param collections
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	private void writeEntityJoinTable(String joinTable, FieldMapping field, String tableName, boolean referenceField, Map<Long, Collection<?>> collections) throws Exception {
+	    String idName    = getJoinTableIDName(tableName);
+	    String valueName = getJoinTableValueName(field.getName());
+
+	    //count the entries currently in the join table, by parent and then by child id
+	    Map<Long, Map<Long, Integer>> persisted = new HashMap<Long, Map<Long, Integer>>();
+	    for (InClause in : InClause.split(idName, collections.keySet())) {
+	        QueryCursor c = database.query(joinTable, new String[] {idName, valueName}, in.getWhere(), in.getParams(), null, null, null);
+	        try {
+	            if (c != null && !c.isEmpty()) {
+	                c.moveToFirst();
+	                while (!c.isAfterLast()) {
+	                    Map<Long, Integer> counts = persisted.get(c.getLong(0));
+	                    if (counts == null) {
+	                        counts = new HashMap<Long, Integer>();
+	                        persisted.put(c.getLong(0), counts);
+	                    }
+	                    addCount(counts, c.getLong(1), 1);
+	                    c.moveToNext();
+	                }
+	            }
+	        } finally {
+	            if (c != null) {
+	                c.close();
+	            }
+	        }
+	    }
+
+	    List<ValueSet> rows    = new ArrayList<ValueSet>();
+	    Set<Long>      removed = new HashSet<Long>();
+	    for (Map.Entry<Long, Collection<?>> e : collections.entrySet()) {
+	        long parentId = e.getKey();
+	        //count the entries in the collection, and keep one object for each id to build the rows
+	        Map<Long, Integer> counts  = new LinkedHashMap<Long, Integer>();
+	        Map<Long, Object>  objects = new HashMap<Long, Object>();
+	        for (Object o : e.getValue()) {
+	            long id = getId(o);
+	            addCount(counts, id, 1);
+	            objects.put(id, o);
+	        }
+	        Map<Long, Integer> old = persisted.get(parentId);
+	        if (old == null) {
+	            old = Collections.emptyMap();
+	        }
+
+	        List<Long> toDelete = new ArrayList<Long>();
+	        for (Map.Entry<Long, Integer> ce : counts.entrySet()) {
+	            int oldCount = old.containsKey(ce.getKey()) ? old.get(ce.getKey()) : 0;
+	            int toInsert = ce.getValue() - oldCount;
+	            //NOTE: duplicate entries cannot be deleted one at a time, so if there are fewer
+	            // than before, delete them all and insert the new count
+	            if (toInsert < 0) {
+	                toDelete.add(ce.getKey());
+	                toInsert = ce.getValue();
+	            }
+	            for (int ii = 0; ii < toInsert; ii++) {
+	                rows.add(buildJoinTableRow(field, tableName, parentId, objects.get(ce.getKey())));
+	            }
+	        }
+	        for (Long id : old.keySet()) {
+	            if (!counts.containsKey(id)) {
+	                toDelete.add(id);
+	                removed.add(id);
+	            }
+	        }
+	        for (InClause in : InClause.split(valueName, toDelete)) {
+	            String[] params = new String[in.getParams().length + 1];
+	            params[0] = String.valueOf(parentId);
+	            System.arraycopy(in.getParams(), 0, params, 1, in.getParams().length);
+	            database.delete(joinTable, idName + " = ? and " + in.getWhere(), params);
+	        }
+	    }
+	    if (!rows.isEmpty()) {
+	        database.bulkInsert(joinTable, rows);
+	    }
+
+	    if (!referenceField && !removed.isEmpty()) {
+	        //determine if that created any orphaned entities...if so, we want to delete the actual objects
+	        //NOTE: we determine orphans by querying for the set of objects whose references we just deleted...
+	        //...the ones we get back are the ones that still have incoming references, and remove those from our
+	        // set...what's left are the orphans.
+	        for (InClause in : InClause.split(valueName, new ArrayList<Long>(removed))) {
+	            QueryCursor c = database.query(joinTable, new String[] {valueName}, in.getWhere(), in.getParams(), null, null, null);
+	            try {
+	                if (c != null && !c.isEmpty()) {
+	                    c.moveToFirst();
+	                    while (!c.isAfterLast()) {
+	                        removed.remove(c.getLong(0));
+	                        c.moveToNext();
+	                    }
+	                }
+	            } finally {
+	                if (c != null) {
+	                    c.close();
+	                }
+	            }
+	        }
+	        //delete all the dependent objects
+	        Class<?> valueClass = field.getValueClass();
+	        String valueTable = getTableNameForClass(valueClass);
+	        for (InClause in : InClause.split(EntityMetaData.ID_FIELD, removed)) {
+	            database.delete(valueTable, in.getWhere(), in.getParams());
+	        }
+	        for (Long id : removed) {
+	            invalidate(valueClass, id);
+	        }
+	    }
+	}
+
+	/**
+	 * Write the differences between the join table and the value collections passed in.
+	 * 
+	 * Values are compared in the form they are stored in.  Added values are inserted, and removed
+	 * values are deleted by value (along with their duplicates, which are then inserted again).  If a
+	 * null or boolean value is removed, or the values are serialized (and cannot be compared), the
+	 * collection's entries are deleted and rewritten, since those cannot be matched by value.
+	 * 
+	 * @param joinTable
+	 * @param field
+	 * @param tableName
+	 * @param collections
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	private void writeValueJoinTable(String joinTable, FieldMapping field, String tableName, Map<Long, Collection<?>> collections) throws Exception {
+	    String  idName     = getJoinTableIDName(tableName);
+	    String  valueName  = getJoinTableValueName(field.getName());
+	    int     typeCode   = field.getValueTypeCode();
+	    boolean comparable = typeCode != FieldMapping.TYPE_SERIALIZABLE;
+
+	    //count the values currently in the join table, by parent and then by value
+	    Map<Long, Map<Object, Integer>> persisted = new HashMap<Long, Map<Object, Integer>>();
+	    if (comparable) {
+	        for (InClause in : InClause.split(idName, collections.keySet())) {
+	            QueryCursor c = database.query(joinTable, new String[] {idName, valueName}, in.getWhere(), in.getParams(), null, null, null);
+	            try {
+	                if (c != null && !c.isEmpty()) {
+	                    c.moveToFirst();
+	                    while (!c.isAfterLast()) {
+	                        Map<Object, Integer> counts = persisted.get(c.getLong(0));
+	                        if (counts == null) {
+	                            counts = new HashMap<Object, Integer>();
+	                            persisted.put(c.getLong(0), counts);
+	                        }
+	                        addCount(counts, readJoinValue(c, 1, typeCode), 1);
+	                        c.moveToNext();
+	                    }
+	                }
+	            } finally {
+	                if (c != null) {
+	                    c.close();
+	                }
+	            }
+	        }
+	    }
+
+	    List<ValueSet> rows      = new ArrayList<ValueSet>();
+	    List<Long>     rewritten = new ArrayList<Long>();
+	    DefaultValueSet keyValues = new DefaultValueSet();
+	    for (Map.Entry<Long, Collection<?>> e : collections.entrySet()) {
+	        long parentId = e.getKey();
+	        Map<Object, Integer> old = persisted.get(parentId);
+	        if (old == null) {
+	            //nothing persisted yet, so every value is new
+	            old = new HashMap<Object, Integer>();
+	        }
+	        List<ValueSet>               all   = new ArrayList<ValueSet>(e.getValue().size());
+	        List<ValueSet>               added = new ArrayList<ValueSet>();
+	        Map<Object, List<ValueSet>>  byKey = new HashMap<Object, List<ValueSet>>();
+	        for (Object v : e.getValue()) {
+	            ValueSet row = buildJoinTableRow(field, tableName, parentId, v);
+	            all.add(row);
+	            if (comparable) {
+	                setValueIntoContentValues(keyValues, typeCode, field.getValueClass(), valueName, v);
+	                Object key = keyValues.getAsObject(valueName);
+	                List<ValueSet> keyRows = byKey.get(key);
+	                if (keyRows == null) {
+	                    keyRows = new ArrayList<ValueSet>();
+	                    byKey.put(key, keyRows);
+	                }
+	                keyRows.add(row);
+	                //matched values are already persisted, the rest must be inserted
+	                if (old.containsKey(key)) {
+	                    addCount(old, key, -1);
+	                } else {
+	                    added.add(row);
+	                }
+	            }
+	        }
+	        //what is left in old was removed from the collection
+	        boolean byValue = comparable;
+	        for (Object key : old.keySet()) {
+	            if (toJoinValueParam(key) == null) {
+	                byValue = false;
+	                break;
+	            }
+	        }
+	        if (!byValue) {
+	            rewritten.add(parentId);
+	            rows.addAll(all);
+	            continue;
+	        }
+	        for (Object key : old.keySet()) {
+	            database.delete(joinTable, idName + " = ? and " + valueName + " = ?",
+	                    new String[] {String.valueOf(parentId), toJoinValueParam(key)});
+	            //the delete takes out every copy of the value, so put back the ones that are still in the collection
+	            List<ValueSet> kept = byKey.get(key);
+	            if (kept != null) {
+	                rows.addAll(kept);
+	            }
+	        }
+	        rows.addAll(added);
+	    }
+	    deleteValuesFromJoinTable(joinTable, tableName, field.getName(), rewritten);
+	    if (!rows.isEmpty()) {
+	        database.bulkInsert(joinTable, rows);
+	    }
+	}
+
+	/**
+	 * Read a value from a value join table, in the form setValueIntoContentValues writes it.
+	 * 
+	 * @param c
+	 * @param col
+	 * @param typeCode
+	 * @return
+	 * @throws SQLException
+	 */
+	private Object readJoinValue(QueryCursor c, int col, int typeCode) throws SQLException {
+	    if (c.getString(col) == null) {
+	        return null;
+	    }
+	    switch (typeCode) {
+	    case FieldMapping.TYPE_INT:
+	        return c.getInt(col);
+	    case FieldMapping.TYPE_SHORT:
+	        return c.getShort(col);
+	    case FieldMapping.TYPE_LONG:
+	    case FieldMapping.TYPE_DATE:
+	        return c.getLong(col);
+	    case FieldMapping.TYPE_FLOAT:
+	        return c.getFloat(col);
+	    case FieldMapping.TYPE_DOUBLE:
+	        return c.getDouble(col);
+	    case FieldMapping.TYPE_BOOLEAN:
+	        return c.getInt(col) == 1;
+	    case FieldMapping.TYPE_BYTE:
+	        return (byte) c.getInt(col);
+	    case FieldMapping.TYPE_CHAR:
+	        //NOTE: char columns may be padded
+	        return String.valueOf(c.getString(col).charAt(0));
+	    default:
+	        return c.getString(col);
+	    }
+	}
+
+	/**
+	 * Get the where parameter that matches a value in a value join table.
+	 * 
+	 * @param value A value read by readJoinValue
+	 * @return The parameter, or null if the value cannot be matched with a parameter (e.g. null, or
+	 * booleans, which dialects store differently)
+	 */
+	private String toJoinValueParam(Object value) {
+	    if (value == null || value instanceof Boolean) {
+	        return null;
+	    }
+	    //NOTE: floats are compared as doubles by the database
+	    if (value instanceof Float) {
+	        return String.valueOf(((Float) value).doubleValue());
+	    }
+	    return String.valueOf(value);
+	}
+
+	/**
+	 * Add to a count in a map of counts, removing the entry when it reaches 0.
+	 * 
+	 * @param counts
+	 * @param key
+	 * @param delta
+	 */
+	private static <K> void addCount(Map<K, Integer> counts, K key, int delta) {
+	    Integer count = counts.get(key);
+	    int newCount = (count != null ? count : 0) + delta;
+	    if (newCount == 0) {
+	        counts.remove(key);
+	    } else {
+	        counts.put(key, newCount);
+	    }
+	}
+
+	/**
+	 * Delete the specified entity references from the join table.
+	 * 
+	 * @param joinTable
+	 * @param tableName
+	 * @param fieldName
+	 * @param ids
+	 * @param values 
+	 */
+	private void deleteReferencesFromJoinTable(String joinTable, String tableName,
+			String fieldName, Map<Long, Collection<Long>> idMap) {
+
+//	    StringBuilder builder = new StringBuilder();
+	    String idName    = getJoinTableIDName   (tableName);
+//	    String valueName = getJoinTableValueName(fieldName);
+//	    //build up a where clause to delete each parent's removed entities...this segregates the where clause
 //	    // by parent id to ensure we dont accidentally remove someone elses reference
 //	    for (Map.Entry<Long, Collection<Long>> e : idMap.entrySet()) {
 //	        if (builder.length() > 0) {
@@ -1048,14 +2033,8 @@ public class ORMDataSource {
 //	               .append(" and ").append(valueName).append(" in (").append(flattenCollection(e.getValue())).append(")");
 //	        
 //	    }
-	    StringBuilder builder = new StringBuilder();
-	    
-    	try {
-    		//delete the entries in the join table
-    		database.delete(joinTable, idName + " in (" + flattenCollection(idMap.keySet()) + ")", null);
-		} catch (SQLException se) {
-			throw new RuntimeException(se);
-		}
+	    //delete the entries in the join table
+	    deleteValuesFromJoinTable(joinTable, tableName, fieldName, idMap.keySet());
 	}
 
 	   /**
@@ -1069,10 +2048,11 @@ public class ORMDataSource {
      */
     private void deleteValuesFromJoinTable(String joinTable, String tableName,
             String fieldName, Collection<Long> ids) {
-        String joinTableWhereClause = getJoinTableIDName(tableName) + " in (" + flattenCollection(ids) + ")";
         try {
             //delete the entries in the join table
-            database.delete(joinTable, joinTableWhereClause, null);
+            for (InClause in : InClause.split(getJoinTableIDName(tableName), ids)) {
+                database.delete(joinTable, in.getWhere(), in.getParams());
+            }
         } catch (SQLException se) {
             throw new RuntimeException(se);
         }
@@ -1085,6 +2065,22 @@ public class ORMDataSource {
 	 */
 	//TODO: may be a more efficient way to do this
 	public void saveAll(Collection<? extends Object> os) {
+	    if (os.isEmpty()) {
+	        return; //nothing to do
+	    }
+	    checkIsOpened();
+	    beginTransaction();
+	    boolean success = false;
+	    try {
+	        doSaveAll(os);
+	        success = true;
+	    } finally {
+	        endTransaction(success);
+	    }
+	}
+
+	private void doSaveAll(Collection<? extends Object> os) {
+	    os = getUnflushed(os);
 	    System.out.println("saveAll: " + os.size() + " objects");
 	    if (os.isEmpty()) {
 	        return; //nothing to do
@@ -1096,16 +2092,38 @@ public class ORMDataSource {
 	    //NOTE: even though we know os is all in the same class hierarchy, there may be some base class elements that are not
 	    // entities...check that here.
         checkIsAllEntityClass(split);
-	    checkReferences(split);
+	    checkReferences(os);
 	    
         saveEntitiesForAll(new ArrayList<Object>(os));
+
+        //NOTE: the objects are only marked as flushed after their owned references are saved, because those
+        // references may be other objects in this batch (which must be written first, to get their ids)
+        Collection<? extends Object> unwritten = markFlushed(os);
+        if (unwritten.size() != os.size()) {
+            os    = unwritten;
+            split = splitByClass(os);
+            if (os.isEmpty()) {
+                return;
+            }
+        }
 	    
         //NOTE: need to use Lists here, because order must be preserved (for lining up the IDs)
         //NOTE: must also include the ID in the value set
-        Map<String, List<ValueSet>> values = this.dumpObjects(split, true);
+        Map<Class<?>, List<Object>> written = split;
+        Map<String, List<ValueSet>> values;
+        Map<Object, DefaultValueSet> current = null;
+        if (this.snapshots == null) {
+            values = this.dumpObjects(split, true);
+        } else {
+            //with dirty tracking, only write the objects (and columns) that have changed
+            written = new HashMap<Class<?>, List<Object>>();
+            values  = new HashMap<String, List<ValueSet>>();
+            current = new IdentityHashMap<Object, DefaultValueSet>();
+            dumpChangedObjects(split, written, values, current);
+        }
         
         //do the bulk insert, and return a map of table names to lists of new ids
-        Map<String, List<Long>>      idMap = this.database.bulkSave(values);
+        Map<String, List<Long>> idMap = values.isEmpty() ? new HashMap<String, List<Long>>() : this.database.bulkSave(values);
 
         //reconcile the new ids with the original objects...this is a little complicated
         // because of all of the data transofmrations..
@@ -1114,7 +2132,7 @@ public class ORMDataSource {
             if (clazz == null) {
                 throw new RuntimeException("Unable to look up class object from table name directly after an insert.  Something is wrong.");
             }
-            List<Object> objects = split.get(clazz);
+            List<Object> objects = written.get(clazz);
             if (objects == null || objects.isEmpty()) {
                 throw new RuntimeException("Unable to look up list of original objects by class.  Something is definitely wrong");
             }
@@ -1123,13 +2141,19 @@ public class ORMDataSource {
                 throw new RuntimeException("Size mismatch between original objects and id list: expected " + objects.size() + ", encountered " + idList.size());
             }
             int ii = 0;
-            for (Object o : os) {
-                Entity entity = new Entity(reflector, o);
-                entity.setId(idList.get(ii));
+            for (Object o : objects) {
+                assignId(o, idList.get(ii));
+                invalidate(clazz, idList.get(ii));
                 ii++;
             }
         }
 
+        if (current != null) {
+            for (Map.Entry<Object, DefaultValueSet> entry : current.entrySet()) {
+                updateSnapshot(entry.getKey(), entry.getValue(), getId(entry.getKey()));
+            }
+        }
+
         //clear all of our references before calling saveCollectionsForAll
         values.clear();
         idMap.clear();
@@ -1139,6 +2163,42 @@ public class ORMDataSource {
         saveCollectionsForAll(os);
     }
 
+    /**
+     * Dump the objects that have changed since they were fetched or saved, for saveAll with dirty tracking.
+     * 
+     * @param split The objects to save, by class
+     * @param written Filled in with the objects to write, by class
+     * @param values Filled in with the values to write, by table, in the same order as written
+     * @param current Filled in with the current columns of every object, to update the snapshots with
+     */
+    private void dumpChangedObjects(Map<Class<?>, List<Object>> split, Map<Class<?>, List<Object>> written,
+            Map<String, List<ValueSet>> values, Map<Object, DefaultValueSet> current) {
+        for (Map.Entry<Class<?>, List<Object>> entry : split.entrySet()) {
+            List<Object>          objects   = entry.getValue();
+            List<DefaultValueSet> valueSets = new ArrayList<DefaultValueSet>(objects.size());
+            for (int ii = 0; ii < objects.size(); ii++) {
+                valueSets.add(new DefaultValueSet());
+            }
+            writeColumns(entry.getKey(), objects, true, valueSets);
+
+            List<Object>   toWrite  = new ArrayList<Object>();
+            List<ValueSet> toValues = new ArrayList<ValueSet>();
+            for (int ii = 0; ii < objects.size(); ii++) {
+                Object   o       = objects.get(ii);
+                ValueSet changed = getChangedValues(o, valueSets.get(ii));
+                current.put(o, valueSets.get(ii));
+                if (changed != null) {
+                    toWrite.add(o);
+                    toValues.add(changed);
+                }
+            }
+            if (!toWrite.isEmpty()) {
+                written.put(entry.getKey(), toWrite);
+                values.put(getTableNameForClass(entry.getKey()), toValues);
+            }
+        }
+    }
+
     private void checkAllSameClass(Collection<? extends Object> os) {
         Class<?> theClass = null;
         for (Object o : os) {
@@ -1198,7 +2258,16 @@ public class ORMDataSource {
         checkIsOpened();
         checkIsEntityClass(clazz);
         try {
-            return database.count(this.getTableNameForClass(clazz), whereClause, whereParams);
+            if (this.queryCache == null || isInTransaction()) {
+                return database.count(this.getTableNameForClass(clazz), whereClause, whereParams);
+            }
+            Long count = this.queryCache.getCount(clazz, whereClause, whereParams);
+            if (count == null) {
+                long generation = this.queryCache.getGeneration(clazz);
+                count = database.count(this.getTableNameForClass(clazz), whereClause, whereParams);
+                this.queryCache.putCount(clazz, whereClause, whereParams, count, generation);
+            }
+            return count;
         } catch (SQLException ex) {
             throw new RuntimeException(ex);
         }
@@ -1212,16 +2281,25 @@ public class ORMDataSource {
 	public void delete(Object o) {
         checkIsOpened();
         checkIsEntity(o);
-        Entity entity = new Entity(reflector, o);
-        long id = entity.getId();
+        long id = getId(o);
+        beginTransaction();
+        boolean success = false;
     	try {
     	    //first, delete data from join tables
             deleteCollections(o, id);
             //then, delete the actual record
             System.out.println(o.getClass().getSimpleName() + " deleted with id: " + id);
-    		database.delete(this.getTableNameForClass(o.getClass()), "id = " + id, null);
-		} catch (SQLException se) {
-			throw new RuntimeException(se);
+    		database.delete(this.getTableNameForClass(o.getClass()), EntityMetaData.ID_FIELD + " = ?", new String[] {String.valueOf(id)});
+    		invalidate(o.getClass(), id);
+    		if (this.snapshots != null) {
+    		    this.snapshots.remove(o);
+    		}
+    		this.unfetched.remove(o);
+    		success = true;
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+		    endTransaction(success);
 		}
     }
 
@@ -1234,28 +2312,23 @@ public class ORMDataSource {
 	 * @param id
 	 * @throws SQLException
 	 */
-    private void deleteCollections(Object o, long id) throws SQLException {
-    	String tableName = getTableNameForClass(o.getClass());
-        for (Method m : o.getClass().getMethods()) {
-            if (isPersisted(m) && isCollection(m)) {
-                OneToMany c = m.getAnnotation(OneToMany.class);
-                if (c == null || c.value() == null) {
-                    throw new RuntimeException("Collections must be marked with the appropriate annotation, or @Transient");
-                }
-
-                String fieldName     = getFieldNameFromMethod(m);
-                String joinTableName = buildJoinTableName(tableName, fieldName);
-
-                if (isEntity(c.value())) {
-                	//delete all of the old dependent objects for this collection
-                    Map<Long, Collection<?>> map = new HashMap<Long, Collection<?>>();
-                    map.put(id, Collections.EMPTY_LIST);
-                	deleteDependents(joinTableName, c.value(), tableName, fieldName, isReference(m), map);
-                } else {
-                	deleteValuesFromJoinTable(joinTableName, tableName, fieldName, Arrays.asList(id));
-                }
+    private void deleteCollections(Object o, long id) throws Exception {
+        EntityMapping mapping = getMapping(o.getClass());
+    	String tableName = mapping.getTableName();
+        for (FieldMapping f : mapping.getCollections()) {
+            String fieldName     = f.getName();
+            String joinTableName = buildJoinTableName(tableName, fieldName);
+
+            if (f.isEntityCollection()) {
+            	//delete all of the old dependent objects for this collection
+                Map<Long, Collection<?>> map = new HashMap<Long, Collection<?>>();
+                map.put(id, Collections.EMPTY_LIST);
+            	writeJoinTable(joinTableName, f, tableName, f.isReference(), map);
+            } else {
+            	deleteValuesFromJoinTable(joinTableName, tableName, fieldName, Arrays.asList(id));
             }
         }
+        invalidateQueries(o.getClass());
 	}
 
 	public void deleteAll(Class<?> clazz, String whereClause) {
@@ -1265,6 +2338,8 @@ public class ORMDataSource {
         System.out.println(clazz.getSimpleName() + " emptied");
     	try {
     		database.delete(this.getTableNameForClass(clazz), whereClause, null);
+    		//we don't know which rows were deleted, so drop them all
+    		invalidate(clazz);
 		} catch (SQLException se) {
 			throw new RuntimeException(se);
 		}
@@ -1278,50 +2353,45 @@ public class ORMDataSource {
 	 * @return
 	 */
 	public <T> T get(Class<T> clazz, long id) {
+	    return get(clazz, id, FetchPlan.ALL);
+	}
+
+	/**
+	 * Get a single object by id, fetching the relationships named in the plan.
+	 * 
+	 * @param clazz
+	 * @param id
+	 * @param plan
+	 * @return
+	 */
+	public <T> T get(Class<T> clazz, long id, FetchPlan plan) {
 	    //NOTE: create a new EntityCache, since this is the top level of a fetch for an entity
-	    return doGet(clazz, id, newEntityBuilder());
+	    return doGet(clazz, id, newEntityBuilder(), plan);
 	}
 
     /**
      * @return
      */
     private EntityBuilder newEntityBuilder() {
-        return new EntityBuilder(this, this.reflector);
+        EntityBuilder entityBuilder = new EntityBuilder(this.mappings);
+        Executor executor = this.hydrationExecutor;
+        if (executor != null) {
+            entityBuilder.setParallelHydration(executor, this.hydrationChunkSize);
+        }
+        return entityBuilder;
     }
 	
-	private <T> T doGet(Class<T> clazz, long id, EntityBuilder entityBuilder) {
+	private <T> T doGet(Class<T> clazz, long id, EntityBuilder entityBuilder, FetchPlan plan) {
         checkIsOpened();
         checkIsEntityClass(clazz);
-        List<String> columns = this.getColumns(clazz);
-        QueryCursor c = null;
-        T o = null;
         //if the cache already contains this entity (we've fetched it somewhere up the entity tree), return it's value
-        if (entityBuilder.contains(clazz, id)) {
-            o = entityBuilder.get(clazz, id);
-        } else {
-            //otherwise, we need to get the entity from the database.
-            try {
-                c = database.query(this.getTableNameForClass(clazz), columns.toArray(new String[columns.size()]),
-                            "id = " + id, null, null, null, null);
-                if (c != null && !c.isEmpty()) {
-                    c.moveToFirst();
-                    o = entityBuilder.cursorToObject(c, true, clazz);
-                }
-                //clean up (for GC)
-                c = null;
-                fillEntities(clazz, Arrays.asList(o), entityBuilder);
-                fillCollections(clazz, Arrays.asList(o), entityBuilder);
-                return o;
-            } catch (Exception e) {
-                throw new RuntimeException(e);
-            } finally {
-                //just in case, clean up after ourselves
-                if (c != null) {
-                    c.close();
-                }
-            }
+        T cached = entityBuilder.get(clazz, id);
+        if (cached != null) {
+            return cached;
         }
-        return o;
+        //otherwise, we need to get the entity from the database.
+        List<T> list = doGetAllById(clazz, Collections.singletonList(id), entityBuilder, plan);
+        return list.isEmpty() ? null : list.get(0);
     }
 
 //    private void getCollections(Object o, long id) {
@@ -1395,17 +2465,17 @@ public class ORMDataSource {
      * 
      * @param typeClass
      * @param parentClass
-     * @return
+     * @return The reference field, or null if the class does not reference the parent
      */
-    private Method findReference(Class<?> typeClass, Class<? extends Object> parentClass) {
-    	Method refM = null;
-        for (Method m : typeClass.getMethods()) {
-	        if (m.isAnnotationPresent(Reference.class) && m.getReturnType().equals(parentClass)) {
-	        	refM = m;
+    private FieldMapping findReference(Class<?> typeClass, Class<? extends Object> parentClass) {
+    	FieldMapping ref = null;
+        for (FieldMapping f : getMapping(typeClass).getEntityFields()) {
+	        if (f.isReference() && f.getType().equals(parentClass)) {
+	        	ref = f;
 	        	break;
 	        }
         }
-        return refM;
+        return ref;
 	}
 
 	/**
@@ -1474,125 +2544,506 @@ public class ORMDataSource {
 //	}
 
 	/**
-	 * Contruct a collection of the specified type, to hold the specified value type.
-	 * 
-	 * NOTE: the value class is passed in for the generics, to ensure we have compile time type safety
+	 * Contruct a collection of the specified type, to hold the specified value type.
+	 * 
+	 * NOTE: the value class is passed in for the generics, to ensure we have compile time type safety
+	 * 
+	 * @param collectionClass
+	 * @param valueClass
+	 * @return
+	 */
+	private <T> Collection<T> newCollection(Class<?> collectionClass, Class<T> valueClass) {
+		Collection<T> newCol = null;
+		//if the collection class is a concrete class (well, we assume its concrete)...
+		if (!collectionClass.isInterface()) {
+			try {
+				//attempt to instantiate the class
+				newCol = (Collection<T>) collectionClass.newInstance();
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException(e);
+			} catch (InstantiationException e) {
+				//we can't instantiate it...fall thru to use some default options based on the type of
+				// collection
+			}
+		}
+		//default instances of different types of collections
+		if (newCol == null) {
+    		if (Set.class.isAssignableFrom(collectionClass)) {
+    			newCol = new HashSet<T>();
+    		} else if (List.class.isAssignableFrom(collectionClass)) {
+    			newCol = new ArrayList<T>();
+    		} else if (Collection.class.isAssignableFrom(collectionClass)) {
+    			newCol = new ArrayList<T>();
+            } else {
+                throw new RuntimeException("Unsupported type: " + collectionClass.getCanonicalName());
+            }
+		}
+		return newCol;
+	}
+
+	/**
+	 * Get all objects that conform to the supplied where clause.
+	 * 
+	 * @param clazz
+	 * @param whereClause The where fragment (e.g. "id in (2,3,4)"), or null to get all of the objects
+	 * in the db.  
+	 * @return
+	 */
+	public <T> List<T> getAll(Class<T> clazz, String whereClause) {
+	    return getAll(clazz, whereClause, FetchPlan.ALL);
+	}
+
+	/**
+	 * Get all objects that conform to the supplied where clause, fetching the relationships
+	 * named in the plan.
+	 * 
+	 * @param clazz
+	 * @param whereClause The where fragment, or null to get all of the objects in the db.
+	 * @param plan
+	 * @return
+	 */
+	public <T> List<T> getAll(Class<T> clazz, String whereClause, FetchPlan plan) {
+	    if (this.queryCache == null || isInTransaction()) {
+	        return doGetAll(clazz, whereClause, newEntityBuilder(), plan);
+	    }
+	    checkIsOpened();
+	    checkIsEntityClass(clazz);
+	    long[] ids = this.queryCache.getIds(clazz, whereClause, null);
+	    if (ids != null) {
+	        return getAllById(clazz, ids, plan);
+	    }
+	    long generation = this.queryCache.getGeneration(clazz);
+	    List<T> list = doGetAll(clazz, whereClause, newEntityBuilder(), plan);
+	    ids = new long[list.size()];
+	    for (int ii = 0; ii < ids.length; ii++) {
+	        ids[ii] = getId(list.get(ii));
+	    }
+	    this.queryCache.putIds(clazz, whereClause, null, ids, generation);
+	    return list;
+	}
+
+	/**
+	 * Fetch the objects for a cached query result, in the order of the ids.
+	 * 
+	 * @param clazz
+	 * @param ids
+	 * @param plan
+	 * @return
+	 */
+	private <T> List<T> getAllById(Class<T> clazz, long[] ids, FetchPlan plan) {
+	    List<Long> idList = new ArrayList<Long>(ids.length);
+	    for (long id : ids) {
+	        idList.add(id);
+	    }
+	    EntityBuilder entityBuilder = newEntityBuilder();
+	    doGetAllById(clazz, idList, entityBuilder, plan);
+	    //the objects come back in whatever order the database returned them, so put them back in query order
+	    List<T> list = new ArrayList<T>(ids.length);
+	    for (long id : ids) {
+	        T o = entityBuilder.get(clazz, id);
+	        //NOTE: this can only happen if the object was deleted without going through this data source
+	        if (o != null) {
+	            list.add(o);
+	        }
+	    }
+	    return list;
+	}
+
+	/**
+	 * Iterate over all objects that conform to the supplied where clause, building them
+	 * DEFAULT_CHUNK_SIZE at a time.
+	 * 
+	 * @param clazz
+	 * @param whereClause The where fragment, or null to iterate over all of the objects in the db.
+	 * @return
+	 */
+	public <T> EntityIterator<T> iterate(Class<T> clazz, String whereClause) {
+	    return iterate(clazz, whereClause, DEFAULT_CHUNK_SIZE);
+	}
+
+	/**
+	 * Iterate over all objects that conform to the supplied where clause.  Unlike getAll,
+	 * this keeps the query open and builds the objects (and fetches their references and
+	 * collections) chunkSize at a time, as the iterator is advanced.
+	 * 
+	 * The iterator must be run to the end or closed, to close the query.
+	 * 
+	 * @param clazz
+	 * @param whereClause The where fragment, or null to iterate over all of the objects in the db.
+	 * @param chunkSize The number of objects to build at a time
+	 * @return
+	 */
+	public <T> EntityIterator<T> iterate(Class<T> clazz, String whereClause, int chunkSize) {
+        checkIsOpened();
+        checkIsEntityClass(clazz);
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1");
+        }
+        try {
+            boolean joined = isJoinFetched(clazz, FetchPlan.ALL);
+            QueryCursor c = query(clazz, whereClause, null, joined, FetchPlan.ALL);
+            return new EntityIterator<T>(this, clazz, c, chunkSize, joined);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+	}
+
+	/**
+	 * Build and fill the next chunk of objects from an open cursor.  Each chunk is built
+	 * with its own EntityBuilder, so nothing is held on to between chunks.
+	 * 
+	 * @param clazz
+	 * @param c
+	 * @param chunkSize
+	 * @param joined True if the cursor was opened with eager joins
+	 * @return
+	 */
+	<T> List<T> fetchChunk(Class<T> clazz, QueryCursor c, int chunkSize, boolean joined) {
+	    try {
+	        EntityBuilder entityBuilder = newEntityBuilder();
+	        List<T> built = new ArrayList<T>();
+	        List<T> list  = readRows(clazz, c, chunkSize, joined, entityBuilder, FetchPlan.ALL, built);
+	        fill(clazz, built, joined, entityBuilder, FetchPlan.ALL);
+	        return list;
+	    } catch (Exception e) {
+	        throw new RuntimeException(e);
+	    }
+	}
+
+	/**
+	 * Perform a bulk fetch of objects that conform to the supplied where clause.
+	 * 
+	 * This method is called a lot, when building the full entity relationship tree.
+	 * It also carries the entity map for this fetch, to ensure we don't chase
+	 * circular references, and that we don't fetch the same objects more than once.
+	 * 
+	 * @param clazz
+	 * @param whereClause
+	 * @param entityCache
+	 * @param plan The relationships to fetch
+	 * @return
+	 */
+	private <T> List<T> doGetAll(Class<T> clazz, String whereClause, EntityBuilder entityBuilder, FetchPlan plan) {
+	    return doGetAll(clazz, whereClause, null, entityBuilder, plan);
+	}
+
+	private <T> List<T> doGetAll(Class<T> clazz, String whereClause, String[] whereParams, EntityBuilder entityBuilder, FetchPlan plan) {
+        checkIsOpened();
+        checkIsEntityClass(clazz);
+        boolean joined = isJoinFetched(clazz, plan);
+        List<T> built  = new ArrayList<T>();
+        List<T> list   = readAll(clazz, whereClause, whereParams, joined, entityBuilder, plan, built);
+        fill(clazz, built, joined, entityBuilder, plan);
+        return list;
+    }
+
+	/**
+	 * Perform a bulk fetch of objects by id.  The ids are fetched in chunks (see InClause),
+	 * and the objects' references and collections are filled in once for all of the chunks.
+	 * 
+	 * @param clazz
+	 * @param ids
+	 * @param entityBuilder
+	 * @param plan The relationships to fetch
+	 * @return
+	 */
+	private <T> List<T> doGetAllById(Class<T> clazz, Collection<Long> ids, EntityBuilder entityBuilder, FetchPlan plan) {
+        checkIsOpened();
+        checkIsEntityClass(clazz);
+        List<T> list   = new ArrayList<T>(ids.size());
+        if (this.secondLevelCache != null && !isInTransaction()) {
+            ids = getFromSecondLevelCache(clazz, ids, entityBuilder, plan, list);
+        }
+        boolean joined = isJoinFetched(clazz, plan);
+        List<T> built  = new ArrayList<T>();
+        for (InClause in : InClause.split(EntityMetaData.ID_FIELD, ids)) {
+            list.addAll(readAll(clazz, in.getWhere(), in.getParams(), joined, entityBuilder, plan, built));
+        }
+        fill(clazz, built, joined, entityBuilder, plan);
+        return list;
+	}
+
+	/**
+	 * Build and fill the objects whose rows are in the second level cache.
+	 * 
+	 * @param clazz
+	 * @param ids
+	 * @param entityBuilder
+	 * @param plan
+	 * @param list The list to add the objects to
+	 * @return The ids that are not in the cache, and must be fetched
+	 */
+	private <T> Collection<Long> getFromSecondLevelCache(Class<T> clazz, Collection<Long> ids, EntityBuilder entityBuilder, FetchPlan plan, List<T> list) {
+	    List<Long>     toFetch = new ArrayList<Long>();
+	    List<Object[]> rows    = new ArrayList<Object[]>();
+	    for (Long id : ids) {
+	        Object[] row = this.secondLevelCache.get(clazz, id);
+	        if (row != null) {
+	            rows.add(row);
+	        } else {
+	            toFetch.add(id);
+	        }
+	    }
+	    if (!rows.isEmpty()) {
+	        try {
+	            List<T> built = new ArrayList<T>();
+	            list.addAll(entityBuilder.cursorToObjects(new RowCursor(getColumns(clazz), rows), clazz, Integer.MAX_VALUE, built));
+	            //NOTE: the cached rows do not include the references, so those are always fetched separately
+	            fill(clazz, built, false, entityBuilder, plan);
+	        } catch (Exception e) {
+	            throw new RuntimeException(e);
+	        }
+	    }
+	    return toFetch;
+	}
+
+	/**
+	 * Get the classes whose rows are read by a query: the queried class, and with eager joins,
+	 * the joined references.
+	 * 
+	 * @param clazz
+	 * @param joined
+	 * @param plan
+	 * @return
+	 */
+	private List<Class<?>> getRowClasses(Class<?> clazz, boolean joined, FetchPlan plan) {
+	    List<Class<?>> classes = new ArrayList<Class<?>>();
+	    classes.add(clazz);
+	    if (joined) {
+	        for (FieldMapping f : getEntityFields(clazz, plan)) {
+	            classes.add(f.getType());
+	        }
+	    }
+	    return classes;
+	}
+
+	/**
+	 * Copy the rows in the cursor into the second level cache.  With eager joins, the rows of the
+	 * joined references are cached as well.
+	 * 
+	 * @param cache
+	 * @param classes The classes in each row (see getRowClasses)
+	 * @param generations The cache generation of each class, from before the query was run
+	 * @param c
+	 * @return A cursor over the copied rows
+	 * @throws Exception
+	 */
+	private QueryCursor cacheRows(SecondLevelCache cache, List<Class<?>> classes, long[] generations, QueryCursor c) throws Exception {
+	    //resolve the fields and the id column of each class in the row
+	    List<FieldMapping> fields = new ArrayList<FieldMapping>();
+	    int[] starts = new int[classes.size() + 1];
+	    int[] idCols = new int[classes.size()];
+	    for (int ii = 0; ii < classes.size(); ii++) {
+	        starts[ii] = fields.size();
+	        for (FieldMapping f : getMapping(classes.get(ii)).getColumns()) {
+	            if (f.isId()) {
+	                idCols[ii] = fields.size();
+	            }
+	            fields.add(f);
+	        }
+	    }
+	    starts[classes.size()] = fields.size();
+	    FieldMapping[] rowFields = fields.toArray(new FieldMapping[fields.size()]);
+
+	    List<Object[]> rows = new ArrayList<Object[]>();
+	    while (!c.isAfterLast()) {
+	        Object[] row = RowCursor.readRow(c, rowFields);
+	        rows.add(row);
+	        for (int ii = 0; ii < classes.size(); ii++) {
+	            long id = (Long) row[idCols[ii]];
+	            //NOTE: a reference that was not found by the join will have an id of 0 (null)
+	            if (id > 0) {
+	                cache.put(classes.get(ii), id, Arrays.copyOfRange(row, starts[ii], starts[ii + 1]), generations[ii]);
+	            }
+	        }
+	        c.moveToNext();
+	    }
+	    String[] columns = new String[c.getColumnCount()];
+	    for (int ii = 0; ii < columns.length; ii++) {
+	        columns[ii] = c.getColumnName(ii);
+	    }
+	    return new RowCursor(columns, rows);
+	}
+
+	/**
+	 * Fill in the references and collections of newly built objects.
+	 * 
+	 * @param clazz
+	 * @param built
+	 * @param joined True if the objects were read with eager joins, in which case their singular
+	 * references have already been filled in
+	 * @param entityBuilder
+	 * @param plan
+	 */
+	private <T> void fill(Class<T> clazz, List<T> built, boolean joined, EntityBuilder entityBuilder, FetchPlan plan) {
+	    if (built.isEmpty()) {
+	        return;
+	    }
+	    if (!joined) {
+	        fillEntities(clazz, built, entityBuilder, plan);
+	    }
+	    fillCollections(clazz, built, entityBuilder, plan);
+	    recordUnfetched(clazz, built, plan);
+	    takeSnapshots(clazz, built);
+	}
+
+	/**
+	 * Record the relationships of fetched objects that were left out of the plan, so they are not
+	 * saved over the persisted ones.
+	 * 
+	 * @param clazz
+	 * @param objects
+	 * @param plan
+	 */
+	private void recordUnfetched(Class<?> clazz, List<?> objects, FetchPlan plan) {
+	    if (plan == FetchPlan.ALL) {
+	        return;
+	    }
+	    EntityMapping      mapping = getMapping(clazz);
+	    List<FieldMapping> fields  = new ArrayList<FieldMapping>();
+	    for (FieldMapping f : mapping.getEntityFields()) {
+	        if (!plan.includes(f.getName())) {
+	            fields.add(f);
+	        }
+	    }
+	    for (FieldMapping f : mapping.getCollections()) {
+	        if (!plan.includes(f.getName())) {
+	            fields.add(f);
+	        }
+	    }
+	    if (fields.isEmpty()) {
+	        return;
+	    }
+	    try {
+	        for (Object o : objects) {
+	            Unfetched u = new Unfetched();
+	            for (FieldMapping f : fields) {
+	                u.add(f.getName(), f.getAccessor().get(o));
+	            }
+	            this.unfetched.put(o, u);
+	        }
+	    } catch (Exception e) {
+	        throw new RuntimeException(e);
+	    }
+	}
+
+	/**
+	 * Test if a class is fetched with eager joins (e.g. eager joins are on, and the plan includes
+	 * some of its singular references).
 	 * 
-	 * @param collectionClass
-	 * @param valueClass
+	 * @param clazz
+	 * @param plan
 	 * @return
 	 */
-	private <T> Collection<T> newCollection(Class<?> collectionClass, Class<T> valueClass) {
-		Collection<T> newCol = null;
-		//if the collection class is a concrete class (well, we assume its concrete)...
-		if (!collectionClass.isInterface()) {
-			try {
-				//attempt to instantiate the class
-				newCol = (Collection<T>) collectionClass.newInstance();
-			} catch (IllegalAccessException e) {
-				throw new RuntimeException(e);
-			} catch (InstantiationException e) {
-				//we can't instantiate it...fall thru to use some default options based on the type of
-				// collection
-			}
-		}
-		//default instances of different types of collections
-		if (newCol == null) {
-    		if (Set.class.isAssignableFrom(collectionClass)) {
-    			newCol = new HashSet<T>();
-    		} else if (List.class.isAssignableFrom(collectionClass)) {
-    			newCol = new ArrayList<T>();
-    		} else if (Collection.class.isAssignableFrom(collectionClass)) {
-    			newCol = new ArrayList<T>();
-            } else {
-                throw new RuntimeException("Unsupported type: " + collectionClass.getCanonicalName());
-            }
-		}
-		return newCol;
+	private boolean isJoinFetched(Class<?> clazz, FetchPlan plan) {
+	    return this.eagerJoins && !getEntityFields(clazz, plan).isEmpty();
 	}
 
 	/**
-	 * Get all objects that conform to the supplied where clause.
+	 * Get the singular reference fields of a class that are included in the plan.
 	 * 
 	 * @param clazz
-	 * @param whereClause The where fragment (e.g. "id in (2,3,4)"), or null to get all of the objects
-	 * in the db.  
+	 * @param plan
 	 * @return
 	 */
-	public <T> List<T> getAll(Class<T> clazz, String whereClause) {
-	    return doGetAll(clazz, whereClause, newEntityBuilder());
+	private List<FieldMapping> getEntityFields(Class<?> clazz, FetchPlan plan) {
+	    List<FieldMapping> fields = getMapping(clazz).getEntityFields();
+	    if (plan == FetchPlan.ALL) {
+	        return fields;
+	    }
+	    List<FieldMapping> included = new ArrayList<FieldMapping>(fields.size());
+	    for (FieldMapping f : fields) {
+	        if (plan.includes(f.getName())) {
+	            included.add(f);
+	        }
+	    }
+	    return included;
 	}
 
 	/**
-	 * Perform a bulk fetch of objects that conform to the supplied where clause.
+	 * Query for the objects that conform to the where clause.
 	 * 
-	 * This method is called a lot, when building the full entity relationship tree.
-	 * It also carries the entity map for this fetch, to ensure we don't chase
-	 * circular references, and that we don't fetch the same objects more than once.
+	 * With eager joins, the class's table is left joined with the table of each of its singular
+	 * references, and the cursor holds the class's columns followed by the columns of each
+	 * referenced class, in getEntityFields order (limited to the fields in the plan).  The where clause is applied to the class's
+	 * table in a subquery, so it does not need to qualify its column names.
 	 * 
 	 * @param clazz
 	 * @param whereClause
-	 * @param entityCache
+	 * @param whereParams
+	 * @param joined
+	 * @param plan The plan, which picks the references to join
 	 * @return
+	 * @throws SQLException
 	 */
-	private <T> List<T> doGetAll(Class<T> clazz, String whereClause, EntityBuilder entityBuilder) {
-	    
-        checkIsOpened();
-        checkIsEntityClass(clazz);
-        List<String> columns = this.getColumns(clazz);
+	private QueryCursor query(Class<?> clazz, String whereClause, String[] whereParams, boolean joined, FetchPlan plan) throws SQLException {
+	    EntityMapping mapping = getMapping(clazz);
+	    if (!joined) {
+	        return database.query(mapping.getTableName(), mapping.getColumnNames(), whereClause, whereParams, null, null, null);
+	    }
+	    List<String>  columns = new ArrayList<String>();
+	    StringBuilder from    = new StringBuilder();
+	    if (whereClause != null) {
+	        from.append("(select * from ").append(mapping.getTableName()).append(" where ").append(whereClause).append(") t0");
+	    } else {
+	        from.append(mapping.getTableName()).append(" t0");
+	    }
+	    for (String column : mapping.getColumnNames()) {
+	        columns.add("t0." + column);
+	    }
+	    int inx = 1;
+	    for (FieldMapping f : getEntityFields(clazz, plan)) {
+	        EntityMapping refMapping = getMapping(f.getType());
+	        String alias = "t" + inx++;
+	        from.append(" left join ").append(refMapping.getTableName()).append(" ").append(alias)
+	            .append(" on t0.").append(f.getName()).append(" = ").append(alias).append(".").append(EntityMetaData.ID_FIELD);
+	        for (String column : refMapping.getColumnNames()) {
+	            columns.add(alias + "." + column);
+	        }
+	    }
+	    return database.query(from.toString(), columns.toArray(new String[columns.size()]), null, whereParams, null, null, null);
+	}
+
+	/**
+	 * Read the objects that conform to the where clause, without filling in their references
+	 * or collections.
+	 * 
+	 * @param clazz
+	 * @param whereClause
+	 * @param whereParams
+	 * @param joined True to use eager joins
+	 * @param entityBuilder
+	 * @param plan
+	 * @param built The list to add the newly built objects to (which must be filled in by the caller)
+	 * @return
+	 */
+	private <T> List<T> readAll(Class<T> clazz, String whereClause, String[] whereParams, boolean joined, EntityBuilder entityBuilder, FetchPlan plan, List<T> built) {
         QueryCursor c = null;
         try {
-            Collection<Long> allIds = doGetAllIds(clazz, whereClause, true);
-            List<T> list = new LinkedList<T>();
-            
-            Set<Long> toFetch = new HashSet<Long>();
-            for (Long id : allIds) {
-                if (entityBuilder.contains(clazz, id)) {
-                    list.add(entityBuilder.get(clazz, id));
-                } else {
-                    toFetch.add(id);
+            //read the cache generations before the query, so rows changed while it runs are not cached
+            SecondLevelCache cache       = isInTransaction() ? null : this.secondLevelCache;
+            List<Class<?>>   classes     = null;
+            long[]           generations = null;
+            if (cache != null) {
+                classes     = getRowClasses(clazz, joined, plan);
+                generations = new long[classes.size()];
+                for (int ii = 0; ii < generations.length; ii++) {
+                    generations[ii] = cache.getGeneration(classes.get(ii));
                 }
             }
-
-            String where = EntityMetaData.ID_FIELD + " in (" + flattenCollection(toFetch) + ")";
-            c = database.query(this.getTableNameForClass(clazz), columns.toArray(new String[columns.size()]),
-                        where, null, null, null, null);
+            //NOTE: this is done in one pass...rows for objects we've already built in this fetch are skipped
+            // by the entity builder, and only the newly built objects need to be filled in
+            c = query(clazz, whereClause, whereParams, joined, plan);
             //if there's nothing to do, we'll return an empty list
-            if (c != null && !c.isEmpty()) {
-                c.moveToFirst();
-                list.addAll(entityBuilder.cursorToObjects(c, true, clazz));
-                
-                fillEntities(clazz, list, entityBuilder);
-                fillCollections(clazz, list, entityBuilder);
-            }
-            return list;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        } finally {
-            //just in case, we want to clean up after ourselves
-            if (c != null) {
-                c.close();
+            if (c == null || c.isEmpty()) {
+                return new ArrayList<T>();
             }
-        }
-    }
-
-	private Collection<Long> doGetAllIds(Class<?> clazz, String whereClause, boolean uniqueIds) {
-        checkIsOpened();
-        checkIsEntityClass(clazz);
-        QueryCursor c = null;
-        try {
-            Collection<Long> allIds = uniqueIds ? new HashSet<Long>() : new LinkedList<Long>();
-            
-            c = database.query(this.getTableNameForClass(clazz), new String[] {EntityMetaData.ID_FIELD},
-                        whereClause, null, null, null, null);
-            //if there's nothing to do, we'll return an empty list
-            if (c != null && !c.isEmpty()) {
-                c.moveToFirst();
-                do {
-                    allIds.add(c.getLong(0));
-                } while (c.moveToNext());
+            c.moveToFirst();
+            if (cache != null) {
+                //read the rows into the cache, and build the objects from the copies
+                return readRows(clazz, cacheRows(cache, classes, generations, c), Integer.MAX_VALUE, joined, entityBuilder, plan, built);
             }
-            return allIds;
+            return readRows(clazz, c, Integer.MAX_VALUE, joined, entityBuilder, plan, built);
         } catch (Exception e) {
             throw new RuntimeException(e);
         } finally {
@@ -1603,36 +3054,112 @@ public class ORMDataSource {
         }
 	}
 
+	/**
+	 * Read up to maxRows objects from the cursor.  With eager joins, this also builds the referenced
+	 * objects from each row and sets them into the newly built objects, and then fills in the
+	 * references and collections of the newly built referenced objects.
+	 * 
+	 * @param clazz
+	 * @param c
+	 * @param maxRows
+	 * @param joined True if the cursor was opened with eager joins
+	 * @param entityBuilder
+	 * @param plan
+	 * @param built The list to add the newly built objects to
+	 * @return
+	 * @throws Exception
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> List<T> readRows(Class<T> clazz, QueryCursor c, int maxRows, boolean joined, EntityBuilder entityBuilder, FetchPlan plan, List<T> built) throws Exception {
+	    if (!joined) {
+	        return entityBuilder.cursorToObjects(c, clazz, maxRows, built);
+	    }
+	    List<FieldMapping> refs  = getEntityFields(clazz, plan);
+	    ColumnRange        range = entityBuilder.getColumnRange(clazz, 0);
+
+	    //resolve where each reference's foreign key and columns are in the row
+	    int[]                fkCols    = new int[refs.size()];
+	    ColumnRange[]        refRanges = new ColumnRange[refs.size()];
+	    List<List<Object>>   builtRefs = new ArrayList<List<Object>>(refs.size());
+	    int offset = range.getEnd();
+	    for (int ii = 0; ii < refs.size(); ii++) {
+	        FieldMapping f = refs.get(ii);
+	        if (!f.getAccessor().isWritable()) {
+	            throw new NoSuchMethodException("No setter for '" + f.getName() + "' in " + clazz.getCanonicalName());
+	        }
+	        fkCols[ii]    = range.getColumn(f);
+	        refRanges[ii] = entityBuilder.getColumnRange(f.getType(), offset);
+	        offset        = refRanges[ii].getEnd();
+	        builtRefs.add(new ArrayList<Object>());
+	    }
+
+	    List<T> list = new ArrayList<T>();
+	    while (list.size() < maxRows && !c.isAfterLast()) {
+	        int before = built.size();
+	        T o = entityBuilder.cursorToObject(c, clazz, range, built);
+	        //only set references on new objects...cached objects have been (or will be) filled in already
+	        boolean isNew = built.size() > before;
+	        for (int ii = 0; ii < refs.size(); ii++) {
+	            long refId = c.getLong(fkCols[ii]);
+	            //-1 indicates a null/empty entity
+	            if (refId < 0) {
+	                continue;
+	            }
+	            if (c.getLong(refRanges[ii].getIdColumn()) != refId) {
+	                //the referenced row is gone...leave the reference unset
+	                continue;
+	            }
+	            Object ref = entityBuilder.cursorToObject(c, (Class<Object>) refs.get(ii).getType(), refRanges[ii], builtRefs.get(ii));
+	            if (isNew) {
+	                refs.get(ii).getAccessor().set(o, ref);
+	            }
+	        }
+	        list.add(o);
+	        c.moveToNext();
+	    }
+
+	    //the referenced objects were read without their own references and collections...fill those in here
+	    for (int ii = 0; ii < refs.size(); ii++) {
+	        List<Object> refBuilt = builtRefs.get(ii);
+	        if (!refBuilt.isEmpty()) {
+	            Class<Object> refClass = (Class<Object>) refs.get(ii).getType();
+	            FetchPlan     refPlan  = plan.getChild(refs.get(ii).getName());
+	            fillEntities(refClass, refBuilt, entityBuilder, refPlan);
+	            fillCollections(refClass, refBuilt, entityBuilder, refPlan);
+	            takeSnapshots(refClass, refBuilt);
+	        }
+	    }
+	    return list;
+	}
+
 	/**
      * Fill in the singular entities for the list of objects.  Done in bulk so we can
      * minimize the number of queries executed.
      * 
      * @param clazz
      * @param list
+     * @param entityBuilder
+     * @param plan The relationships to fetch
      */
-	private <T> void fillEntities(Class<T> clazz, List<T> list, EntityBuilder entityBuilder) {
+	private <T> void fillEntities(Class<T> clazz, List<T> list, EntityBuilder entityBuilder, FetchPlan plan) {
         try {
-            String tableName = getTableNameForClass(clazz);
-            for (Method m : clazz.getMethods()) {
-                Class<?> typeClass = m.getReturnType();
-                if (isPersisted(m) && isEntity(typeClass)) {
-                    //build a map of the parent object ids to objects, for easy look up later
-                    Map<Long, T> parentMap = new HashMap<Long, T>(list.size());
-                    for (T o : list) {
-                        Entity entity = new Entity(reflector, o);
-                        parentMap.put((Long) entity.getId(), o);
-                        
-                    }
-                    //build a bulk query to get the child entity id's for all of the objects passed in 
-                    String fieldName = getFieldNameFromMethod(m);
-                    String where = EntityMetaData.ID_FIELD + " in (" + flattenCollection(parentMap.keySet()) + ")";
-                    QueryCursor c = database.query(tableName, new String[] {EntityMetaData.ID_FIELD, fieldName}, where, null, null, null, null);
-                    Map<Long, Long> entityToRefMap = new HashMap<Long, Long>();
+            EntityMapping mapping = getMapping(clazz);
+            String tableName = mapping.getTableName();
+            for (FieldMapping f : getEntityFields(clazz, plan)) {
+                Class<?> typeClass = f.getType();
+                //build a map of the parent object ids to objects, for easy look up later
+                Map<Long, T> parentMap = new HashMap<Long, T>(list.size());
+                for (T o : list) {
+                    parentMap.put((Long) getId(o), o);
                     
+                }
+                //build bulk queries to get the child entity id's for all of the objects passed in 
+                String fieldName = f.getName();
+                Map<Long, Long> entityToRefMap = new HashMap<Long, Long>();
+                for (InClause in : InClause.split(EntityMetaData.ID_FIELD, parentMap.keySet())) {
+                    QueryCursor c = database.query(tableName, new String[] {EntityMetaData.ID_FIELD, fieldName}, in.getWhere(), in.getParams(), null, null, null);
                     //build a map of child->parent ids here, to allow us to map back from child to parent
                     try {
-                        //FIXME: i think there's a bug here, that's preventing a number of the objects from being populated...see VisWeek Rooms, the Building and FloorPlan isnt being populated
-                        //FIXME: the bug is that multiple "results" map to a childId...we need a map of collections instead of just a singluar map
                         if (c != null && !c.isEmpty()) {
                             c.moveToFirst();
                             while (!c.isAfterLast()) {
@@ -1649,27 +3176,30 @@ public class ORMDataSource {
                         if (c != null) {
                             c.close();
                         }
-                        c = null;
                     }
-                    
-                    //build a bulk query of all of the referenced entities
-                    where = EntityMetaData.ID_FIELD + " in (" + flattenCollection(entityToRefMap.values()) + ")";
-                    Map<Long, ?> entityMap = getEntityMap(doGetAll(typeClass, where, entityBuilder));
-
-                    //process the child entities, looking up the parent and 
-                    Method s = this.reflector.getSetter(clazz, fieldName);
-                    for (Object o : list) {
-                        Entity entity = new Entity(reflector, o);
-                        Long refId = entityToRefMap.get(entity.getId());
-                        //only proceed if there's a referenced entity for this object
-                        if (refId != null) {
-                            Object ref = entityMap.get(refId);
-                            if (ref == null) {
-                                System.out.println("WARN: Cannot find referenced object.  This should never happen");
-                                continue;
-                            }
-                            s.invoke(o, ref);
+                }
+                if (entityToRefMap.isEmpty()) {
+                    continue;
+                }
+                
+                //bulk query all of the referenced entities
+                Map<Long, ?> entityMap = getEntityMap(doGetAllById(typeClass, new HashSet<Long>(entityToRefMap.values()), entityBuilder, plan.getChild(fieldName)));
+
+                //process the child entities, looking up the parent and 
+                PropertyAccessor s = f.getAccessor();
+                if (!s.isWritable()) {
+                    throw new NoSuchMethodException("No setter for '" + fieldName + "' in " + clazz.getCanonicalName());
+                }
+                for (Object o : list) {
+                    Long refId = entityToRefMap.get(getId(o));
+                    //only proceed if there's a referenced entity for this object
+                    if (refId != null) {
+                        Object ref = entityMap.get(refId);
+                        if (ref == null) {
+                            //the referenced row is gone (e.g. deleted out from under us)...leave the reference unset
+                            continue;
                         }
+                        s.set(o, ref);
                     }
                 }
             }
@@ -1681,8 +3211,7 @@ public class ORMDataSource {
 	private Map<Long, Object> getEntityMap(List<?> list) throws Exception {
         Map<Long, Object> entityMap = new HashMap<Long, Object>();
 	    for (Object o : list) {
-	        Entity entity = new Entity(reflector, o);
-	        entityMap.put(entity.getId(), o);
+	        entityMap.put(getId(o), o);
 	    }
         return entityMap;
     }
@@ -1693,75 +3222,62 @@ public class ORMDataSource {
 	 * 
 	 * @param clazz
 	 * @param objects
+	 * @param entityBuilder
+	 * @param plan The relationships to fetch
 	 */
-    private <T> void fillCollections(Class<T> clazz, List<T> objects, EntityBuilder entityBuilder) {
+    private <T> void fillCollections(Class<T> clazz, List<T> objects, EntityBuilder entityBuilder, FetchPlan plan) {
         try {
-            String tableName = getTableNameForClass(clazz);
-            for (Method m : clazz.getMethods()) {
-                if (isPersisted(m) && isCollection(m)) {
-                    OneToMany c = m.getAnnotation(OneToMany.class);
-                    if (c == null || c.value() == null) {
-                        throw new RuntimeException("Collections must be marked with the appropriate annotation, or @Transient");
-                    }
-    
-                    String fieldName     = getFieldNameFromMethod(m);
-                    String joinTableName = buildJoinTableName(tableName, fieldName);
-    
-                    Method a = null;
-                    Method s = null;
-                    try {
-                        a = this.reflector.getAdder(clazz, fieldName, c.value());
-                    } catch (NoSuchMethodException e) {
-                        try {
-                            s = this.reflector.getSetter(clazz, fieldName);
-                        } catch (NoSuchMethodException e2) {
-                            throw e;
+            EntityMapping mapping = getMapping(clazz);
+            for (FieldMapping f : mapping.getCollections()) {
+                String fieldName = f.getName();
+                if (!plan.includes(fieldName)) {
+                    continue;
+                }
+
+                Method a = f.getAdder();
+                PropertyAccessor s = f.getAccessor();
+                if (a == null && !s.isWritable()) {
+                    throw new NoSuchMethodException("No adder or setter for '" + fieldName + "' in " + clazz.getCanonicalName());
+                }
+
+                //lazy collections must be set with the setter, and must fit in the field
+                if (this.lazyCollections && a == null) {
+                    if (f.getType().isAssignableFrom(LazyList.class)) {
+                        LazyLoader<Object> loader = new LazyLoader<Object>(this, clazz, f, objects, entityBuilder, plan);
+                        for (T o : objects) {
+                            s.set(o, new LazyList<Object>(loader, getId(o)));
                         }
+                        continue;
+                    } else if (f.getType().isAssignableFrom(LazySet.class)) {
+                        LazyLoader<Object> loader = new LazyLoader<Object>(this, clazz, f, objects, entityBuilder, plan);
+                        for (T o : objects) {
+                            s.set(o, new LazySet<Object>(loader, getId(o)));
+                        }
+                        continue;
                     }
-    
-                    List<Long> parentIds = new ArrayList<Long>();
-                    for (T o : objects) {
-                        Entity entity = new Entity(reflector, o);
-                        parentIds.add(entity.getId());
-                    }
+                }
 
-                    //pull this collection from persistence and set it into the object
-                    Map<Long, ?> map = getFromJoinTableBulk(joinTableName, m.getReturnType(), c.value(), tableName, fieldName, parentIds, entityBuilder);
+                //pull this collection from persistence and set it into the object
+                Map<Long, Collection<Object>> map = getCollections(clazz, f, objects, entityBuilder, plan);
 
-                    for (T o : objects) {
-                        Entity entity = new Entity(reflector, o);
-                        Collection<?> collection = (Collection<?>) map.get(entity.getId());
-                        if (collection == null) {
-                            continue;
-                        }
-                        //if the object defines a customer adder, use that here to add each item individually
-                        //NOTE: this does not attempt to add the other side of the relationship...it's assumed
-                        // that if a model object has a custom adder, that adder will set the necessary reciprocal
-                        // references
-                        if (a != null) {
-                            for (Object e : collection) {
-                                a.invoke(o, e);
-                            }
-                        } else {
-                            //otherwise, use the collection setter
-                            
-                            //check if we need to add a reference to the child object back to the parent object
-                            Method rm = findReference(c.value(), o.getClass());
-                            
-                            if (rm != null) {
-                                String refFieldName = getFieldNameFromMethod(rm);
-                                //a reference exists...set that reference here
-                                Method rs = this.reflector.getSetter(c.value(), refFieldName);
-                                if (rs == null) {
-                                    throw new RuntimeException("Unable to set reference, setter for '" + refFieldName + "' does not exist in '" + c.value().getCanonicalName() + "'");
-                                }
-                                for (Object co : collection) {
-                                    rs.invoke(co, o);
-                                }
-                            }
-                            //set the collection into this class instance, using the field's setter
-                            s.invoke(o, collection);
+                for (T o : objects) {
+                    Collection<?> collection = map.get(getId(o));
+                    if (collection == null) {
+                        continue;
+                    }
+                    //if the object defines a customer adder, use that here to add each item individually
+                    //NOTE: this does not attempt to add the other side of the relationship...it's assumed
+                    // that if a model object has a custom adder, that adder will set the necessary reciprocal
+                    // references
+                    if (a != null) {
+                        for (Object e : collection) {
+                            a.invoke(o, e);
                         }
+                    } else {
+                        //otherwise, use the collection setter
+                        setReciprocalReferences(f, o, collection);
+                        //set the collection into this class instance, using the field's setter
+                        s.set(o, collection);
                     }
                 }
             }
@@ -1770,6 +3286,87 @@ public class ORMDataSource {
         }
     }
 
+    /**
+     * Load a collection field for a batch of objects, for a lazy collection.  This returns
+     * a collection for every object in the batch (empty if the object has no entries), with
+     * the reciprocal references to the parent objects set.
+     * 
+     * @param clazz
+     * @param f
+     * @param objects
+     * @param entityBuilder
+     * @param plan The plan for the objects in the batch
+     * @return A map of parent id to collection
+     */
+    @SuppressWarnings("unchecked")
+    <T> Map<Long, Collection<T>> loadCollections(Class<?> clazz, FieldMapping f, List<?> objects, EntityBuilder entityBuilder, FetchPlan plan) {
+        try {
+            Map<Long, Collection<T>> map = getCollections(clazz, f, objects, entityBuilder, plan);
+            for (Object o : objects) {
+                long id = getId(o);
+                Collection<T> collection = map.get(id);
+                if (collection == null) {
+                    collection = (Collection<T>) newCollection(f.getType(), f.getValueClass());
+                    map.put(id, collection);
+                } else {
+                    setReciprocalReferences(f, o, collection);
+                }
+                updateSnapshot(o, f, collection);
+            }
+            return map;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Fetch a collection field for a batch of objects.
+     * 
+     * @param clazz
+     * @param f
+     * @param objects
+     * @param entityBuilder
+     * @param plan The plan for the objects in the batch
+     * @return A map of parent id to collection, for the objects that have entries in the collection
+     * @throws SQLException
+     */
+    @SuppressWarnings("unchecked")
+    private <T> Map<Long, Collection<T>> getCollections(Class<?> clazz, FieldMapping f, List<?> objects, EntityBuilder entityBuilder, FetchPlan plan) throws SQLException {
+        String tableName     = getMapping(clazz).getTableName();
+        String fieldName     = f.getName();
+        String joinTableName = buildJoinTableName(tableName, fieldName);
+
+        List<Long> parentIds = new ArrayList<Long>();
+        for (Object o : objects) {
+            parentIds.add(getId(o));
+        }
+        return getFromJoinTableBulk(joinTableName, f.getType(), (Class<T>) f.getValueClass(), tableName, fieldName, parentIds, entityBuilder, plan.getChild(fieldName));
+    }
+
+    /**
+     * Set the references from the children in a collection back to the parent object, if the
+     * child class has a reference to the parent class.
+     * 
+     * @param f
+     * @param o
+     * @param collection
+     * @throws Exception
+     */
+    private void setReciprocalReferences(FieldMapping f, Object o, Collection<?> collection) throws Exception {
+        //check if we need to add a reference to the child object back to the parent object
+        FieldMapping rf = f.isEntityCollection() ? findReference(f.getValueClass(), o.getClass()) : null;
+        
+        if (rf != null) {
+            //a reference exists...set that reference here
+            PropertyAccessor rs = rf.getAccessor();
+            if (!rs.isWritable()) {
+                throw new RuntimeException("Unable to set reference, setter for '" + rf.getName() + "' does not exist in '" + f.getValueClass().getCanonicalName() + "'");
+            }
+            for (Object co : collection) {
+                rs.set(co, o);
+            }
+        }
+    }
 
     /**
      * Fetch items referenced from a join table, to be placed in an entity's collection.  This will fetch
@@ -1782,81 +3379,60 @@ public class ORMDataSource {
      * @param fieldName
      * @param parentIds
      * @param entityBuilder
+     * @param plan The plan for the children
      * @return A map of parent id to collection of fetched children.
      * @throws SQLException
      */
     private <T> Map<Long, Collection<T>> getFromJoinTableBulk(String joinTable, Class<?> collectionClass, Class<T> valueClass,
-            String tableName, String fieldName, List<Long> parentIds, EntityBuilder entityBuilder) throws SQLException {
-        String idName = getJoinTableIDName(tableName);
-        String joinTableWhereClause = idName + " in (" + flattenCollection(parentIds) + ")";
-        QueryCursor c = database.query(joinTable, new String[] {idName, getJoinTableValueName(fieldName)}, joinTableWhereClause, null, null, null, null);
-
-        try {
-            Map<Long, Collection<T>> objectMap = new HashMap<Long, Collection<T>>();
-            Set<T> existing = new HashSet<T>();
-            //only do this if there are dependent objects
-            if (c != null && !c.isEmpty()) {
-        
-                //build a comma separated list of ids from the cursor results
-                c.moveToFirst();
-                StringBuilder ids = new StringBuilder();
-                Map<Long, Long> parentIdMap = new HashMap<Long, Long>();
-                while(!c.isAfterLast()) {
-                    if (ids.length() > 0) {
-                        ids.append(",");
-                    }
-                    Long id = c.getLong(0);
-                    Long fk = c.getLong(1);
-                    //if this entity already exists in the cache, just use that object
-                    // rather than fetch it again
-                    if (entityBuilder.contains(valueClass, fk)) {
-                        existing.add(entityBuilder.get(valueClass, fk));
-                    } else {
-                        parentIdMap.put(fk, id);
-                        ids.append(fk);
+            String tableName, String fieldName, List<Long> parentIds, EntityBuilder entityBuilder, FetchPlan plan) throws SQLException {
+        String idName    = getJoinTableIDName(tableName);
+        String valueName = getJoinTableValueName(fieldName);
+
+        //read the (parent, child) rows from the join table, and collect the children we need to fetch
+        List<long[]> rows    = new ArrayList<long[]>();
+        Set<Long>    toFetch = new HashSet<Long>();
+        for (InClause in : InClause.split(idName, parentIds)) {
+            QueryCursor c = database.query(joinTable, new String[] {idName, valueName}, in.getWhere(), in.getParams(), null, null, null);
+            try {
+                if (c != null && !c.isEmpty()) {
+                    c.moveToFirst();
+                    while (!c.isAfterLast()) {
+                        long fk = c.getLong(1);
+                        rows.add(new long[] {c.getLong(0), fk});
+                        //if this entity already exists in the cache, just use that object
+                        // rather than fetch it again
+                        if (!entityBuilder.contains(valueClass, fk)) {
+                            toFetch.add(fk);
+                        }
+                        c.moveToNext();
                     }
-                    c.moveToNext();
                 }
-
-                //clean up
-                c.close();
-                c = null;
-
-                //build the in clause, and get all objects for those ids
-                StringBuilder builder = new StringBuilder("id in (").append(ids).append(")");
-                Collection<T> coll = doGetAll(valueClass, builder.toString(), entityBuilder);
-                //join with the existing object set, assembled above
-                coll.addAll(existing);
-                for (T o : coll) {
-                    Entity entity = new Entity(reflector, o);
-                    Long parentId = parentIdMap.get(entity.getId());
-                    
-                    if (!objectMap.containsKey(parentId)) {
-                        objectMap.put(parentId, newCollection(collectionClass, valueClass));
-                    }
-                    objectMap.get(parentId).add(o);
-                }                
-            }
-            return objectMap;
-        } catch (Exception e) {
-            throw new RuntimeException(e);
-        } finally {
-            //just in case, we still need to clean up
-            if (c != null) {
-                c.close();
+            } finally {
+                if (c != null) {
+                    c.close();
+                }
             }
         }
-    }
 
-    private String flattenCollection(Collection<?> collection) {
-        StringBuilder ids = new StringBuilder();
-        for (Object o : collection) {
-            if (ids.length() > 0) {
-                ids.append(",");
+        Map<Long, Collection<T>> objectMap = new HashMap<Long, Collection<T>>();
+        //fetch the children, which puts them in the entity builder's cache
+        if (!toFetch.isEmpty()) {
+            doGetAllById(valueClass, toFetch, entityBuilder, plan);
+        }
+        for (long[] row : rows) {
+            T o = entityBuilder.get(valueClass, row[1]);
+            if (o == null) {
+                //a dangling join row (e.g. left behind by deleteAll)...skip it
+                continue;
+            }
+            Collection<T> coll = objectMap.get(row[0]);
+            if (coll == null) {
+                coll = newCollection(collectionClass, valueClass);
+                objectMap.put(row[0], coll);
             }
-            ids.append(o.toString());
+            coll.add(o);
         }
-        return ids.toString();
+        return objectMap;
     }
 
     private void checkIsOpened() {
@@ -1872,10 +3448,130 @@ public class ORMDataSource {
     public void setUseORMeta(boolean useORMeta) {
         this.useORMeta = useORMeta;
     }
+
+    public boolean isEagerJoins() {
+        return this.eagerJoins;
+    }
+
+    /**
+     * Turn on or off eager joins.  When on, an entity's singular references are fetched along
+     * with the entity, with a left join in the same query, instead of with separate queries
+     * after the entities are read.
+     * 
+     * @param eagerJoins
+     */
+    public void setEagerJoins(boolean eagerJoins) {
+        this.eagerJoins = eagerJoins;
+    }
+
+    public boolean isLazyCollections() {
+        return this.lazyCollections;
+    }
+
+    /**
+     * Turn on or off lazy collections.  When on, collection fields declared as a List, Set
+     * or Collection are set to a LazyList or LazySet, which fetches its contents the first
+     * time it is used.  The collections of objects fetched together are loaded together.
+     * 
+     * Fields with a custom adder are always fetched eagerly.
+     * 
+     * @param lazyCollections
+     */
+    public void setLazyCollections(boolean lazyCollections) {
+        this.lazyCollections = lazyCollections;
+    }
+
+    public SecondLevelCache getSecondLevelCache() {
+        return this.secondLevelCache;
+    }
+
+    /**
+     * Set the second level cache, which holds the rows read for entities across fetches.  When
+     * set, entities fetched by id (with get, or as references or members of collections) are
+     * built from the cache when they can be, and every row read by get and getAll is added to
+     * the cache.  Saves and deletes made through this data source drop the affected rows.
+     * 
+     * NOTE: changes made to the database some other way (e.g. by another data source that does
+     * not share the cache) are not seen until the rows are evicted or expire.
+     * 
+     * @param secondLevelCache The cache, or null to turn off second level caching
+     */
+    public void setSecondLevelCache(SecondLevelCache secondLevelCache) {
+        this.secondLevelCache = secondLevelCache;
+    }
+
+    public boolean isDirtyTracking() {
+        return this.snapshots != null;
+    }
+
+    /**
+     * Turn on or off dirty tracking.  When on, the state of each entity is recorded when it is
+     * fetched or saved, and saving the entity again only writes the columns and collections that
+     * have changed since then.  Entities that have not changed at all are not written (although
+     * their owned entities are still checked).
+     * 
+     * Snapshots are held weakly, so they do not keep entities from being collected.  Entities that
+     * were not fetched or saved while dirty tracking was on are written in full.
+     * 
+     * @param dirtyTracking
+     */
+    public void setDirtyTracking(boolean dirtyTracking) {
+        if (!dirtyTracking) {
+            this.snapshots = null;
+        } else if (this.snapshots == null) {
+            this.snapshots = new WeakIdentityMap<Object, Snapshot>();
+        }
+    }
+
+    public QueryCache getQueryCache() {
+        return this.queryCache;
+    }
+
+    /**
+     * Set the query cache, which holds the results of getAll (as lists of ids) and count.  When
+     * set, a getAll that is cached fetches its objects by id, which can be served by the second
+     * level cache.  Saves and deletes made through this data source invalidate the results for
+     * the affected classes.
+     * 
+     * @param queryCache The cache, or null to turn off query caching
+     */
+    public void setQueryCache(QueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    public Executor getHydrationExecutor() {
+        return this.hydrationExecutor;
+    }
+
+    public int getHydrationChunkSize() {
+        return this.hydrationChunkSize;
+    }
+
+    /**
+     * Build the objects for large results in parallel.  When set, the rows of a fetch are read
+     * off the cursor on the calling thread, and the objects (including their enum, date and
+     * serialized values) are built chunkSize rows at a time on the executor.  The results are
+     * in the same order either way.  Fetches with no more than chunkSize new rows are built on
+     * the calling thread.
+     * 
+     * NOTE: references and collections are still filled in on the calling thread, since they
+     * are queried on its connection (and in its transaction, if there is one).
+     * 
+     * @param executor The executor (e.g. one with a thread per core), or null to build every object
+     * on the calling thread
+     * @param chunkSize The number of rows to build in each task
+     */
+    public void setParallelHydration(Executor executor, int chunkSize) {
+        if (executor != null && chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be at least 1");
+        }
+        this.hydrationChunkSize = chunkSize;
+        this.hydrationExecutor  = executor;
+    }
     
     public ORMeta getMetaData() {
         try {
-            return doGetAll(ORMeta.class, null, newEntityBuilder()).iterator().next();
+            return doGetAll(ORMeta.class, null, newEntityBuilder(), FetchPlan.ALL).iterator().next();
         } catch (Exception e) {
             return null;
         }
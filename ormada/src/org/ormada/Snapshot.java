@@ -0,0 +1,51 @@
+package org.ormada;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ormada.dialect.DefaultValueSet;
+
+/**
+ * The persisted state of an entity, as of when it was last fetched or saved.  This is compared
+ * against the entity's current state when it is saved, to find out what needs to be written.
+ *
+ * NOTE: this must never hold a reference to an entity (references and collection members are
+ * held by id), since snapshots are kept in a weak map keyed by the entity.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+class Snapshot {
+
+    private DefaultValueSet columns;
+
+    private Map<String, List<Object>> collections = new HashMap<String, List<Object>>();
+
+    Snapshot(DefaultValueSet columns) {
+        this.columns = columns;
+    }
+
+    DefaultValueSet getColumns() {
+        return columns;
+    }
+
+    void setColumns(DefaultValueSet columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * Get the contents of a collection field.
+     * 
+     * @param fieldName
+     * @return The contents (entity ids for entity collections), or null if the collection was
+     * not fetched or saved
+     */
+    List<Object> getCollection(String fieldName) {
+        return collections.get(fieldName);
+    }
+
+    void setCollection(String fieldName, List<Object> contents) {
+        collections.put(fieldName, contents);
+    }
+}
@@ -0,0 +1,20 @@
+package org.ormada;
+
+/**
+ * Work to run in one transaction, with ORMDataSource.inTransaction.
+ *
+ * @author Jesse Rosalia
+ *
+ * @param <T> The type of the result
+ */
+public interface Transaction<T> {
+
+    /**
+     * Run the work.  If this throws, the transaction is rolled back.
+     *
+     * @param orm The data source the transaction is running on
+     * @return The result, which is returned from inTransaction
+     * @throws Exception
+     */
+    T run(ORMDataSource orm) throws Exception;
+}
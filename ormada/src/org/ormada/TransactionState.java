@@ -0,0 +1,93 @@
+package org.ormada;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What the transaction in progress on a thread has written.  When the outermost transaction is
+ * committed, the written rows are invalidated again, in case another thread cached the old rows
+ * before the commit.  When it is rolled back, the objects that were given ids in the transaction
+ * are marked unsaved again.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+class TransactionState {
+
+    private int     depth;
+    private boolean failed;
+
+    //the objects that were given ids in the transaction
+    private final Map<Object, Boolean> inserted = new IdentityHashMap<Object, Boolean>();
+
+    //the rows written, the classes whose rows were all invalidated, and the classes whose queries were invalidated
+    private final Map<Class<?>, Set<Long>> rows    = new HashMap<Class<?>, Set<Long>>();
+    private final Set<Class<?>>            classes = new HashSet<Class<?>>();
+    private final Set<Class<?>>            queries = new HashSet<Class<?>>();
+
+    void begin() {
+        this.depth++;
+    }
+
+    /**
+     * End one level of the transaction.
+     *
+     * @param success
+     * @return True if this ended the outermost transaction
+     */
+    boolean end(boolean success) {
+        if (!success) {
+            this.failed = true;
+        }
+        return --this.depth == 0;
+    }
+
+    /**
+     * Test if any level of the transaction failed, in which case the whole transaction is rolled back.
+     *
+     * @return
+     */
+    boolean isFailed() {
+        return failed;
+    }
+
+    void inserted(Object o) {
+        this.inserted.put(o, Boolean.TRUE);
+    }
+
+    Set<Object> getInserted() {
+        return this.inserted.keySet();
+    }
+
+    void invalidated(Class<?> clazz, long id) {
+        Set<Long> ids = this.rows.get(clazz);
+        if (ids == null) {
+            ids = new HashSet<Long>();
+            this.rows.put(clazz, ids);
+        }
+        ids.add(id);
+    }
+
+    void invalidated(Class<?> clazz) {
+        this.classes.add(clazz);
+    }
+
+    void invalidatedQueries(Class<?> clazz) {
+        this.queries.add(clazz);
+    }
+
+    Map<Class<?>, Set<Long>> getRows() {
+        return rows;
+    }
+
+    Set<Class<?>> getClasses() {
+        return classes;
+    }
+
+    Set<Class<?>> getQueries() {
+        return queries;
+    }
+}
@@ -0,0 +1,59 @@
+package org.ormada;
+
+import java.lang.ref.Reference;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The relationships of an entity that were left out of the fetch plan it was fetched with, and
+ * the values the fetch left in them.  While a relationship still holds that value, it does not
+ * hold the persisted state, so it is not written when the entity is saved.
+ *
+ * NOTE: the values are held weakly, since these are kept in a weak map keyed by the entity.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+class Unfetched {
+
+    //null values are stored as null, so they can be told apart from values that were collected
+    private final Map<String, Reference<Object>> values = new HashMap<String, Reference<Object>>();
+    //the sizes of the collections left by the fetch
+    private final Map<String, Integer>           sizes  = new HashMap<String, Integer>();
+
+    void add(String fieldName, Object value) {
+        this.values.put(fieldName, value != null ? new WeakReference<Object>(value) : null);
+        if (value instanceof Collection) {
+            this.sizes.put(fieldName, ((Collection<?>) value).size());
+        }
+    }
+
+    /**
+     * Test if a relationship field still holds the value the fetch left in it.
+     *
+     * @param fieldName
+     * @param value The field's current value
+     * @return
+     */
+    boolean isUnfetched(String fieldName, Object value) {
+        if (!this.values.containsKey(fieldName)) {
+            return false;
+        }
+        Reference<Object> ref = this.values.get(fieldName);
+        return ref == null ? value == null : value != null && ref.get() == value;
+    }
+
+    /**
+     * Test if a collection left by the fetch has been added to or removed from.
+     *
+     * @param fieldName
+     * @param collection
+     * @return
+     */
+    boolean isChanged(String fieldName, Collection<?> collection) {
+        Integer size = this.sizes.get(fieldName);
+        return size != null && size != collection.size();
+    }
+}
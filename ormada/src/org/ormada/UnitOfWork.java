@@ -0,0 +1,189 @@
+package org.ormada;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ormada.entity.EntityMapping;
+import org.ormada.entity.FieldMapping;
+
+/**
+ * Collects objects to save, and saves them all at once when flushed.
+ *
+ * Objects registered more than once are saved once.  On flush, the objects are grouped by class,
+ * and each class is saved with one saveAll, in an order that saves referenced classes before the
+ * classes that reference them.  While flushing, each object is written at most once, even if it
+ * is reached again through another object's owned references or collections, so overlapping
+ * graphs do not repeat the same cascades.  The whole flush is one transaction.
+ *
+ * A unit of work is not thread safe, and is meant to be used by one thread (e.g. for one request).
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class UnitOfWork {
+
+    private final ORMDataSource orm;
+
+    //the registered objects, in the order they were registered
+    private final List<Object>         objects    = new ArrayList<Object>();
+    private final Map<Object, Boolean> registered = new IdentityHashMap<Object, Boolean>();
+
+    public UnitOfWork(ORMDataSource orm) {
+        this.orm = orm;
+    }
+
+    /**
+     * Register an object (new or modified) to be saved on the next flush.
+     *
+     * @param o
+     */
+    public void register(Object o) {
+        if (this.registered.put(o, Boolean.TRUE) == null) {
+            this.objects.add(o);
+        }
+    }
+
+    public void registerAll(Collection<?> os) {
+        for (Object o : os) {
+            register(o);
+        }
+    }
+
+    /**
+     * Get the number of objects waiting to be saved.
+     *
+     * @return
+     */
+    public int size() {
+        return this.objects.size();
+    }
+
+    /**
+     * Forget the registered objects, without saving them.
+     *
+     */
+    public void clear() {
+        this.objects.clear();
+        this.registered.clear();
+    }
+
+    /**
+     * Save all of the registered objects, in one transaction.  If the flush fails, the objects
+     * stay registered.
+     *
+     */
+    public void flush() {
+        if (this.objects.isEmpty()) {
+            return;
+        }
+        final Map<Class<?>, List<Object>> byClass = new LinkedHashMap<Class<?>, List<Object>>();
+        for (Object o : this.objects) {
+            List<Object> list = byClass.get(o.getClass());
+            if (list == null) {
+                list = new ArrayList<Object>();
+                byClass.put(o.getClass(), list);
+            }
+            list.add(o);
+        }
+        final List<Class<?>> order = getSaveOrder(byClass.keySet());
+        this.orm.inTransaction(new Transaction<Void>() {
+            @Override
+            public Void run(ORMDataSource orm) {
+                orm.beginFlush();
+                try {
+                    for (Class<?> clazz : order) {
+                        orm.saveAll(byClass.get(clazz));
+                    }
+                } finally {
+                    orm.endFlush();
+                }
+                return null;
+            }
+        });
+        clear();
+    }
+
+    /**
+     * Sort the classes so that each class comes after the classes it must be saved after:
+     * entities referenced from a column or a reference collection must already be saved, and
+     * the entities in an owned collection may refer back to their owner.  Classes in a cycle
+     * are left in the order they were registered.
+     *
+     * @param classes
+     * @return
+     */
+    private List<Class<?>> getSaveOrder(Collection<Class<?>> classes) {
+        //the classes that must be saved before each class
+        Map<Class<?>, Set<Class<?>>> before = new LinkedHashMap<Class<?>, Set<Class<?>>>();
+        for (Class<?> clazz : classes) {
+            before.put(clazz, new HashSet<Class<?>>());
+        }
+        for (Class<?> clazz : classes) {
+            EntityMapping mapping = this.orm.getMapping(clazz);
+            for (FieldMapping f : mapping.getEntityFields()) {
+                addOrder(before, f.getType(), clazz);
+            }
+            for (FieldMapping f : mapping.getCollections()) {
+                if (!f.isEntityCollection()) {
+                    continue;
+                }
+                if (f.isReference()) {
+                    addOrder(before, f.getValueClass(), clazz);
+                } else {
+                    addOrder(before, clazz, f.getValueClass());
+                }
+            }
+        }
+
+        List<Class<?>> order = new ArrayList<Class<?>>(classes.size());
+        Set<Class<?>>  saved = new HashSet<Class<?>>();
+        while (order.size() < classes.size()) {
+            Class<?> next = null;
+            for (Map.Entry<Class<?>, Set<Class<?>>> e : before.entrySet()) {
+                if (!saved.contains(e.getKey()) && saved.containsAll(e.getValue())) {
+                    next = e.getKey();
+                    break;
+                }
+            }
+            if (next == null) {
+                //a cycle...break it with the first class registered
+                for (Class<?> clazz : before.keySet()) {
+                    if (!saved.contains(clazz)) {
+                        next = clazz;
+                        break;
+                    }
+                }
+            }
+            order.add(next);
+            saved.add(next);
+        }
+        return order;
+    }
+
+    /**
+     * Record that the registered classes that are (or extend) first must be saved before the
+     * registered classes that are (or extend) then.
+     *
+     * @param before
+     * @param first
+     * @param then
+     */
+    private void addOrder(Map<Class<?>, Set<Class<?>>> before, Class<?> first, Class<?> then) {
+        for (Class<?> t : before.keySet()) {
+            if (!then.isAssignableFrom(t)) {
+                continue;
+            }
+            for (Class<?> f : before.keySet()) {
+                if (f != t && first.isAssignableFrom(f)) {
+                    before.get(t).add(f);
+                }
+            }
+        }
+    }
+}
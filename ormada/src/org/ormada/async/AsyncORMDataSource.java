@@ -0,0 +1,206 @@
+package org.ormada.async;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ormada.FetchPlan;
+import org.ormada.ORMDataSource;
+import org.ormada.Transaction;
+
+/**
+ * Runs ORMDataSource operations on an executor, and returns their results as AsyncResults.
+ *
+ * The number of operations that run at once is bounded, and should match the number of connections
+ * the dialect can use (e.g. the size of its ConnectionPool), since more would only wait for a
+ * connection.  When the data source owns its executor, the number of operations waiting to run
+ * is bounded too: once that many are waiting, the async methods throw RejectedExecutionException
+ * instead of queuing more work, so callers can push back on their own callers.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class AsyncORMDataSource {
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final ORMDataSource   orm;
+    private final ExecutorService executor;
+    private final boolean         ownsExecutor;
+    private final Semaphore       running;
+
+    /**
+     * Construct an async data source with its own threads.
+     *
+     * @param orm
+     * @param maxRunning The maximum number of operations to run at once
+     * @param maxWaiting The maximum number of operations to queue up before rejecting new ones
+     */
+    public AsyncORMDataSource(ORMDataSource orm, int maxRunning, int maxWaiting) {
+        this.orm = orm;
+        this.executor = new ThreadPoolExecutor(maxRunning, maxRunning, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(maxWaiting), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "ormada-async-" + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        this.ownsExecutor = true;
+        this.running      = new Semaphore(maxRunning);
+    }
+
+    /**
+     * Construct an async data source that runs operations on an existing executor (e.g. one that
+     * starts a virtual thread per task, on platforms that support them).  At most maxRunning
+     * operations run at once; the rest wait in their tasks for a turn.
+     *
+     * @param orm
+     * @param executor
+     * @param maxRunning
+     */
+    public AsyncORMDataSource(ORMDataSource orm, ExecutorService executor, int maxRunning) {
+        this.orm          = orm;
+        this.executor     = executor;
+        this.ownsExecutor = false;
+        this.running      = new Semaphore(maxRunning);
+    }
+
+    public ORMDataSource getDataSource() {
+        return orm;
+    }
+
+    public <T> AsyncResult<T> getAsync(Class<T> clazz, long id) {
+        return getAsync(clazz, id, FetchPlan.ALL);
+    }
+
+    public <T> AsyncResult<T> getAsync(final Class<T> clazz, final long id, final FetchPlan plan) {
+        return submit(new Callable<T>() {
+            @Override
+            public T call() {
+                return orm.get(clazz, id, plan);
+            }
+        });
+    }
+
+    public <T> AsyncResult<List<T>> getAllAsync(Class<T> clazz, String whereClause) {
+        return getAllAsync(clazz, whereClause, FetchPlan.ALL);
+    }
+
+    public <T> AsyncResult<List<T>> getAllAsync(final Class<T> clazz, final String whereClause, final FetchPlan plan) {
+        return submit(new Callable<List<T>>() {
+            @Override
+            public List<T> call() {
+                return orm.getAll(clazz, whereClause, plan);
+            }
+        });
+    }
+
+    public AsyncResult<Long> countAsync(final Class<?> clazz, final String whereClause, final String[] whereParams) {
+        return submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return orm.count(clazz, whereClause, whereParams);
+            }
+        });
+    }
+
+    /**
+     * Save an object.  The object must not be modified until the save is done.
+     *
+     * @param o
+     * @return The object's id
+     */
+    public AsyncResult<Long> saveAsync(final Object o) {
+        return submit(new Callable<Long>() {
+            @Override
+            public Long call() {
+                return orm.save(o);
+            }
+        });
+    }
+
+    /**
+     * Save a collection of objects.  The objects must not be modified until the save is done.
+     *
+     * @param os
+     * @return
+     */
+    public AsyncResult<Void> saveAllAsync(final Collection<? extends Object> os) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                orm.saveAll(os);
+                return null;
+            }
+        });
+    }
+
+    public AsyncResult<Void> deleteAsync(final Object o) {
+        return submit(new Callable<Void>() {
+            @Override
+            public Void call() {
+                orm.delete(o);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Run work in one transaction, on one of the executor's threads.
+     *
+     * @param work
+     * @return
+     */
+    public <T> AsyncResult<T> inTransactionAsync(final Transaction<T> work) {
+        return submit(new Callable<T>() {
+            @Override
+            public T call() {
+                return orm.inTransaction(work);
+            }
+        });
+    }
+
+    /**
+     * Submit an operation, to run when one of the running slots is free.
+     *
+     * @param operation
+     * @return
+     * @throws RejectedExecutionException If the executor cannot accept any more work
+     */
+    private <T> AsyncResult<T> submit(final Callable<T> operation) {
+        AsyncResult<T> result = new AsyncResult<T>(new Callable<T>() {
+            @Override
+            public T call() throws Exception {
+                running.acquire();
+                try {
+                    return operation.call();
+                } finally {
+                    running.release();
+                }
+            }
+        });
+        this.executor.execute(result);
+        return result;
+    }
+
+    /**
+     * Stop accepting new operations.  Operations already submitted still run.  An executor passed
+     * in to the constructor is left for its owner to shut down.
+     *
+     */
+    public void shutdown() {
+        if (this.ownsExecutor) {
+            this.executor.shutdown();
+        }
+    }
+}
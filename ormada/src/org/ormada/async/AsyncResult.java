@@ -0,0 +1,94 @@
+package org.ormada.async;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * The pending result of an asynchronous operation.  This is a Future, so callers may block on
+ * get, but callers that must not block (e.g. on an event loop) can add a callback instead.
+ *
+ * @author Jesse Rosalia
+ *
+ * @param <T> The type of the result
+ */
+public class AsyncResult<T> extends FutureTask<T> {
+
+    //callbacks waiting for the result, or null once the result is known
+    private List<Callback<? super T>> callbacks = new ArrayList<Callback<? super T>>();
+
+    public AsyncResult(Callable<T> callable) {
+        super(callable);
+    }
+
+    /**
+     * Add a callback to call with the result.  If the operation has already finished, the callback
+     * is called right away, on the calling thread; otherwise it is called on the thread that
+     * finishes the operation.
+     * 
+     * An exception thrown by a callback does not stop the other callbacks from being called, and
+     * is not thrown from addCallback; it is passed to the calling thread's uncaught exception handler.
+     *
+     * @param callback
+     * @return This result, so calls can be chained
+     */
+    public AsyncResult<T> addCallback(Callback<? super T> callback) {
+        synchronized (this) {
+            //NOTE: get can return before done is called, so check isDone too
+            if (this.callbacks != null && !isDone()) {
+                this.callbacks.add(callback);
+                return this;
+            }
+        }
+        callBack(callback);
+        return this;
+    }
+
+    @Override
+    protected void done() {
+        List<Callback<? super T>> waiting;
+        synchronized (this) {
+            waiting = this.callbacks;
+            this.callbacks = null;
+        }
+        for (Callback<? super T> callback : waiting) {
+            callBack(callback);
+        }
+    }
+
+    /**
+     * Call a callback with the result, reporting (and not throwing) any exception it throws.
+     *
+     * @param callback
+     */
+    private void callBack(Callback<? super T> callback) {
+        try {
+            deliver(callback);
+        } catch (RuntimeException e) {
+            Thread thread = Thread.currentThread();
+            thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+        }
+    }
+
+    private void deliver(Callback<? super T> callback) {
+        T result;
+        try {
+            result = get();
+        } catch (ExecutionException e) {
+            callback.onFailure(e.getCause());
+            return;
+        } catch (CancellationException e) {
+            callback.onFailure(e);
+            return;
+        } catch (InterruptedException e) {
+            //the result is known, so get does not wait
+            Thread.currentThread().interrupt();
+            callback.onFailure(e);
+            return;
+        }
+        callback.onSuccess(result);
+    }
+}
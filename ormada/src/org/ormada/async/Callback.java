@@ -0,0 +1,15 @@
+package org.ormada.async;
+
+/**
+ * Receives the result of an asynchronous operation.
+ *
+ * @author Jesse Rosalia
+ *
+ * @param <T> The type of the result
+ */
+public interface Callback<T> {
+
+    void onSuccess(T result);
+
+    void onFailure(Throwable cause);
+}
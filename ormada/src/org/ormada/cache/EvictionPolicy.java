@@ -0,0 +1,42 @@
+package org.ormada.cache;
+
+/**
+ * Decides which entry to evict when a bounded cache is full.  The cache tells the policy about
+ * every key it adds, uses and removes, and asks it for a key to evict when it needs room.
+ *
+ * Policies are only called by the cache that owns them, while it holds its lock, so they do not
+ * need to be thread safe.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public interface EvictionPolicy {
+
+    /**
+     * Called when a key is added to the cache.
+     * 
+     * @param key
+     */
+    public void added(Object key);
+
+    /**
+     * Called when a key in the cache is read or replaced.
+     * 
+     * @param key
+     */
+    public void accessed(Object key);
+
+    /**
+     * Called when a key is removed from the cache, other than by evict.
+     * 
+     * @param key
+     */
+    public void removed(Object key);
+
+    /**
+     * Choose a key to evict, and stop tracking it.
+     * 
+     * @return The key, or null if no keys are tracked
+     */
+    public Object evict();
+}
@@ -0,0 +1,70 @@
+package org.ormada.cache;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Evicts the least frequently used key.  Ties go to the key that reached that count first.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class LfuEvictionPolicy implements EvictionPolicy {
+
+    private Map<Object, Long> counts = new HashMap<Object, Long>();
+    //keys, by use count
+    private TreeMap<Long, LinkedHashSet<Object>> buckets = new TreeMap<Long, LinkedHashSet<Object>>();
+
+    @Override
+    public void added(Object key) {
+        this.counts.put(key, 1L);
+        addToBucket(1L, key);
+    }
+
+    @Override
+    public void accessed(Object key) {
+        Long count = this.counts.get(key);
+        if (count != null) {
+            removeFromBucket(count, key);
+            this.counts.put(key, count + 1);
+            addToBucket(count + 1, key);
+        }
+    }
+
+    @Override
+    public void removed(Object key) {
+        Long count = this.counts.remove(key);
+        if (count != null) {
+            removeFromBucket(count, key);
+        }
+    }
+
+    @Override
+    public Object evict() {
+        if (this.buckets.isEmpty()) {
+            return null;
+        }
+        Object key = this.buckets.firstEntry().getValue().iterator().next();
+        removed(key);
+        return key;
+    }
+
+    private void addToBucket(long count, Object key) {
+        LinkedHashSet<Object> bucket = this.buckets.get(count);
+        if (bucket == null) {
+            bucket = new LinkedHashSet<Object>();
+            this.buckets.put(count, bucket);
+        }
+        bucket.add(key);
+    }
+
+    private void removeFromBucket(long count, Object key) {
+        LinkedHashSet<Object> bucket = this.buckets.get(count);
+        bucket.remove(key);
+        if (bucket.isEmpty()) {
+            this.buckets.remove(count);
+        }
+    }
+}
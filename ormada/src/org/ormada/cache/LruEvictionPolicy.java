@@ -0,0 +1,45 @@
+package org.ormada.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+/**
+ * Evicts the least recently used key.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class LruEvictionPolicy implements EvictionPolicy {
+
+    //in order of use, least recent first
+    private LinkedHashSet<Object> keys = new LinkedHashSet<Object>();
+
+    @Override
+    public void added(Object key) {
+        this.keys.add(key);
+    }
+
+    @Override
+    public void accessed(Object key) {
+        //move the key to the end
+        if (this.keys.remove(key)) {
+            this.keys.add(key);
+        }
+    }
+
+    @Override
+    public void removed(Object key) {
+        this.keys.remove(key);
+    }
+
+    @Override
+    public Object evict() {
+        Iterator<Object> it = this.keys.iterator();
+        if (!it.hasNext()) {
+            return null;
+        }
+        Object key = it.next();
+        it.remove();
+        return key;
+    }
+}
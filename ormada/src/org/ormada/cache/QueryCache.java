@@ -0,0 +1,198 @@
+package org.ormada.cache;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A cache of query results (the ids returned by getAll, and the results of count), keyed by
+ * class, where clause and parameters.
+ *
+ * Each class has a generation, which is bumped whenever a table for that class is written to.
+ * Entries remember the generation they were read in, and are dropped if it has moved on, so
+ * invalidating a class is cheap no matter how many queries are cached for it.  The least
+ * recently used entries are evicted when the cache is full.
+ *
+ * NOTE: results are only invalidated by writes to the queried class's own tables, so where clauses
+ * that look at other tables (e.g. in a subquery) may see stale results.
+ *
+ * This class is thread safe.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class QueryCache {
+
+    /**
+     * A cache key.
+     *
+     */
+    private static class Key {
+        final Class<?> clazz;
+        final boolean  count;
+        final String   where;
+        final String[] params;
+
+        Key(Class<?> clazz, boolean count, String where, String[] params) {
+            this.clazz  = clazz;
+            this.count  = count;
+            this.where  = where;
+            this.params = params != null ? params.clone() : null;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return k.clazz == this.clazz && k.count == this.count
+                && (k.where == null ? this.where == null : k.where.equals(this.where))
+                && Arrays.equals(k.params, this.params);
+        }
+
+        @Override
+        public int hashCode() {
+            int h = this.clazz.hashCode();
+            h = h * 31 + (this.count ? 1 : 0);
+            h = h * 31 + (this.where != null ? this.where.hashCode() : 0);
+            return h * 31 + Arrays.hashCode(this.params);
+        }
+    }
+
+    /**
+     * A cached result.
+     *
+     */
+    private static class CachedResult {
+        final Object result;
+        final long   generation;
+
+        CachedResult(Object result, long generation) {
+            this.result     = result;
+            this.generation = generation;
+        }
+    }
+
+    private final int maxSize;
+
+    private final Map<Key, CachedResult> entries;
+    private final Map<Class<?>, Long>    generations = new HashMap<Class<?>, Long>();
+
+    private long hits;
+    private long misses;
+
+    public QueryCache(int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1");
+        }
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedResult> eldest) {
+                return size() > QueryCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the current generation for a class.  This must be read before running a query, and
+     * passed in when the result is cached, so a write that happens while the query is running
+     * is not missed.
+     * 
+     * @param clazz
+     * @return
+     */
+    public synchronized long getGeneration(Class<?> clazz) {
+        Long generation = this.generations.get(clazz);
+        return generation != null ? generation : 0;
+    }
+
+    /**
+     * Get the cached ids for a getAll.
+     * 
+     * NOTE: the array is shared, and must not be modified.
+     * 
+     * @param clazz
+     * @param where
+     * @param params
+     * @return The ids, or null if the result is not cached
+     */
+    public synchronized long[] getIds(Class<?> clazz, String where, String[] params) {
+        return (long[]) get(new Key(clazz, false, where, params));
+    }
+
+    public synchronized void putIds(Class<?> clazz, String where, String[] params, long[] ids, long generation) {
+        put(new Key(clazz, false, where, params), ids, generation);
+    }
+
+    /**
+     * Get the cached result of a count.
+     * 
+     * @param clazz
+     * @param where
+     * @param params
+     * @return The count, or null if the result is not cached
+     */
+    public synchronized Long getCount(Class<?> clazz, String where, String[] params) {
+        return (Long) get(new Key(clazz, true, where, params));
+    }
+
+    public synchronized void putCount(Class<?> clazz, String where, String[] params, long count, long generation) {
+        put(new Key(clazz, true, where, params), count, generation);
+    }
+
+    private Object get(Key key) {
+        CachedResult entry = this.entries.get(key);
+        if (entry != null && entry.generation == getGeneration(key.clazz)) {
+            this.hits++;
+            return entry.result;
+        }
+        if (entry != null) {
+            this.entries.remove(key);
+        }
+        this.misses++;
+        return null;
+    }
+
+    private void put(Key key, Object result, long generation) {
+        //don't cache results that were already stale when they were read
+        if (generation == getGeneration(key.clazz)) {
+            this.entries.put(key, new CachedResult(result, generation));
+        }
+    }
+
+    /**
+     * Invalidate all cached results for a class.  This must be called when any of the class's
+     * tables (including its join tables) are written to.
+     * 
+     * @param clazz
+     */
+    public synchronized void invalidate(Class<?> clazz) {
+        this.generations.put(clazz, getGeneration(clazz) + 1);
+    }
+
+    /**
+     * Drop all cached results.
+     * 
+     */
+    public synchronized void clear() {
+        this.entries.clear();
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
@@ -0,0 +1,151 @@
+package org.ormada.cache;
+
+import java.sql.SQLException;
+import java.util.List;
+
+import org.ormada.dialect.QueryCursor;
+import org.ormada.entity.FieldMapping;
+
+/**
+ * A cursor over rows held in memory, such as rows from the SecondLevelCache.  Values are
+ * stored as they were read from the original cursor (see readRow).
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class RowCursor implements QueryCursor {
+
+    private String[]       columns;
+    private List<Object[]> rows;
+    private int            pos;
+
+    public RowCursor(String[] columns, List<Object[]> rows) {
+        this.columns = columns;
+        this.rows    = rows;
+    }
+
+    /**
+     * Read the current row of a cursor, using the same accessor the entity builder would use
+     * for each field.
+     * 
+     * @param c
+     * @param fields The fields in the cursor's columns
+     * @return
+     * @throws SQLException
+     */
+    public static Object[] readRow(QueryCursor c, FieldMapping[] fields) throws SQLException {
+        Object[] row = new Object[fields.length];
+        for (int ii = 0; ii < fields.length; ii++) {
+            switch (fields[ii].getTypeCode()) {
+            case FieldMapping.TYPE_INT:
+            case FieldMapping.TYPE_BOOLEAN:
+                row[ii] = c.getInt(ii);
+                break;
+            case FieldMapping.TYPE_SHORT:
+                row[ii] = c.getShort(ii);
+                break;
+            case FieldMapping.TYPE_LONG:
+            case FieldMapping.TYPE_DATE:
+            case FieldMapping.TYPE_ENTITY:
+                row[ii] = c.getLong(ii);
+                break;
+            case FieldMapping.TYPE_FLOAT:
+                row[ii] = c.getFloat(ii);
+                break;
+            case FieldMapping.TYPE_DOUBLE:
+                row[ii] = c.getDouble(ii);
+                break;
+            case FieldMapping.TYPE_BYTE:
+            case FieldMapping.TYPE_SERIALIZABLE:
+                row[ii] = c.getBlob(ii);
+                break;
+            default:
+                row[ii] = c.getString(ii);
+                break;
+            }
+        }
+        return row;
+    }
+
+    @Override
+    public void close() {
+        this.rows = null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return this.rows.isEmpty();
+    }
+
+    @Override
+    public boolean moveToFirst() {
+        this.pos = 0;
+        return !this.rows.isEmpty();
+    }
+
+    @Override
+    public boolean isAfterLast() {
+        return this.pos >= this.rows.size();
+    }
+
+    @Override
+    public boolean moveToNext() {
+        this.pos++;
+        return this.pos < this.rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return this.columns.length;
+    }
+
+    @Override
+    public String getColumnName(int col) {
+        return this.columns[col];
+    }
+
+    private Object get(int col) {
+        return this.rows.get(this.pos)[col];
+    }
+
+    private Number getNumber(int col) {
+        Object o = get(col);
+        return o != null ? (Number) o : Integer.valueOf(0);
+    }
+
+    @Override
+    public long getLong(int col) {
+        return getNumber(col).longValue();
+    }
+
+    @Override
+    public int getInt(int col) {
+        return getNumber(col).intValue();
+    }
+
+    @Override
+    public short getShort(int col) {
+        return getNumber(col).shortValue();
+    }
+
+    @Override
+    public float getFloat(int col) {
+        return getNumber(col).floatValue();
+    }
+
+    @Override
+    public double getDouble(int col) {
+        return getNumber(col).doubleValue();
+    }
+
+    @Override
+    public byte[] getBlob(int col) {
+        return (byte[]) get(col);
+    }
+
+    @Override
+    public String getString(int col) {
+        Object o = get(col);
+        return o != null ? o.toString() : null;
+    }
+}
@@ -0,0 +1,244 @@
+package org.ormada.cache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * A cache of entity rows that is shared across fetches (and may be shared across ORMDataSource
+ * instances on the same database).  It holds the column values read for each entity, keyed by
+ * class and id, and not the entity objects themselves, so every fetch still builds its own objects
+ * and callers never see each other's changes.
+ *
+ * The cache is bounded, and evicts entries according to an EvictionPolicy when it is full.  Entries
+ * may also be given a time to live, after which they are dropped the next time they are read.
+ *
+ * Like QueryCache, each class has a generation, which is bumped whenever the class's rows are
+ * invalidated.  A reader passes in the generation it saw before running its query, so a row read
+ * before a concurrent save is not cached after the save has invalidated it.
+ *
+ * This class is thread safe.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class SecondLevelCache {
+
+    public static final long NO_TTL = 0;
+
+    /**
+     * A cache key.
+     *
+     */
+    private static class Key {
+        final Class<?> clazz;
+        final long     id;
+
+        Key(Class<?> clazz, long id) {
+            this.clazz = clazz;
+            this.id    = id;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key k = (Key) o;
+            return k.clazz == this.clazz && k.id == this.id;
+        }
+
+        @Override
+        public int hashCode() {
+            return this.clazz.hashCode() * 31 + (int) (this.id ^ (this.id >>> 32));
+        }
+    }
+
+    /**
+     * A cached row.
+     *
+     */
+    private static class Entry {
+        final Object[] row;
+        final long     expires;
+
+        Entry(Object[] row, long expires) {
+            this.row     = row;
+            this.expires = expires;
+        }
+    }
+
+    private final int            maxSize;
+    private final long           ttl;
+    private final EvictionPolicy policy;
+
+    private final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+
+    //the generation each class was last invalidated in, and the generation of the last clear
+    private final Map<Class<?>, Long> generations = new HashMap<Class<?>, Long>();
+    private long                      lastGeneration;
+    private long                      cleared;
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+
+    /**
+     * Create a cache that evicts the least recently used entries, and never expires entries.
+     * 
+     * @param maxSize
+     */
+    public SecondLevelCache(int maxSize) {
+        this(maxSize, new LruEvictionPolicy(), NO_TTL);
+    }
+
+    /**
+     * 
+     * @param maxSize The maximum number of rows to cache
+     * @param policy
+     * @param ttl The time (in ms) after which an entry expires, or NO_TTL to never expire entries
+     */
+    public SecondLevelCache(int maxSize, EvictionPolicy policy, long ttl) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1");
+        }
+        this.maxSize = maxSize;
+        this.policy  = policy;
+        this.ttl     = ttl;
+    }
+
+    /**
+     * Get the cached row for an entity.
+     * 
+     * NOTE: the row is shared, and must not be modified.
+     * 
+     * @param clazz
+     * @param id
+     * @return The row, or null if the entity is not cached (or the entry has expired)
+     */
+    public synchronized Object[] get(Class<?> clazz, long id) {
+        Key   key   = new Key(clazz, id);
+        Entry entry = this.entries.get(key);
+        if (entry == null) {
+            this.misses++;
+            return null;
+        }
+        if (entry.expires > 0 && entry.expires <= System.currentTimeMillis()) {
+            this.entries.remove(key);
+            this.policy.removed(key);
+            this.expirations++;
+            this.misses++;
+            return null;
+        }
+        this.policy.accessed(key);
+        this.hits++;
+        return entry.row;
+    }
+
+    /**
+     * Get the current generation for a class.  This must be read before running a query, and
+     * passed in when the rows are cached, so a save that happens while the query is running
+     * is not missed.
+     * 
+     * @param clazz
+     * @return
+     */
+    public synchronized long getGeneration(Class<?> clazz) {
+        Long generation = this.generations.get(clazz);
+        return generation != null && generation > this.cleared ? generation : this.cleared;
+    }
+
+    /**
+     * Cache the row for an entity, evicting another entry if the cache is full.  If the class has
+     * been invalidated since the generation passed in, the row may be stale, and is not cached.
+     * 
+     * @param clazz
+     * @param id
+     * @param row
+     * @param generation The class's generation from before the row was read
+     */
+    public synchronized void put(Class<?> clazz, long id, Object[] row, long generation) {
+        if (generation != getGeneration(clazz)) {
+            return;
+        }
+        Key   key   = new Key(clazz, id);
+        Entry entry = new Entry(row, this.ttl > 0 ? System.currentTimeMillis() + this.ttl : 0);
+        if (this.entries.put(key, entry) != null) {
+            this.policy.accessed(key);
+            return;
+        }
+        while (this.entries.size() > this.maxSize) {
+            Object victim = this.policy.evict();
+            if (victim == null) {
+                break;
+            }
+            this.entries.remove(victim);
+            this.evictions++;
+        }
+        this.policy.added(key);
+    }
+
+    /**
+     * Drop the cached row for an entity.  This must be called when the entity is saved or deleted.
+     * 
+     * @param clazz
+     * @param id
+     */
+    public synchronized void invalidate(Class<?> clazz, long id) {
+        this.generations.put(clazz, ++this.lastGeneration);
+        Key key = new Key(clazz, id);
+        if (this.entries.remove(key) != null) {
+            this.policy.removed(key);
+        }
+    }
+
+    /**
+     * Drop the cached rows for all entities of a class.
+     * 
+     * @param clazz
+     */
+    public synchronized void invalidate(Class<?> clazz) {
+        this.generations.put(clazz, ++this.lastGeneration);
+        Iterator<Key> it = this.entries.keySet().iterator();
+        while (it.hasNext()) {
+            Key key = it.next();
+            if (key.clazz == clazz) {
+                it.remove();
+                this.policy.removed(key);
+            }
+        }
+    }
+
+    /**
+     * Drop all cached rows.
+     * 
+     */
+    public synchronized void clear() {
+        this.cleared = ++this.lastGeneration;
+        for (Key key : this.entries.keySet()) {
+            this.policy.removed(key);
+        }
+        this.entries.clear();
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized long getEvictions() {
+        return evictions;
+    }
+
+    public synchronized long getExpirations() {
+        return expirations;
+    }
+}
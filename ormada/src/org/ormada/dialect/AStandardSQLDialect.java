@@ -7,11 +7,18 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.ormada.ORMDataSource;
 import org.ormada.annotations.Text;
+import org.ormada.entity.Entity;
+import org.ormada.entity.EntityMetaData;
 
 /**
  * A generic class for SQL dialects. This class assumes that most or all
@@ -25,14 +32,127 @@ public abstract class AStandardSQLDialect implements Dialect<DefaultValueSet> {
 
     private static final int MAX_VARCHAR_LENGTH = 2048;
 
-    private Connection connection;
+    private static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
 
+    private static final int DEFAULT_BATCH_SIZE = 500;
+
+    /**
+     * A group of rows to save to one table with one statement (e.g. rows with the same
+     * columns, that are all inserts or all updates).
+     *
+     */
+    private static class Batch {
+        final String                sql;
+        final List<String>          fields;
+        final List<Integer>         indices = new ArrayList<Integer>();
+        final List<DefaultValueSet> rows    = new ArrayList<DefaultValueSet>();
+
+        Batch(String sql, List<String> fields) {
+            this.sql    = sql;
+            this.fields = fields;
+        }
+    }
+
+    private ConnectionPool pool;
+
+    private int statementCacheSize = DEFAULT_STATEMENT_CACHE_SIZE;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    /**
+     * Get the connection lent to the calling thread.
+     *
+     * @return The connection, or null if the calling thread is not in the middle of an operation
+     */
     protected Connection getConnection() {
-        return connection;
+        return this.pool != null ? this.pool.getConnection() : null;
     }
 
+    /**
+     * Use a single connection for all operations.  Operations from different threads take turns
+     * on the connection.
+     *
+     * @param connection
+     */
     protected void setConnection(Connection connection) {
-        this.connection = connection;
+        setConnectionPool(new ConnectionPool(connection, this.statementCacheSize));
+    }
+
+    /**
+     * Use a pool of connections.  Each operation borrows a connection from the pool, so operations
+     * from different threads can run at the same time.
+     *
+     * @param pool
+     */
+    protected void setConnectionPool(ConnectionPool pool) {
+        if (this.pool != null) {
+            this.pool.close();
+        }
+        this.pool = pool;
+    }
+
+    /**
+     * Get the connection pool.
+     *
+     * @return The pool, or null if the dialect has not been opened
+     */
+    public ConnectionPool getConnectionPool() {
+        return pool;
+    }
+
+    /**
+     * Get the prepared statement cache for the calling thread's connection (or the most recently
+     * used connection, if the calling thread does not hold one).
+     *
+     * @return The cache, or null if the dialect has not been opened
+     */
+    public StatementCache getStatementCache() {
+        return this.pool != null ? this.pool.getStatementCache() : null;
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * Set the maximum number of prepared statements to keep open per connection.  Set this
+     * to 0 to turn off statement caching.
+     *
+     * @param statementCacheSize
+     */
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+        if (this.pool != null) {
+            this.pool.setStatementCacheSize(statementCacheSize);
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Set the maximum number of rows to send to the database in one JDBC batch
+     * when bulk saving.
+     *
+     * @param batchSize
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Test if the JDBC driver returns the generated keys for every row of a batched insert.
+     * Dialects for drivers that do not should override this to return false, and
+     * bulkSave will insert new rows one at a time.
+     *
+     * @return
+     */
+    protected boolean supportsBatchGeneratedKeys() {
+        return true;
     }
 
     /*
@@ -138,47 +258,162 @@ public abstract class AStandardSQLDialect implements Dialect<DefaultValueSet> {
 
     @Override
     public void close() throws SQLException {
-        this.connection.close();
+        this.pool.close();
     }
 
     public abstract void open(ORMDataSource orm) throws SQLException;
 
     @Override
     public void execSQL(String stmt) throws SQLException {
-        Statement s = this.connection.createStatement();
+        ConnectionPool.Lease lease = borrow();
         try {
-            s.execute(stmt);
+            Statement s = lease.getConnection().createStatement();
+            try {
+                s.execute(stmt);
+            } finally {
+                s.close();
+            }
         } finally {
-            s.close();
+            lease.release();
         }
     }
 
     @Override
-    public void delete(String table, String whereClause, String[] whereParams)
-            throws SQLException {
-        String stmt = "delete from " + table;
-        if (whereClause != null) {
-            stmt += " where " + whereClause;
+    public boolean isOpen() {
+        return this.pool != null && !this.pool.isClosed();
+    }
+
+    /**
+     * Begin a transaction.  The calling thread keeps its connection until the transaction ends, and
+     * the connection's auto commit is turned off, so the bulk operations run inside the transaction
+     * instead of starting their own.
+     *
+     */
+    @Override
+    public void beginTransaction() throws SQLException {
+        ConnectionPool.Lease lease = borrow();
+        boolean success = false;
+        try {
+            if (lease.transactionDepth == 0) {
+                lease.getConnection().setAutoCommit(false);
+                lease.rollbackOnly = false;
+            }
+            lease.transactionDepth++;
+            success = true;
+        } finally {
+            if (!success) {
+                lease.release();
+            }
         }
-        PreparedStatement ps = this.connection.prepareStatement(stmt);
+    }
+
+    @Override
+    public void commitTransaction() throws SQLException {
+        ConnectionPool.Lease lease = getTransaction();
         try {
-            if (whereClause != null && whereParams != null) {
-                for (int ii = 1; ii <= whereParams.length; ii++) {
-                    ps.setString(ii, whereParams[ii]);
+            if (--lease.transactionDepth > 0) {
+                return;
+            }
+            Connection connection = lease.getConnection();
+            try {
+                if (lease.rollbackOnly) {
+                    connection.rollback();
+                    throw new SQLException("Transaction rolled back, because a nested transaction was rolled back");
                 }
+                boolean committed = false;
+                try {
+                    connection.commit();
+                    committed = true;
+                } finally {
+                    if (!committed) {
+                        connection.rollback();
+                    }
+                }
+            } finally {
+                connection.setAutoCommit(true);
             }
-            ps.execute();
         } finally {
-            ps.close();
+            //release the borrow from beginTransaction
+            lease.release();
         }
     }
 
     @Override
-    public long insert(String table, DefaultValueSet values)
+    public void rollbackTransaction() throws SQLException {
+        ConnectionPool.Lease lease = getTransaction();
+        try {
+            if (--lease.transactionDepth > 0) {
+                lease.rollbackOnly = true;
+                return;
+            }
+            Connection connection = lease.getConnection();
+            try {
+                connection.rollback();
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } finally {
+            //release the borrow from beginTransaction
+            lease.release();
+        }
+    }
+
+    private ConnectionPool.Lease getTransaction() throws SQLException {
+        ConnectionPool.Lease lease = this.pool != null ? this.pool.getLease() : null;
+        if (lease == null || lease.transactionDepth == 0) {
+            throw new SQLException("No transaction in progress");
+        }
+        return lease;
+    }
+
+    /**
+     * Borrow a connection for an operation.  The lease must be released when the operation is done.
+     *
+     * @return
+     * @throws SQLException
+     */
+    private ConnectionPool.Lease borrow() throws SQLException {
+        if (this.pool == null) {
+            throw new SQLException("Dialect is not open");
+        }
+        return this.pool.borrow();
+    }
+
+    @Override
+    public long count(String table, String whereClause, String[] whereParams)
             throws SQLException {
+        QueryCursor c = query(table, new String[] {"count(*)"}, whereClause, whereParams, null, null, null);
+        try {
+            c.moveToFirst();
+            return c.getLong(0);
+        } finally {
+            c.close();
+        }
+    }
 
-        // build the field and values part of the insert to execute below
-        Collection<String> fields = values.getFields();
+    private long getId(DefaultValueSet values) {
+        Object id = values.getAsObject(EntityMetaData.ID_FIELD);
+        return id != null ? ((Number) id).longValue() : 0;
+    }
+
+    /**
+     * Get the fields to write for a row, which are all fields except the id.  The id is
+     * generated by the database on insert, and used in the where clause on update.
+     *
+     * @param values
+     * @return
+     */
+    private List<String> getFieldsToWrite(DefaultValueSet values) {
+        List<String> fields = new ArrayList<String>(values.getFields().size());
+        for (String field : values.getFields()) {
+            if (!field.equals(EntityMetaData.ID_FIELD)) {
+                fields.add(field);
+            }
+        }
+        return fields;
+    }
+
+    private String buildInsert(String table, Collection<String> fields) {
         StringBuilder fieldsBuilder = new StringBuilder();
         StringBuilder valuesBuilder = new StringBuilder();
         boolean firstTime = true;
@@ -191,13 +426,301 @@ public abstract class AStandardSQLDialect implements Dialect<DefaultValueSet> {
             fieldsBuilder.append(field);
             valuesBuilder.append("?");
         }
+        return "insert into " + table + "(" + fieldsBuilder + ") VALUES(" + valuesBuilder + ");";
+    }
+
+    private String buildUpdate(String table, Collection<String> fields, String whereClause) {
+        StringBuilder builder = new StringBuilder();
+        boolean firstTime = true;
+        for (String field : fields) {
+            if (!firstTime) {
+                builder.append(",");
+            }
+            firstTime = false;
+            builder.append(field).append("=").append("?");
+        }
+        return "update " + table + " set " + builder + " where " + whereClause;
+    }
+
+    @Override
+    public long save(String table, DefaultValueSet values) throws SQLException {
+        long id = getId(values);
+        List<String> fields = getFieldsToWrite(values);
+        ConnectionPool.Lease lease = borrow();
+        try {
+            if (Entity.isSaved(id)) {
+                StatementCache statementCache = lease.getStatementCache();
+                PreparedStatement ps = statementCache.acquire(buildUpdate(table, fields, EntityMetaData.ID_FIELD + " = ?"), false);
+                try {
+                    this.setIntoPreparedStatement(ps, fields, values);
+                    ps.setLong(fields.size() + 1, id);
+                    ps.executeUpdate();
+                } finally {
+                    statementCache.release(ps);
+                }
+            } else {
+                id = insert(lease, buildInsert(table, fields), fields, values);
+            }
+        } finally {
+            lease.release();
+        }
+        return id;
+    }
+
+    /**
+     * Save the rows in batches.  Rows are grouped by table and by the columns they set, and
+     * each group is sent to the database in JDBC batches of up to getBatchSize rows, inserts
+     * and updates separately.  This is all done in one transaction, unless the caller has
+     * already started one.
+     *
+     */
+    @Override
+    public Map<String, List<Long>> bulkSave(Map<String, List<DefaultValueSet>> valueMap) {
+        try {
+            ConnectionPool.Lease lease = borrow();
+            try {
+                boolean autoCommit = beginBulk(lease);
+                boolean success = false;
+                try {
+                    Map<String, List<Long>> idMap = new HashMap<String, List<Long>>();
+                    for (Map.Entry<String, List<DefaultValueSet>> e : valueMap.entrySet()) {
+                        idMap.put(e.getKey(), bulkSave(lease, e.getKey(), e.getValue()));
+                    }
+                    success = true;
+                    return idMap;
+                } finally {
+                    endBulk(lease, autoCommit, success);
+                }
+            } finally {
+                lease.release();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Insert the rows in batches, grouped by the columns they set.  Like bulkSave, this is done
+     * in one transaction unless the caller has already started one.
+     *
+     */
+    @Override
+    public void bulkInsert(String table, List<DefaultValueSet> rows) throws SQLException {
+        Map<String, Batch> inserts = new LinkedHashMap<String, Batch>();
+        for (int ii = 0; ii < rows.size(); ii++) {
+            DefaultValueSet values = rows.get(ii);
+            List<String> fields = new ArrayList<String>(values.getFields());
+            String sql = buildInsert(table, fields);
+            Batch batch = inserts.get(sql);
+            if (batch == null) {
+                batch = new Batch(sql, fields);
+                inserts.put(sql, batch);
+            }
+            batch.indices.add(ii);
+            batch.rows.add(values);
+        }
 
-        // create the statement and execute the insert. this code assumes that
-        // one row will be inserted
+        ConnectionPool.Lease lease = borrow();
+        try {
+            boolean autoCommit = beginBulk(lease);
+            boolean success = false;
+            try {
+                for (Batch batch : inserts.values()) {
+                    executeInsertBatch(lease, batch, null);
+                }
+                success = true;
+            } finally {
+                endBulk(lease, autoCommit, success);
+            }
+        } finally {
+            lease.release();
+        }
+    }
+
+    /**
+     * Start a transaction for a bulk operation, if one is not already started.
+     *
+     * @return True if a transaction was started (and must be ended with endBulk)
+     * @throws SQLException
+     */
+    private boolean beginBulk(ConnectionPool.Lease lease) throws SQLException {
+        Connection connection = lease.getConnection();
+        boolean autoCommit = connection.getAutoCommit();
+        if (autoCommit) {
+            connection.setAutoCommit(false);
+        }
+        return autoCommit;
+    }
+
+    private void endBulk(ConnectionPool.Lease lease, boolean autoCommit, boolean success) throws SQLException {
+        if (autoCommit) {
+            Connection connection = lease.getConnection();
+            try {
+                if (success) {
+                    connection.commit();
+                } else {
+                    connection.rollback();
+                }
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        }
+    }
+
+    private List<Long> bulkSave(ConnectionPool.Lease lease, String table, List<DefaultValueSet> rows) throws SQLException {
+        Long[] ids = new Long[rows.size()];
+        //group the rows by statement...the sql encodes the operation and the columns, so
+        // rows with the same sql can go in the same batch
+        Map<String, Batch> inserts = new LinkedHashMap<String, Batch>();
+        Map<String, Batch> updates = new LinkedHashMap<String, Batch>();
+        for (int ii = 0; ii < rows.size(); ii++) {
+            DefaultValueSet values = rows.get(ii);
+            long id = getId(values);
+            List<String> fields = getFieldsToWrite(values);
+            String sql;
+            Map<String, Batch> batches;
+            if (Entity.isSaved(id)) {
+                sql     = buildUpdate(table, fields, EntityMetaData.ID_FIELD + " = ?");
+                batches = updates;
+                ids[ii] = id;
+            } else {
+                sql     = buildInsert(table, fields);
+                batches = inserts;
+            }
+            Batch batch = batches.get(sql);
+            if (batch == null) {
+                batch = new Batch(sql, fields);
+                batches.put(sql, batch);
+            }
+            batch.indices.add(ii);
+            batch.rows.add(values);
+        }
+
+        for (Batch batch : inserts.values()) {
+            executeInsertBatch(lease, batch, ids);
+        }
+        for (Batch batch : updates.values()) {
+            executeUpdateBatch(lease, batch);
+        }
+
+        List<Long> idList = new ArrayList<Long>(ids.length);
+        for (Long id : ids) {
+            idList.add(id);
+        }
+        return idList;
+    }
+
+    /**
+     * Execute a batch of inserts.
+     *
+     * @param lease
+     * @param batch
+     * @param ids The array to fill in with the new rows' ids, or null if the ids are not needed
+     * @throws SQLException
+     */
+    private void executeInsertBatch(ConnectionPool.Lease lease, Batch batch, Long[] ids) throws SQLException {
+        if (ids != null && !supportsBatchGeneratedKeys()) {
+            for (int ii = 0; ii < batch.rows.size(); ii++) {
+                ids[batch.indices.get(ii)] = insert(lease, batch.sql, batch.fields, batch.rows.get(ii));
+            }
+            return;
+        }
+        //NOTE: the same sql must always be acquired with the same flag, so ask for keys even if we don't need them
+        StatementCache statementCache = lease.getStatementCache();
+        PreparedStatement ps = statementCache.acquire(batch.sql, true);
+        try {
+            for (int start = 0; start < batch.rows.size(); start += this.batchSize) {
+                int end = Math.min(start + this.batchSize, batch.rows.size());
+                for (int ii = start; ii < end; ii++) {
+                    this.setIntoPreparedStatement(ps, batch.fields, batch.rows.get(ii));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+                if (ids == null) {
+                    continue;
+                }
+                //read back the generated keys, which come back in the order the rows were added
+                ResultSet rs = ps.getGeneratedKeys();
+                try {
+                    for (int ii = start; ii < end; ii++) {
+                        if (!rs.next()) {
+                            throw new RuntimeException("Error retrieving inserted keys.  Expected " + (end - start)
+                                    + " generated keys, encountered " + (ii - start));
+                        }
+                        ids[batch.indices.get(ii)] = rs.getLong(1);
+                    }
+                } finally {
+                    rs.close();
+                }
+            }
+        } finally {
+            statementCache.release(ps);
+        }
+    }
+
+    private void executeUpdateBatch(ConnectionPool.Lease lease, Batch batch) throws SQLException {
+        StatementCache statementCache = lease.getStatementCache();
+        PreparedStatement ps = statementCache.acquire(batch.sql, false);
+        try {
+            int idInx = batch.fields.size() + 1;
+            for (int start = 0; start < batch.rows.size(); start += this.batchSize) {
+                int end = Math.min(start + this.batchSize, batch.rows.size());
+                for (int ii = start; ii < end; ii++) {
+                    DefaultValueSet values = batch.rows.get(ii);
+                    this.setIntoPreparedStatement(ps, batch.fields, values);
+                    ps.setLong(idInx, getId(values));
+                    ps.addBatch();
+                }
+                ps.executeBatch();
+            }
+        } finally {
+            statementCache.release(ps);
+        }
+    }
+
+    @Override
+    public void delete(String table, String whereClause, String[] whereParams)
+            throws SQLException {
+        String stmt = "delete from " + table;
+        if (whereClause != null) {
+            stmt += " where " + whereClause;
+        }
+        ConnectionPool.Lease lease = borrow();
+        try {
+            PreparedStatement ps = lease.getStatementCache().acquire(stmt, false);
+            try {
+                if (whereClause != null && whereParams != null) {
+                    for (int ii = 0; ii < whereParams.length; ii++) {
+                        ps.setString(ii + 1, whereParams[ii]);
+                    }
+                }
+                ps.execute();
+            } finally {
+                lease.getStatementCache().release(ps);
+            }
+        } finally {
+            lease.release();
+        }
+    }
+
+    @Override
+    public long insert(String table, DefaultValueSet values)
+            throws SQLException {
+        Collection<String> fields = values.getFields();
+        ConnectionPool.Lease lease = borrow();
+        try {
+            return insert(lease, buildInsert(table, fields), fields, values);
+        } finally {
+            lease.release();
+        }
+    }
+
+    private long insert(ConnectionPool.Lease lease, String stmt, Collection<String> fields, DefaultValueSet values)
+            throws SQLException {
+        // execute the insert. this code assumes that one row will be inserted
         // and that we will get back the newly inserted id
-        String stmt = "insert into " + table + "(" + fieldsBuilder
-                + ") VALUES(" + valuesBuilder + ");";
-        PreparedStatement ps = this.connection.prepareStatement(stmt, Statement.RETURN_GENERATED_KEYS);
+        StatementCache statementCache = lease.getStatementCache();
+        PreparedStatement ps = statementCache.acquire(stmt, true);
         ResultSet rs = null;
         long newId = -1;
         try {
@@ -219,7 +742,7 @@ public abstract class AStandardSQLDialect implements Dialect<DefaultValueSet> {
             if (rs != null) {
                 rs.close();
             }
-            ps.close();
+            statementCache.release(ps);
         }
         return newId;
     }
@@ -228,38 +751,29 @@ public abstract class AStandardSQLDialect implements Dialect<DefaultValueSet> {
     public void update(String table, DefaultValueSet values,
             String whereClause, String[] whereParams) throws SQLException {
 
-        // build the field/values part of the update to execute below
         Collection<String> fields = values.getFields();
-        StringBuilder builder = new StringBuilder();
-        boolean firstTime = true;
-        for (String field : fields) {
-            if (!firstTime) {
-                builder.append(",");
-            }
-            firstTime = false;
-            builder.append(field).append("=").append("?");
-        }
-        // create the statement and execute the update. this code assumes that
-        // one row will be inserted
-        // and that we will get back the newly inserted id
-        String stmt = "update " + table + " " + builder + " where "
-                + whereClause;
-        PreparedStatement ps = this.connection.prepareStatement(stmt);
+        String stmt = buildUpdate(table, fields, whereClause);
+        ConnectionPool.Lease lease = borrow();
         try {
-            this.setIntoPreparedStatement(ps, fields, values);
-            // set the where parameters, starting at the inx right after the
-            // last field parameter
-            if (whereParams != null) {
-                int inx = fields.size() + 1;
-                for (String whereParam : whereParams) {
-                    ps.setString(inx, whereParam);
-                    inx++;
+            PreparedStatement ps = lease.getStatementCache().acquire(stmt, false);
+            try {
+                this.setIntoPreparedStatement(ps, fields, values);
+                // set the where parameters, starting at the inx right after the
+                // last field parameter
+                if (whereParams != null) {
+                    int inx = fields.size() + 1;
+                    for (String whereParam : whereParams) {
+                        ps.setString(inx, whereParam);
+                        inx++;
+                    }
                 }
+                int count = ps.executeUpdate();
+                System.out.println(count + " row(s) updated");
+            } finally {
+                lease.getStatementCache().release(ps);
             }
-            int count = ps.executeUpdate();
-            System.out.println(count + " row(s) updated");
         } finally {
-            ps.close();
+            lease.release();
         }
     }
 
@@ -299,8 +813,13 @@ public abstract class AStandardSQLDialect implements Dialect<DefaultValueSet> {
             builder.append(" limit ").append(limit);
         }
 
-        PreparedStatement ps = this.connection.prepareStatement(builder.toString());
+        //NOTE: the connection and the statement must stay checked out until the cursor is
+        // closed, or the result set will be closed out from under it
+        ConnectionPool.Lease lease = borrow();
+        PreparedStatement ps = null;
+        QueryCursor cursor = null;
         try {
+            ps = lease.getStatementCache().acquire(builder.toString(), false);
             // set the selection args parameters, starting at inx 0
             if (selectionArgs != null) {
                 int inx = 1;
@@ -313,9 +832,16 @@ public abstract class AStandardSQLDialect implements Dialect<DefaultValueSet> {
             if (!success) {
                 throw new RuntimeException("Error executing query: " + builder.toString());
             }
-            return new ForwardOnlyResultSetCursor(ps.getResultSet());
+            cursor = new ForwardOnlyResultSetCursor(ps.getResultSet(), lease, ps);
+            return cursor;
         } finally {
-            ps.close();
+            if (cursor == null) {
+                if (ps != null) {
+                    lease.release(ps);
+                } else {
+                    lease.release();
+                }
+            }
         }
 
 	}
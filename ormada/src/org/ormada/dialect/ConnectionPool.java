@@ -0,0 +1,342 @@
+package org.ormada.dialect;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+/**
+ * A bounded pool of JDBC connections, each with its own prepared statement cache.
+ *
+ * Connections are lent to threads.  A thread that borrows while it already holds a connection gets
+ * the same connection back, so nested operations (e.g. a query run while another query's cursor is
+ * open) share one connection, and a thread never waits on itself.  The connection goes back to the
+ * pool when every borrow has been released.  When all of the connections are lent out, borrow waits
+ * for one to be released.
+ *
+ * A pool over a single connection serializes access to that connection, which makes it safe to
+ * share between threads.  Note that an open cursor holds its connection until it is closed.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class ConnectionPool {
+
+    /**
+     * Opens new connections for a pool.
+     *
+     */
+    public interface ConnectionFactory {
+        Connection newConnection() throws SQLException;
+    }
+
+    /**
+     * A connection lent to a thread.  Each borrow must be handed back with one of the release methods.
+     *
+     */
+    public static class Lease {
+        private final ConnectionPool pool;
+        private final Connection     connection;
+        private StatementCache       statementCache;
+        private Thread               owner;
+        private int                  borrows;
+        //the depth of the transaction in progress on this connection (0 if none), and whether it must be rolled back
+        int                          transactionDepth;
+        boolean                      rollbackOnly;
+
+        private Lease(ConnectionPool pool, Connection connection, int statementCacheSize) {
+            this.pool           = pool;
+            this.connection     = connection;
+            this.statementCache = new StatementCache(connection, statementCacheSize);
+        }
+
+        public Connection getConnection() {
+            return connection;
+        }
+
+        public StatementCache getStatementCache() {
+            return statementCache;
+        }
+
+        /**
+         * Hand this borrow back to the pool.
+         *
+         */
+        public void release() {
+            this.pool.release(this);
+        }
+
+        /**
+         * Hand a statement back to this connection's statement cache, and then hand this borrow
+         * back to the pool.
+         *
+         * @param ps
+         */
+        public void release(PreparedStatement ps) {
+            try {
+                this.statementCache.release(ps);
+            } finally {
+                release();
+            }
+        }
+
+        private void close() {
+            this.statementCache.clear();
+            try {
+                this.connection.close();
+            } catch (SQLException e) {
+                //we're closing...nothing to do
+            }
+        }
+    }
+
+    private final ConnectionFactory factory;
+    private final int               maxSize;
+    private int                     statementCacheSize;
+
+    //idle connections, most recently used first
+    private final LinkedList<Lease>  idle = new LinkedList<Lease>();
+    private final Map<Thread, Lease> lent = new HashMap<Thread, Lease>();
+    //the number of connections open or being opened
+    private int     size;
+    private boolean closed;
+
+    private long borrows;
+    private long waits;
+
+    /**
+     * Construct a pool over one connection, that is already open.
+     *
+     * @param connection
+     * @param statementCacheSize
+     */
+    public ConnectionPool(Connection connection, int statementCacheSize) {
+        this.factory            = null;
+        this.maxSize            = 1;
+        this.statementCacheSize = statementCacheSize;
+        this.idle.add(new Lease(this, connection, statementCacheSize));
+        this.size               = 1;
+    }
+
+    /**
+     * Construct a pool that opens up to maxSize connections from the factory, as they are needed.
+     *
+     * @param factory
+     * @param maxSize
+     * @param statementCacheSize
+     */
+    public ConnectionPool(ConnectionFactory factory, int maxSize, int statementCacheSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        this.factory            = factory;
+        this.maxSize            = maxSize;
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    /**
+     * Get a factory that opens connections from a DataSource (e.g. one provided by an application server).
+     *
+     * @param dataSource
+     * @return
+     */
+    public static ConnectionFactory fromDataSource(final DataSource dataSource) {
+        return new ConnectionFactory() {
+            @Override
+            public Connection newConnection() throws SQLException {
+                return dataSource.getConnection();
+            }
+        };
+    }
+
+    /**
+     * Borrow a connection for the calling thread, waiting for one if they are all lent out.
+     *
+     * @return
+     * @throws SQLException
+     */
+    public Lease borrow() throws SQLException {
+        Thread thread = Thread.currentThread();
+        synchronized (this) {
+            checkNotClosed();
+            this.borrows++;
+            Lease lease = this.lent.get(thread);
+            if (lease == null) {
+                while (this.idle.isEmpty() && this.size >= this.maxSize) {
+                    this.waits++;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new SQLException("Interrupted while waiting for a connection");
+                    }
+                    checkNotClosed();
+                }
+                if (!this.idle.isEmpty()) {
+                    lease = this.idle.removeFirst();
+                }
+            }
+            if (lease != null) {
+                lend(lease, thread);
+                return lease;
+            }
+            //reserve a slot, and open the connection outside of the lock
+            this.size++;
+        }
+        Lease lease = null;
+        try {
+            lease = new Lease(this, this.factory.newConnection(), this.statementCacheSize);
+        } finally {
+            if (lease == null) {
+                synchronized (this) {
+                    this.size--;
+                    notify();
+                }
+            }
+        }
+        synchronized (this) {
+            if (this.closed) {
+                this.size--;
+                lease.close();
+                checkNotClosed();
+            }
+            lend(lease, thread);
+        }
+        return lease;
+    }
+
+    private void lend(Lease lease, Thread thread) {
+        lease.owner = thread;
+        lease.borrows++;
+        this.lent.put(thread, lease);
+    }
+
+    private synchronized void release(Lease lease) {
+        if (lease.borrows == 0) {
+            return;
+        }
+        if (--lease.borrows > 0) {
+            return;
+        }
+        this.lent.remove(lease.owner);
+        lease.owner = null;
+        if (this.closed) {
+            this.size--;
+            lease.close();
+            return;
+        }
+        //pick up a new statement cache size, now that no statements are checked out
+        if (lease.statementCache.getMaxSize() != this.statementCacheSize) {
+            lease.statementCache.clear();
+            lease.statementCache = new StatementCache(lease.connection, this.statementCacheSize);
+        }
+        this.idle.addFirst(lease);
+        notify();
+    }
+
+    private void checkNotClosed() throws SQLException {
+        if (this.closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+    }
+
+    /**
+     * Get the connection lent to the calling thread.
+     *
+     * @return The connection, or null if the calling thread has not borrowed one
+     */
+    public synchronized Connection getConnection() {
+        Lease lease = this.lent.get(Thread.currentThread());
+        return lease != null ? lease.connection : null;
+    }
+
+    /**
+     * Get the lease held by the calling thread, without borrowing again.
+     *
+     * @return The lease, or null if the calling thread has not borrowed a connection
+     */
+    public synchronized Lease getLease() {
+        return this.lent.get(Thread.currentThread());
+    }
+
+    /**
+     * Get the statement cache of the connection lent to the calling thread, or if it does not
+     * hold one, of the most recently used idle connection.
+     *
+     * @return The cache, or null if there is no such connection
+     */
+    public synchronized StatementCache getStatementCache() {
+        Lease lease = this.lent.get(Thread.currentThread());
+        if (lease == null) {
+            lease = this.idle.peek();
+        }
+        return lease != null ? lease.statementCache : null;
+    }
+
+    /**
+     * Set the maximum number of prepared statements to keep open per connection.  Connections that
+     * are lent out pick up the new size when they are released.
+     *
+     * @param statementCacheSize
+     */
+    public synchronized void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+        for (Lease lease : this.idle) {
+            lease.statementCache.clear();
+            lease.statementCache = new StatementCache(lease.connection, statementCacheSize);
+        }
+    }
+
+    /**
+     * Close the pool.  Idle connections are closed now, and lent connections are closed when
+     * they are released.
+     *
+     */
+    public synchronized void close() {
+        this.closed = true;
+        for (Lease lease : this.idle) {
+            this.size--;
+            lease.close();
+        }
+        this.idle.clear();
+        notifyAll();
+    }
+
+    public synchronized boolean isClosed() {
+        return this.closed;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Get the number of connections open (idle or lent out).
+     *
+     * @return
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    public synchronized int getIdleCount() {
+        return this.idle.size();
+    }
+
+    public synchronized long getBorrows() {
+        return borrows;
+    }
+
+    /**
+     * Get the number of times a thread had to wait for a connection to be released.
+     *
+     * @return
+     */
+    public synchronized long getWaits() {
+        return waits;
+    }
+}
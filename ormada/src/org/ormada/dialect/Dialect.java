@@ -58,6 +58,29 @@ public interface Dialect<V extends ValueSet> {
 	 */
     boolean isOpen();
 
+    /**
+     * Begin a transaction for the calling thread.  Every operation the thread performs until the
+     * transaction is committed or rolled back is part of the transaction.
+     * Transactions may be nested: a nested transaction becomes part of the outer transaction, and only
+     * the outermost commit is written.  If a nested transaction is rolled back, the whole transaction
+     * must be rolled back instead of committed.
+     * @throws SQLException
+     */
+    void beginTransaction() throws SQLException;
+
+    /**
+     * Commit the calling thread's current transaction.
+     * @throws SQLException If the transaction could not be committed, or was rolled back instead because a
+     * nested transaction was rolled back
+     */
+    void commitTransaction() throws SQLException;
+
+    /**
+     * Roll back the calling thread's current transaction.
+     * @throws SQLException
+     */
+    void rollbackTransaction() throws SQLException;
+
     /**
      * Execute a SQL statement against the underlying data source.  It is assumed that
      * this will not return a value (e.g. no queries or inserts).
@@ -98,6 +121,17 @@ public interface Dialect<V extends ValueSet> {
      */
     long count(String table, String whereClause, String[] whereParams) throws SQLException;
 
+    /**
+     * Raw insert of multiple rows into the database.  This inserts the values in each ValueSet into
+     * a new row in the specified table, in an efficient way.  Unlike insert, this does not return
+     * the new rows' ids, so it may be used with tables that do not have an id column (e.g. join tables).
+     * 
+     * @param table
+     * @param values
+     * @throws SQLException
+     */
+    void bulkInsert(String table, List<V> values) throws SQLException;
+
     /**
 	 * Raw insert into the database.  This will insert the values set in the ValueSet
 	 * into a new row in the specified table.
@@ -1,5 +1,6 @@
 package org.ormada.dialect;
 
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
@@ -23,6 +24,9 @@ public class ForwardOnlyResultSetCursor implements QueryCursor {
     private boolean first;
     private boolean next;
 
+    private ConnectionPool.Lease lease;
+    private PreparedStatement    statement;
+
     public ForwardOnlyResultSetCursor(ResultSet resultSet) throws SQLException {
         this.resultSet  = resultSet;
         this.rsMetaData = resultSet.getMetaData();
@@ -31,6 +35,21 @@ public class ForwardOnlyResultSetCursor implements QueryCursor {
         this.next  = this.first;
     }
 
+    /**
+     * Construct a cursor over a result set from a statement cached on a pooled connection.  The
+     * statement and the connection are released when the cursor is closed.
+     *
+     * @param resultSet
+     * @param lease
+     * @param statement
+     * @throws SQLException
+     */
+    public ForwardOnlyResultSetCursor(ResultSet resultSet, ConnectionPool.Lease lease, PreparedStatement statement) throws SQLException {
+        this(resultSet);
+        this.lease     = lease;
+        this.statement = statement;
+    }
+
     @Override
 	public void close() {
         try {
@@ -38,6 +57,10 @@ public class ForwardOnlyResultSetCursor implements QueryCursor {
         } catch (SQLException e) {
             //we're closing...nothing to do
         }
+        if (this.lease != null) {
+            this.lease.release(this.statement);
+            this.lease = null;
+        }
 	}
 
 	@Override
@@ -0,0 +1,170 @@
+package org.ormada.dialect;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of prepared statements for one connection.  Statements are keyed by their SQL,
+ * which is determined by the table and the shape (fields and clauses) of the operation, and the
+ * least recently used statement is closed when the cache is full.
+ *
+ * A statement is checked out with acquire and must be handed back with release when the caller
+ * is done with it (for queries, that is when the cursor is closed).  If a statement is already
+ * checked out, acquire returns a new, uncached statement instead, so nested operations with the
+ * same SQL never share (and reset) each other's statement.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class StatementCache {
+
+    /**
+     * A cached statement.
+     *
+     */
+    private static class CachedStatement {
+        final PreparedStatement statement;
+        boolean inUse;
+        boolean evicted;
+
+        CachedStatement(PreparedStatement statement) {
+            this.statement = statement;
+        }
+    }
+
+    private final Connection connection;
+    private final int        maxSize;
+
+    private final Map<String, CachedStatement> entries;
+    //statements that are currently checked out, mapped to their cache entries (or null if they are not cached)
+    private final Map<PreparedStatement, CachedStatement> checkedOut = new IdentityHashMap<PreparedStatement, CachedStatement>();
+
+    private long hits;
+    private long misses;
+
+    public StatementCache(Connection connection, int maxSize) {
+        this.connection = connection;
+        this.maxSize    = maxSize;
+        this.entries    = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if (size() > StatementCache.this.maxSize) {
+                    evict(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Check out a prepared statement for the SQL.
+     *
+     * NOTE: the statement is cached by its SQL alone, so the same SQL must always be acquired with the same
+     * returnGeneratedKeys flag.
+     *
+     * @param sql
+     * @param returnGeneratedKeys True if the statement must return generated keys (e.g. for an insert)
+     * @return
+     * @throws SQLException
+     */
+    public synchronized PreparedStatement acquire(String sql, boolean returnGeneratedKeys) throws SQLException {
+        CachedStatement entry = this.entries.get(sql);
+        if (entry != null && !entry.inUse) {
+            hits++;
+        } else {
+            misses++;
+            PreparedStatement ps = prepare(sql, returnGeneratedKeys);
+            if (entry != null || this.maxSize <= 0) {
+                //the cached statement is in use (or caching is off)...hand out a one off statement
+                this.checkedOut.put(ps, null);
+                return ps;
+            }
+            entry = new CachedStatement(ps);
+            this.entries.put(sql, entry);
+        }
+        entry.inUse = true;
+        this.checkedOut.put(entry.statement, entry);
+        return entry.statement;
+    }
+
+    /**
+     * Hand a statement back to the cache.  Statements that are not (or are no longer) cached are closed.
+     *
+     * @param ps
+     */
+    public synchronized void release(PreparedStatement ps) {
+        if (!this.checkedOut.containsKey(ps)) {
+            return;
+        }
+        CachedStatement entry = this.checkedOut.remove(ps);
+        if (entry == null || entry.evicted) {
+            close(ps);
+            return;
+        }
+        entry.inUse = false;
+        try {
+            ps.clearParameters();
+        } catch (SQLException e) {
+            //the statement is no good anymore...drop it from the cache
+            this.entries.values().remove(entry);
+            close(ps);
+        }
+    }
+
+    private PreparedStatement prepare(String sql, boolean returnGeneratedKeys) throws SQLException {
+        return returnGeneratedKeys ? this.connection.prepareStatement(sql, Statement.RETURN_GENERATED_KEYS)
+                                   : this.connection.prepareStatement(sql);
+    }
+
+    private void evict(CachedStatement entry) {
+        entry.evicted = true;
+        //statements that are in use are closed when they are released
+        if (!entry.inUse) {
+            close(entry.statement);
+        }
+    }
+
+    private void close(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException e) {
+            //we're closing...nothing to do
+        }
+    }
+
+    /**
+     * Close all of the cached statements.
+     *
+     */
+    public synchronized void clear() {
+        for (CachedStatement entry : this.entries.values()) {
+            evict(entry);
+        }
+        this.entries.clear();
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return this.entries.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+}
@@ -12,7 +12,7 @@ import org.ormada.reflect.Reflector;
 public class Entity {
 
     //NOTE: this assumes that the default value for a "long" in Java is 0
-    private static final int UNSAVED_ID = 0;
+    public static final int UNSAVED_ID = 0;
     
     private EntityMetaData metaData;
     private Object entity;
@@ -24,7 +24,7 @@ public class Entity {
 
     public long getId() {
         try {
-            return (Long) metaData.getIdGetter().invoke(this.entity);
+            return metaData.getIdAccessor().getLong(this.entity);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -32,7 +32,7 @@ public class Entity {
 
     public void setId(long id) {
         try {
-            metaData.getIdSetter().invoke(this.entity, id);
+            metaData.getIdAccessor().setLong(this.entity, id);
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
@@ -2,17 +2,21 @@ package org.ormada.entity;
 
 import java.io.ByteArrayInputStream;
 import java.io.ObjectInputStream;
-import java.io.Serializable;
-import java.lang.reflect.Method;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Date;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
 
-import org.ormada.ORMDataSource;
+import org.ormada.cache.RowCursor;
 import org.ormada.dialect.QueryCursor;
-import org.ormada.reflect.Reflector;
+import org.ormada.util.LongObjectMap;
+import org.ormada.reflect.PropertyAccessor;
 
 /**
  * This class is responsible for building entities from cursor results,
@@ -23,17 +27,79 @@ import org.ormada.reflect.Reflector;
  */
 public class EntityBuilder {
     
+    /**
+     * The columns of one entity class within a cursor row, starting at an offset.  This is
+     * used to build more than one entity from each row of a joined query.
+     *
+     */
+    public static class ColumnRange {
+        private final EntityMapping  mapping;
+        private final FieldMapping[] fields;
+        private final int[]          mapperColumns;
+        private final int            offset;
+        private final int            idCol;
+
+        private ColumnRange(EntityMapping mapping, FieldMapping[] fields, int[] mapperColumns, int offset, int idCol) {
+            this.mapping       = mapping;
+            this.fields        = fields;
+            this.mapperColumns = mapperColumns;
+            this.offset        = offset;
+            this.idCol         = idCol;
+        }
+
+        /**
+         * Get the cursor column of a field in this range.
+         * 
+         * @param f
+         * @return The column, or -1 if the field is not in this range
+         */
+        public int getColumn(FieldMapping f) {
+            for (int ii = 0; ii < fields.length; ii++) {
+                if (fields[ii] == f) {
+                    return offset + ii;
+                }
+            }
+            return -1;
+        }
+
+        public int getIdColumn() {
+            return idCol;
+        }
+
+        /**
+         * Get the cursor column after the last one in this range.
+         * 
+         * @return
+         */
+        public int getEnd() {
+            return offset + fields.length;
+        }
+    }
+
     private EntityCache entityCache = new EntityCache();
 
-    private Reflector reflector;
+    private Map<Class<?>, EntityMapping> mappings;
 
-    private ORMDataSource orm;
+    //the executor to build objects on, and the number of rows each task builds (see setParallelHydration)
+    private Executor hydrationExecutor;
+    private int      hydrationChunkSize;
     
-    public EntityBuilder(ORMDataSource orm, Reflector reflector) {
-        //FIXME: this relationship ONLY EXISTS for isEntity.  As we split apart a proper entity management class hierarcy
-        // this should go away.
-        this.orm = orm;
-        this.reflector = reflector;
+    public EntityBuilder(Map<Class<?>, EntityMapping> mappings) {
+        this.mappings = mappings;
+    }
+
+    /**
+     * Build the objects for large results on an executor.  The rows are read off the cursor on
+     * the calling thread, and then built chunkSize rows at a time, with the calling thread
+     * building chunks too.  Results with no more than chunkSize new rows are built on the
+     * calling thread.
+     * 
+     * @param executor The executor, or null to build every object on the calling thread
+     * @param chunkSize
+     */
+    public void setParallelHydration(Executor executor, int chunkSize) {
+        this.hydrationExecutor  = executor;
+        this.hydrationChunkSize = chunkSize;
     }
 
     /**
@@ -65,9 +131,9 @@ public class EntityBuilder {
      * Build an object from each entry in the cursor, and add those objects
      * to the list.
      * 
-     * @param clazz
      * @param c
-     * @param list
+     * @param autoClose
+     * @param clazz
      * @return
      * @throws SQLException
      * @throws NoSuchMethodException
@@ -75,23 +141,255 @@ public class EntityBuilder {
      */
     public <T> List<T> cursorToObjects(QueryCursor c, boolean autoClose, Class<T> clazz)
             throws SQLException, NoSuchMethodException, Exception {
-        List<T> list = new LinkedList<T>();
         try {
-            List<Method> methods = getAllSetters(clazz, c);
-            while (!c.isAfterLast()) {
-                T o = doCursorToObject(c, false, clazz, methods, entityCache);
-                list.add(o);
-                c.moveToNext();
-            }
+            return cursorToObjects(c, clazz, Integer.MAX_VALUE, null);
         } finally {
             if (autoClose) {
                 //done with the cursor, close it normally
                 c.close();
             }
         }
+    }
+
+    /**
+     * Build objects from up to maxRows rows in the cursor, starting at the current row.  The cursor
+     * is left on the row after the last one read, so this can be called again to read the next rows.
+     * 
+     * Rows for entities that are already in the cache are not read; the cached object is returned
+     * in their place.
+     * 
+     * @param c
+     * @param clazz
+     * @param maxRows
+     * @param built If not null, the objects that were built from the cursor (and not found in the
+     * cache) are added to this list.  These are the objects that still need their references and
+     * collections filled in.
+     * @return The objects for each row, in cursor order
+     * @throws Exception
+     */
+    public <T> List<T> cursorToObjects(QueryCursor c, Class<T> clazz, int maxRows, List<T> built) throws Exception {
+        List<T> list = maxRows < Integer.MAX_VALUE ? new ArrayList<T>(maxRows) : new ArrayList<T>();
+        EntityMapping  mapping       = getMapping(clazz);
+        FieldMapping[] fields        = getColumnFields(mapping, c);
+        int[]          mapperColumns = getMapperColumns(mapping, fields);
+        int            idCol         = -1;
+        for (int ii = 0; ii < fields.length; ii++) {
+            if (fields[ii].isId()) {
+                idCol = ii;
+            }
+        }
+        if (this.hydrationExecutor != null && idCol >= 0) {
+            return cursorToObjectsInParallel(c, clazz, maxRows, built, list, mapping, fields, mapperColumns, idCol);
+        }
+        while (list.size() < maxRows && !c.isAfterLast()) {
+            T o = idCol >= 0 ? entityCache.get(clazz, c.getLong(idCol)) : null;
+            if (o == null) {
+                o = doCursorToObject(c, false, clazz, mapping, fields, mapperColumns, 0, entityCache);
+                if (built != null) {
+                    built.add(o);
+                }
+            }
+            list.add(o);
+            c.moveToNext();
+        }
         return list;
     }
-    
+
+    /**
+     * Read the rows for objects that are not in the cache, build the objects from the rows in
+     * chunks on the hydration executor, and then add them to the cache in cursor order.
+     * 
+     * @param c
+     * @param clazz
+     * @param maxRows
+     * @param built
+     * @param list
+     * @param mapping
+     * @param fields
+     * @param mapperColumns
+     * @param idCol
+     * @return
+     * @throws Exception
+     */
+    private <T> List<T> cursorToObjectsInParallel(QueryCursor c, Class<T> clazz, int maxRows, List<T> built, List<T> list,
+            EntityMapping mapping, FieldMapping[] fields, int[] mapperColumns, int idCol) throws Exception {
+        //the rows to build, and for each object in the list, the row it is built from (or null if it was cached)
+        List<Object[]>         rows    = new ArrayList<Object[]>();
+        List<Integer>          rowOf   = new ArrayList<Integer>();
+        LongObjectMap<Integer> pending = new LongObjectMap<Integer>();
+        while (list.size() < maxRows && !c.isAfterLast()) {
+            long    id  = c.getLong(idCol);
+            T       o   = entityCache.get(clazz, id);
+            Integer row = null;
+            if (o == null) {
+                //the same entity may be in more than one row...only build it once
+                row = pending.get(id);
+                if (row == null) {
+                    row = rows.size();
+                    rows.add(RowCursor.readRow(c, fields));
+                    pending.put(id, row);
+                }
+            }
+            list.add(o);
+            rowOf.add(row);
+            c.moveToNext();
+        }
+        if (rows.isEmpty()) {
+            return list;
+        }
+
+        String[] columns = new String[fields.length];
+        for (int ii = 0; ii < columns.length; ii++) {
+            columns[ii] = c.getColumnName(ii);
+        }
+        List<T> objects = buildRows(clazz, mapping, fields, mapperColumns, columns, rows);
+        for (T o : objects) {
+            entityCache.add(clazz, mapping.getId(o), o);
+            if (built != null) {
+                built.add(o);
+            }
+        }
+        for (int ii = 0; ii < list.size(); ii++) {
+            Integer row = rowOf.get(ii);
+            if (row != null) {
+                list.set(ii, objects.get(row));
+            }
+        }
+        return list;
+    }
+
+    /**
+     * Build an object from each row, hydrationChunkSize rows at a time.  The first chunk is built
+     * on the calling thread, and the rest are submitted to the hydration executor.  The calling
+     * thread then builds any chunk that has not been started yet, so this never waits on a busy
+     * (or full) executor.
+     * 
+     * @param clazz
+     * @param mapping
+     * @param fields
+     * @param mapperColumns
+     * @param columns
+     * @param rows
+     * @return The objects, in row order
+     * @throws Exception
+     */
+    private <T> List<T> buildRows(final Class<T> clazz, final EntityMapping mapping, final FieldMapping[] fields,
+            final int[] mapperColumns, final String[] columns, List<Object[]> rows) throws Exception {
+        if (rows.size() <= this.hydrationChunkSize) {
+            return buildChunk(clazz, mapping, fields, mapperColumns, columns, rows);
+        }
+        List<FutureTask<List<T>>> tasks = new ArrayList<FutureTask<List<T>>>();
+        for (int start = 0; start < rows.size(); start += this.hydrationChunkSize) {
+            final List<Object[]> chunk = rows.subList(start, Math.min(start + this.hydrationChunkSize, rows.size()));
+            FutureTask<List<T>> task = new FutureTask<List<T>>(new Callable<List<T>>() {
+                @Override
+                public List<T> call() throws Exception {
+                    return buildChunk(clazz, mapping, fields, mapperColumns, columns, chunk);
+                }
+            });
+            tasks.add(task);
+            if (start > 0) {
+                try {
+                    this.hydrationExecutor.execute(task);
+                } catch (RejectedExecutionException e) {
+                    //the calling thread will build this chunk
+                }
+            }
+        }
+
+        List<T> objects = new ArrayList<T>(rows.size());
+        try {
+            for (FutureTask<List<T>> task : tasks) {
+                //NOTE: this does nothing if the task was already started on the executor
+                task.run();
+                objects.addAll(task.get());
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            //if any chunk failed, don't bother building the rest
+            for (FutureTask<List<T>> task : tasks) {
+                task.cancel(false);
+            }
+        }
+        return objects;
+    }
+
+    /**
+     * Build an object from each row, without adding them to the entity cache.  This may run on
+     * any thread, so it must only read the mapping.
+     * 
+     * @param clazz
+     * @param mapping
+     * @param fields
+     * @param mapperColumns
+     * @param columns
+     * @param rows
+     * @return
+     * @throws Exception
+     */
+    private <T> List<T> buildChunk(Class<T> clazz, EntityMapping mapping, FieldMapping[] fields,
+            int[] mapperColumns, String[] columns, List<Object[]> rows) throws Exception {
+        List<T>   objects = new ArrayList<T>(rows.size());
+        RowCursor c       = new RowCursor(columns, rows);
+        for (c.moveToFirst(); !c.isAfterLast(); c.moveToNext()) {
+            objects.add(doCursorToObject(c, false, clazz, mapping, fields, mapperColumns, 0, null));
+        }
+        return objects;
+    }
+
+    /**
+     * Get the range of columns that hold the class's columns (in EntityMapping.getColumnNames order),
+     * starting at the offset.
+     * 
+     * @param clazz
+     * @param offset
+     * @return
+     * @throws NoSuchMethodException
+     */
+    public ColumnRange getColumnRange(Class<?> clazz, int offset) throws NoSuchMethodException {
+        EntityMapping mapping = getMapping(clazz);
+        List<FieldMapping> columns = mapping.getColumns();
+        FieldMapping[] fields = new FieldMapping[columns.size()];
+        int idCol = -1;
+        for (int ii = 0; ii < fields.length; ii++) {
+            FieldMapping f = columns.get(ii);
+            if (!f.getAccessor().isWritable()) {
+                throw new NoSuchMethodException("No setter for '" + f.getName() + "' in " + clazz.getCanonicalName());
+            }
+            if (f.isId()) {
+                idCol = offset + ii;
+            }
+            fields[ii] = f;
+        }
+        return new ColumnRange(mapping, fields, getMapperColumns(mapping, fields), offset, idCol);
+    }
+
+    /**
+     * Build an object from a range of columns in the current row in the cursor.  If the object
+     * has already been built, the cached object is returned instead.
+     * 
+     * @param c
+     * @param clazz
+     * @param range
+     * @param built If not null, and the object is built from the cursor, it is added to this list
+     * @return
+     * @throws Exception
+     */
+    public <T> T cursorToObject(QueryCursor c, Class<T> clazz, ColumnRange range, List<T> built) throws Exception {
+        T o = entityCache.get(clazz, c.getLong(range.idCol));
+        if (o == null) {
+            o = doCursorToObject(c, false, clazz, range.mapping, range.fields, range.mapperColumns, range.offset, entityCache);
+            if (built != null) {
+                built.add(o);
+            }
+        }
+        return o;
+    }
+
     /**
      * Build an object from the current row in the cursor.
      * 
@@ -102,7 +400,9 @@ public class EntityBuilder {
      * @throws Exception
      */
     public <T> T cursorToObject(QueryCursor c, boolean autoClose, Class<T> clazz) throws Exception {
-        return doCursorToObject(c, autoClose, clazz, getAllSetters(clazz, c), entityCache);
+        EntityMapping  mapping = getMapping(clazz);
+        FieldMapping[] fields  = getColumnFields(mapping, c);
+        return doCursorToObject(c, autoClose, clazz, mapping, fields, getMapperColumns(mapping, fields), 0, entityCache);
     }
 
     /**
@@ -113,19 +413,35 @@ public class EntityBuilder {
      * @param c
      * @param autoClose
      * @param clazz
-     * @param methods
-     * @param entityCache
+     * @param mapping
+     * @param fields
+     * @param mapperColumns
+     * @param offset The cursor column of the first field
+     * @param entityCache The cache to add the object to, or null to leave it out of the cache
      * @return
      * @throws Exception
      */
-    private <T> T doCursorToObject(QueryCursor c, boolean autoClose, Class<T> clazz, List<Method> methods, EntityCache entityCache) throws Exception {
+    @SuppressWarnings("unchecked")
+    private <T> T doCursorToObject(QueryCursor c, boolean autoClose, Class<T> clazz, EntityMapping mapping,
+            FieldMapping[] fields, int[] mapperColumns, int offset, EntityCache entityCache) throws Exception {
         try {   
-            T instance = clazz.newInstance();
-            for (int ii = 0; ii < c.getColumnCount(); ii++) {
-                this.setValueFromCursor(instance, methods.get(ii), c, ii);
+            T instance;
+            EntityMapper<T> mapper = (EntityMapper<T>) mapping.getMapper();
+            if (mapper != null) {
+                //use the compiled mapper to build the object
+                instance = mapper.newInstance();
+                for (int ii = 0; ii < mapperColumns.length; ii++) {
+                    mapper.readColumn(instance, mapperColumns[ii], c, offset + ii);
+                }
+            } else {
+                instance = clazz.newInstance();
+                for (int ii = 0; ii < fields.length; ii++) {
+                    this.setValueFromCursor(instance, fields[ii], c, offset + ii);
+                }
+            }
+            if (entityCache != null) {
+                entityCache.add(clazz, mapping.getId(instance), instance);
             }
-            Entity entity = new Entity(reflector, instance);
-            entityCache.add(clazz, entity.getId(), instance);
             return instance;
         } finally {
             if (autoClose) {
@@ -135,91 +451,127 @@ public class EntityBuilder {
     }
 
     /**
-     * Get all of the setters exposed by the supplied class that line up
-     * with fields in the cursor.
+     * Get the mapped fields that line up with the columns in the cursor.  This is resolved once
+     * per cursor, so each row can be read by column index.
      * 
-     * @param clazz
+     * @param mapping
      * @param c
      * @return
-     * @throws SecurityException
      * @throws SQLException
      * @throws NoSuchMethodException
      */
-    private List<Method> getAllSetters(Class<?> clazz, QueryCursor c) throws SecurityException, SQLException, NoSuchMethodException {
-        List<Method> methods = new ArrayList<Method>();
-        for (int ii = 0; ii < c.getColumnCount(); ii++) {
+    private FieldMapping[] getColumnFields(EntityMapping mapping, QueryCursor c) throws SQLException, NoSuchMethodException {
+        Class<?> clazz = mapping.getEntityClass();
+        FieldMapping[] fields = new FieldMapping[c.getColumnCount()];
+        for (int ii = 0; ii < fields.length; ii++) {
             String name = c.getColumnName(ii);
-            methods.add(this.reflector.getSetter(clazz, name));
+            FieldMapping f = mapping.getColumn(name);
+            if (f == null || !f.getAccessor().isWritable()) {
+                throw new NoSuchMethodException("No setter for '" + name + "' in " + clazz.getCanonicalName());
+            }
+            fields[ii] = f;
         }        
-        return methods;
+        return fields;
+    }
+
+    /**
+     * Get the compiled mapper's column numbers for the cursor's fields.
+     *
+     * @param mapping
+     * @param fields
+     * @return The column numbers, or null if the entity does not have a mapper
+     */
+    private int[] getMapperColumns(EntityMapping mapping, FieldMapping[] fields) {
+        if (mapping.getMapper() == null) {
+            return null;
+        }
+        int[] columns = new int[fields.length];
+        for (int ii = 0; ii < fields.length; ii++) {
+            columns[ii] = mapping.getMapperColumn(fields[ii]);
+        }
+        return columns;
+    }
+
+    private EntityMapping getMapping(Class<?> clazz) {
+        EntityMapping mapping = this.mappings.get(clazz);
+        if (mapping == null) {
+            throw new RuntimeException("Class " + clazz.getCanonicalName() + " is not an entity class.");
+        }
+        return mapping;
     }
 
     /**
      * Get a specific column value out of the cursor and set the corresponding value in the object.
      *
-     *  Note: this method and getSQLiteType must be kept in sync, since that method defines
+     *  Note: this method and setValueIntoContentValues must be kept in sync, since that method defines
      *  how this method will read.
      *
      * @param o
+     * @param f
      * @param c
      * @param col
      * @throws Exception
      */
-    private void setValueFromCursor(Object o, Method m, QueryCursor c, int col) throws Exception {
-        //use the setter parameter to determine the data type to get from the cursor
-        Class<?> typeClass = m.getParameterTypes()[0];
-        if (int.class.isAssignableFrom(typeClass) || Integer.class.isAssignableFrom(typeClass)) {
-            m.invoke(o, c.getInt(col));
-        } else if (short.class.isAssignableFrom(typeClass) || Short.class.isAssignableFrom(typeClass)) {
-            m.invoke(o, c.getShort(col));
-        } else if (long.class.isAssignableFrom(typeClass) || Long.class.isAssignableFrom(typeClass)) {
-            m.invoke(o, c.getLong(col));
-        } else if (float.class.isAssignableFrom(typeClass) || Float.class.isAssignableFrom(typeClass)) {
-            m.invoke(o, c.getFloat(col));
-        } else if (double.class.isAssignableFrom(typeClass) || Double.class.isAssignableFrom(typeClass)) {
-            m.invoke(o, c.getDouble(col));
-        } else if (boolean.class.isAssignableFrom(typeClass) || Boolean.class.isAssignableFrom(typeClass)) {
-            m.invoke(o, c.getInt(col) == 1);
-        } else if (byte.class.isAssignableFrom(typeClass) || Byte.class.isAssignableFrom(typeClass)) {
-            m.invoke(o, c.getBlob(col)[0]);
-        } else if (char.class.isAssignableFrom(typeClass) || Character.class.isAssignableFrom(typeClass)) {
-            m.invoke(o, c.getString(col).charAt(0));
-        } else if (Enum.class.isAssignableFrom(typeClass)) {
+    private void setValueFromCursor(Object o, FieldMapping f, QueryCursor c, int col) throws Exception {
+        //use the resolved type code to determine the data type to get from the cursor
+        //NOTE: primitives are passed through the typed accessor methods, so the accessor does not have to box them
+        PropertyAccessor a = f.getAccessor();
+        switch (f.getTypeCode()) {
+        case FieldMapping.TYPE_INT:
+            a.setInt(o, c.getInt(col));
+            break;
+        case FieldMapping.TYPE_SHORT:
+            a.setShort(o, c.getShort(col));
+            break;
+        case FieldMapping.TYPE_LONG:
+            a.setLong(o, c.getLong(col));
+            break;
+        case FieldMapping.TYPE_FLOAT:
+            a.setFloat(o, c.getFloat(col));
+            break;
+        case FieldMapping.TYPE_DOUBLE:
+            a.setDouble(o, c.getDouble(col));
+            break;
+        case FieldMapping.TYPE_BOOLEAN:
+            a.setBoolean(o, c.getInt(col) == 1);
+            break;
+        case FieldMapping.TYPE_BYTE:
+            a.setByte(o, c.getBlob(col)[0]);
+            break;
+        case FieldMapping.TYPE_CHAR:
+            a.setChar(o, c.getString(col).charAt(0));
+            break;
+        case FieldMapping.TYPE_ENUM:
             String name = c.getString(col);
-            m.invoke(o, Enum.valueOf((Class<? extends Enum>)typeClass, name));
-        } else if (String.class.isAssignableFrom(typeClass)) {
-            m.invoke(o, c.getString(col));
-        } else if (Date.class.isAssignableFrom(typeClass)) {
+            a.set(o, Enum.valueOf((Class<? extends Enum>)f.getType(), name));
+            break;
+        case FieldMapping.TYPE_STRING:
+            a.set(o, c.getString(col));
+            break;
+        case FieldMapping.TYPE_DATE:
             //NOTE: since dates cannot be < 0, and null long columns are a pain in the butt,
             // use -1 to denote null
             long val = c.getLong(col);
             if (val >= 0) {
-                m.invoke(o, new Date(val));
+                a.set(o, new Date(val));
             } else {
-                m.invoke(o, new Object[]{null});
+                a.set(o, null);
             }
-        } else if (orm.isEntity(typeClass)) {
+            break;
+        case FieldMapping.TYPE_ENTITY:
             //skip these for now...they're processed separately
-/*
-            //NOTE: since entity ids cannot be < 0, and null long columns are a pain in the butt,
-            // use -1 to denote null
-            long val = c.getLong(col);
-            if (val >= 0) {
-                //BIG NOTE: this is a database call, to get the entity
-                m.invoke(o, get(typeClass, val));
-            } else {
-                m.invoke(o, new Object[]{null});
-            } */
-        } else if (Serializable.class.isAssignableFrom(typeClass)) {
+            break;
+        case FieldMapping.TYPE_SERIALIZABLE:
             //unserialize the object
             byte[] bytes = c.getBlob(col);
             ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
             // Deserialize the object
-            Object ro = typeClass.cast(in.readObject());
+            Object ro = f.getType().cast(in.readObject());
             in.close();
-            m.invoke(o, ro);
-        } else {
-            throw new RuntimeException("Unsupported type: " + typeClass.getCanonicalName());
+            a.set(o, ro);
+            break;
+        default:
+            throw new RuntimeException("Unsupported type: " + f.getType().getCanonicalName());
         }
     }
 }
@@ -3,6 +3,8 @@ package org.ormada.entity;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.ormada.util.LongObjectMap;
+
 /**
  * This class is used to maintain a map of all results pulled within a single
  * get operation. This is both an optimization, to ensure we don't fetch the
@@ -14,7 +16,8 @@ import java.util.Map;
  */
 public class EntityCache {
 
-    private Map<Class<?>, Map<Long, Object>> entityMap = new HashMap<Class<?>, Map<Long, Object>>();
+    //NOTE: this is keyed by primitive ids, since a large fetch adds an entry for every row
+    private Map<Class<?>, LongObjectMap<Object>> entityMap = new HashMap<Class<?>, LongObjectMap<Object>>();
 
     /**
      * Add an entity to the cache, identified by the class and id passed in.
@@ -24,13 +27,13 @@ public class EntityCache {
      * @param object
      */
     public <T> void add(Class<T> clazz, long id, T object) {
-        Map<Long, Object> entityForClassMap = entityMap.get(clazz);
+        LongObjectMap<Object> entityForClassMap = entityMap.get(clazz);
         if (entityForClassMap == null) {
-            entityForClassMap = new HashMap<Long, Object>();
+            entityForClassMap = new LongObjectMap<Object>();
             entityMap.put(clazz, entityForClassMap);
         }
-        if (entityForClassMap.containsKey(id)
-                && !entityForClassMap.get(id).equals(object)) {
+        Object old = entityForClassMap.get(id);
+        if (old != null && old != object && !old.equals(object)) {
             throw new RuntimeException(
                     "Attempting to add a duplicate object that does not equal" +
                     " the original object.  This should never happen.");
@@ -46,8 +49,7 @@ public class EntityCache {
      * @return
      */
     public boolean contains(Class<?> clazz, long id) {
-        return entityMap.containsKey(clazz)
-                && entityMap.get(clazz).containsKey(id);
+        return get(clazz, id) != null;
     }
 
     /**
@@ -55,13 +57,11 @@ public class EntityCache {
      * 
      * @param clazz
      * @param id
-     * @return
+     * @return The object, or null if it is not in the cache
      */
+    @SuppressWarnings("unchecked")
     public <T> T get(Class<T> clazz, long id) {
-        if (contains(clazz, id)) {
-            return (T) entityMap.get(clazz).get(id);
-        } else {
-            return null;
-        }
+        LongObjectMap<Object> entityForClassMap = entityMap.get(clazz);
+        return entityForClassMap != null ? (T) entityForClassMap.get(id) : null;
     }
 }
@@ -0,0 +1,69 @@
+package org.ormada.entity;
+
+import org.ormada.dialect.QueryCursor;
+import org.ormada.dialect.ValueSet;
+
+/**
+ * This interface defines an API for a compiled entity mapper.  A mapper reads and writes
+ * the columns of one entity class by calling its getters and setters directly, instead of
+ * going through the Reflector.
+ *
+ * Mappers are generated at build time by the ORMada annotation processor (ormada-apt) for
+ * classes marked with @Mapped, and are named &lt;ClassName&gt;_Mapper in the entity's package.
+ * ORMDataSource finds them when it is constructed, and uses them in place of reflection as
+ * long as they agree with the entity class.
+ *
+ * Only the columns are handled by the mapper; entity references are still fetched, and
+ * collections still saved and fetched, by ORMDataSource.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public interface EntityMapper<T> {
+
+    public Class<T> getEntityClass();
+
+    /**
+     * Get the names of the columns this mapper reads and writes.  The index of a column
+     * in this array is the column number passed to readColumn.
+     *
+     * @return
+     */
+    public String[] getColumnNames();
+
+    /**
+     * Get the type codes (as defined in FieldMapping) of the columns, in the same order as
+     * getColumnNames.
+     *
+     * @return
+     */
+    public int[] getColumnTypes();
+
+    public T newInstance();
+
+    public long getId(T o);
+
+    public void setId(T o, long id);
+
+    /**
+     * Write the columns of the object into the value set, using the same conversions as
+     * ORMDataSource uses for reflected fields.
+     *
+     * @param o
+     * @param values
+     * @param includeId True to include the id column, false if not
+     */
+    public void writeColumns(T o, ValueSet values, boolean includeId);
+
+    /**
+     * Read one column from the current row of the cursor, and set it into the object.
+     * Entity references are skipped, as they are filled in separately.
+     *
+     * @param o
+     * @param column The mapper's column number (index into getColumnNames)
+     * @param c
+     * @param col The cursor column
+     * @throws Exception
+     */
+    public void readColumn(T o, int column, QueryCursor c, int col) throws Exception;
+}
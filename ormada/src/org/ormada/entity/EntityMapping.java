@@ -0,0 +1,229 @@
+package org.ormada.entity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable description of how one entity class maps onto the data store.  This is
+ * built once per entity class when the ORMDataSource is constructed, and holds everything
+ * the save and fetch paths would otherwise rediscover through reflection on every call.
+ *
+ * Columns are kept in a fixed order, so a query built from getColumnNames will return
+ * the fields in the same order as getColumns.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class EntityMapping {
+
+    private final Class<?>           entityClass;
+    private final String             tableName;
+    private final FieldMapping       idField;
+    private final List<FieldMapping> columns;
+    private final List<FieldMapping> entityFields;
+    private final List<FieldMapping> collections;
+    private final List<FieldMapping> fields;
+    private final String[]           columnNames;
+
+    private final Map<String, FieldMapping> fieldsByName;
+    private final Map<String, FieldMapping> columnsByLowerName;
+
+    private final EntityMapper<?>       mapper;
+    private final Map<String, Integer>  mapperColumns;
+
+    /**
+     *
+     * @param entityClass
+     * @param tableName
+     * @param columns
+     * @param collections
+     * @param mapper The compiled mapper for this class, or null to use the reflected fields
+     */
+    public EntityMapping(Class<?> entityClass, String tableName, List<FieldMapping> columns, List<FieldMapping> collections,
+            EntityMapper<?> mapper) {
+        this.entityClass = entityClass;
+        this.tableName   = tableName;
+        this.columns     = Collections.unmodifiableList(new ArrayList<FieldMapping>(columns));
+        this.collections = Collections.unmodifiableList(new ArrayList<FieldMapping>(collections));
+
+        List<FieldMapping> fields = new ArrayList<FieldMapping>(columns);
+        fields.addAll(collections);
+        this.fields = Collections.unmodifiableList(fields);
+
+        FieldMapping id = null;
+        List<FieldMapping> entityFields = new ArrayList<FieldMapping>();
+        this.columnNames        = new String[columns.size()];
+        this.fieldsByName       = new HashMap<String, FieldMapping>();
+        this.columnsByLowerName = new HashMap<String, FieldMapping>();
+        int ii = 0;
+        for (FieldMapping f : columns) {
+            if (f.isId()) {
+                id = f;
+            }
+            if (f.isEntity()) {
+                entityFields.add(f);
+            }
+            this.columnNames[ii++] = f.getName();
+            this.fieldsByName.put(f.getName(), f);
+            //some databases report column names in a different case than they were created with
+            this.columnsByLowerName.put(f.getName().toLowerCase(), f);
+        }
+        for (FieldMapping f : collections) {
+            this.fieldsByName.put(f.getName(), f);
+        }
+        this.idField      = id;
+        this.entityFields = Collections.unmodifiableList(entityFields);
+
+        this.mapper        = mapper;
+        this.mapperColumns = new HashMap<String, Integer>();
+        if (mapper != null) {
+            String[] names = mapper.getColumnNames();
+            for (int jj = 0; jj < names.length; jj++) {
+                this.mapperColumns.put(names[jj], jj);
+            }
+        }
+    }
+
+    public Class<?> getEntityClass() {
+        return entityClass;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * Get the id field for this entity.
+     *
+     * @return
+     */
+    public FieldMapping getIdField() {
+        return idField;
+    }
+
+    /**
+     * Get all of the fields stored in this entity's table, including the id and any
+     * entity references.
+     *
+     * @return
+     */
+    public List<FieldMapping> getColumns() {
+        return columns;
+    }
+
+    /**
+     * Get the names of the columns in this entity's table, in the same order as getColumns.
+     *
+     * NOTE: this returns a copy, as the array may be handed to a Dialect.
+     *
+     * @return
+     */
+    public String[] getColumnNames() {
+        return columnNames.clone();
+    }
+
+    /**
+     * Get the singular entity fields (references to other entities) in this entity.
+     *
+     * @return
+     */
+    public List<FieldMapping> getEntityFields() {
+        return entityFields;
+    }
+
+    /**
+     * Get the collection fields in this entity, which are stored in join tables.
+     *
+     * @return
+     */
+    public List<FieldMapping> getCollections() {
+        return collections;
+    }
+
+    /**
+     * Get all persisted fields in this entity: the columns followed by the collections.
+     *
+     * @return
+     */
+    public List<FieldMapping> getFields() {
+        return fields;
+    }
+
+    /**
+     * Look up a column or collection field by name.
+     *
+     * @param name
+     * @return The field, or null if no persisted field exists with that name
+     */
+    public FieldMapping getField(String name) {
+        return fieldsByName.get(name);
+    }
+
+    /**
+     * Look up a column by the name reported by a cursor.  This is case insensitive, as some
+     * databases do not preserve the case of the column names.
+     *
+     * @param columnName
+     * @return The column field, or null if no column exists with that name
+     */
+    public FieldMapping getColumn(String columnName) {
+        FieldMapping f = fieldsByName.get(columnName);
+        if (f == null || f.isCollection()) {
+            f = columnsByLowerName.get(columnName.toLowerCase());
+        }
+        return f;
+    }
+
+    /**
+     * Get the compiled mapper for this entity.
+     *
+     * @return The mapper, or null if the entity is accessed through the Reflector
+     */
+    public EntityMapper<?> getMapper() {
+        return mapper;
+    }
+
+    /**
+     * Get the mapper's column number for a column field.
+     *
+     * @param f
+     * @return The column number, or -1 if there is no mapper or it does not have the column
+     */
+    public int getMapperColumn(FieldMapping f) {
+        Integer col = mapperColumns.get(f.getName());
+        return col != null ? col : -1;
+    }
+
+    /**
+     * Get the id of an object of this entity class, using the mapper if there is one, or
+     * the id field's accessor if not.
+     *
+     * @param o
+     * @return
+     */
+    @SuppressWarnings("unchecked")
+    public long getId(Object o) {
+        if (mapper != null) {
+            return ((EntityMapper<Object>) mapper).getId(o);
+        }
+        return idField.getAccessor().getLong(o);
+    }
+
+    /**
+     * Set the id of an object of this entity class.
+     *
+     * @param o
+     * @param id
+     */
+    @SuppressWarnings("unchecked")
+    public void setId(Object o, long id) {
+        if (mapper != null) {
+            ((EntityMapper<Object>) mapper).setId(o, id);
+        } else {
+            idField.getAccessor().setLong(o, id);
+        }
+    }
+}
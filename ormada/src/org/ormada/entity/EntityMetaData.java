@@ -2,6 +2,7 @@ package org.ormada.entity;
 
 import java.lang.reflect.Method;
 
+import org.ormada.reflect.PropertyAccessor;
 import org.ormada.reflect.Reflector;
 
 /**
@@ -53,4 +54,15 @@ public class EntityMetaData {
             throws NoSuchMethodException {
         return this.reflector.getSetter(this.entityClass, ID_FIELD);
     }
+
+    /**
+     * Get the accessor for the id field for this entity class.
+     *
+     * @return
+     * @throws NoSuchMethodException
+     */
+    public PropertyAccessor getIdAccessor()
+            throws NoSuchMethodException {
+        return this.reflector.getAccessor(this.entityClass, ID_FIELD);
+    }
 }
@@ -0,0 +1,211 @@
+package org.ormada.entity;
+
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.util.Date;
+
+import org.ormada.reflect.PropertyAccessor;
+
+/**
+ * An immutable descriptor for one persisted field of an entity class.  A field is either
+ * a column in the entity's table (simple values, entity references and the id) or a
+ * collection, which is stored in a join table.
+ *
+ * The type code is resolved once when the field is mapped, so the save and fetch paths can
+ * switch on it instead of walking the isAssignableFrom chain for every value.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class FieldMapping {
+
+    public static final int TYPE_INT          = 0;
+    public static final int TYPE_SHORT        = 1;
+    public static final int TYPE_LONG         = 2;
+    public static final int TYPE_FLOAT        = 3;
+    public static final int TYPE_DOUBLE       = 4;
+    public static final int TYPE_BOOLEAN      = 5;
+    public static final int TYPE_BYTE         = 6;
+    public static final int TYPE_CHAR         = 7;
+    public static final int TYPE_ENUM         = 8;
+    public static final int TYPE_STRING       = 9;
+    public static final int TYPE_DATE         = 10;
+    public static final int TYPE_ENTITY       = 11;
+    public static final int TYPE_SERIALIZABLE = 12;
+    public static final int TYPE_UNSUPPORTED  = -1;
+
+    private final String   name;
+    private final Class<?> type;
+    private final int      typeCode;
+    private final Method   getter;
+    private final Method   setter;
+    private final Method   adder;
+    private final PropertyAccessor accessor;
+    private final boolean  id;
+    private final boolean  reference;
+    private final boolean  text;
+    private final Class<?> valueClass;
+    private final int      valueTypeCode;
+
+    /**
+     * Construct a mapping for a column field.
+     *
+     * @param name
+     * @param getter
+     * @param setter The setter, or null if the field cannot be written to
+     * @param accessor
+     * @param typeCode
+     * @param id
+     * @param reference
+     * @param text
+     */
+    public FieldMapping(String name, Method getter, Method setter, PropertyAccessor accessor, int typeCode,
+            boolean id, boolean reference, boolean text) {
+        this(name, getter, setter, null, accessor, typeCode, id, reference, text, null, TYPE_UNSUPPORTED);
+    }
+
+    /**
+     * Construct a mapping for a collection field.
+     *
+     * @param name
+     * @param getter
+     * @param setter The setter, or null if the collection is populated using an adder
+     * @param adder The adder, or null if the collection is populated using a setter
+     * @param accessor
+     * @param reference
+     * @param text
+     * @param valueClass The class of the values in the collection, as defined by @OneToMany
+     * @param valueTypeCode
+     */
+    public FieldMapping(String name, Method getter, Method setter, Method adder, PropertyAccessor accessor,
+            boolean reference, boolean text, Class<?> valueClass, int valueTypeCode) {
+        this(name, getter, setter, adder, accessor, TYPE_UNSUPPORTED, false, reference, text, valueClass, valueTypeCode);
+    }
+
+    private FieldMapping(String name, Method getter, Method setter, Method adder, PropertyAccessor accessor, int typeCode,
+            boolean id, boolean reference, boolean text, Class<?> valueClass, int valueTypeCode) {
+        this.name          = name;
+        this.type          = getter.getReturnType();
+        this.typeCode      = typeCode;
+        this.getter        = getter;
+        this.setter        = setter;
+        this.adder         = adder;
+        this.accessor      = accessor;
+        this.id            = id;
+        this.reference     = reference;
+        this.text          = text;
+        this.valueClass    = valueClass;
+        this.valueTypeCode = valueTypeCode;
+    }
+
+    /**
+     * Resolve the type code for a field or collection value type.
+     *
+     * NOTE: this must be kept in sync with the value set and cursor conversions, since it
+     * defines how those methods will read and write.
+     *
+     * @param typeClass
+     * @param entity True if the type is a registered entity class
+     * @return
+     */
+    public static int typeCodeOf(Class<?> typeClass, boolean entity) {
+        if (int.class.isAssignableFrom(typeClass) || Integer.class.isAssignableFrom(typeClass)) {
+            return TYPE_INT;
+        } else if (short.class.isAssignableFrom(typeClass) || Short.class.isAssignableFrom(typeClass)) {
+            return TYPE_SHORT;
+        } else if (long.class.isAssignableFrom(typeClass) || Long.class.isAssignableFrom(typeClass)) {
+            return TYPE_LONG;
+        } else if (float.class.isAssignableFrom(typeClass) || Float.class.isAssignableFrom(typeClass)) {
+            return TYPE_FLOAT;
+        } else if (double.class.isAssignableFrom(typeClass) || Double.class.isAssignableFrom(typeClass)) {
+            return TYPE_DOUBLE;
+        } else if (boolean.class.isAssignableFrom(typeClass) || Boolean.class.isAssignableFrom(typeClass)) {
+            return TYPE_BOOLEAN;
+        } else if (byte.class.isAssignableFrom(typeClass) || Byte.class.isAssignableFrom(typeClass)) {
+            return TYPE_BYTE;
+        } else if (char.class.isAssignableFrom(typeClass) || Character.class.isAssignableFrom(typeClass)) {
+            return TYPE_CHAR;
+        } else if (Enum.class.isAssignableFrom(typeClass)) {
+            return TYPE_ENUM;
+        } else if (String.class.isAssignableFrom(typeClass)) {
+            return TYPE_STRING;
+        } else if (Date.class.isAssignableFrom(typeClass)) {
+            return TYPE_DATE;
+        } else if (entity) {
+            return TYPE_ENTITY;
+        } else if (Serializable.class.isAssignableFrom(typeClass)) {
+            return TYPE_SERIALIZABLE;
+        }
+        return TYPE_UNSUPPORTED;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Class<?> getType() {
+        return type;
+    }
+
+    public int getTypeCode() {
+        return typeCode;
+    }
+
+    public Method getGetter() {
+        return getter;
+    }
+
+    public Method getSetter() {
+        return setter;
+    }
+
+    public Method getAdder() {
+        return adder;
+    }
+
+    /**
+     * Get the accessor used to read and write this field's value.
+     *
+     * @return
+     */
+    public PropertyAccessor getAccessor() {
+        return accessor;
+    }
+
+    public boolean isId() {
+        return id;
+    }
+
+    public boolean isReference() {
+        return reference;
+    }
+
+    public boolean isText() {
+        return text;
+    }
+
+    public boolean isCollection() {
+        return valueClass != null;
+    }
+
+    public boolean isEntity() {
+        return typeCode == TYPE_ENTITY;
+    }
+
+    public Class<?> getValueClass() {
+        return valueClass;
+    }
+
+    public int getValueTypeCode() {
+        return valueTypeCode;
+    }
+
+    public boolean isEntityCollection() {
+        return valueTypeCode == TYPE_ENTITY;
+    }
+
+    @Override
+    public String toString() {
+        return getter.getDeclaringClass().getSimpleName() + "#" + name;
+    }
+}
@@ -1,23 +1,113 @@
 package org.ormada.reflect;
 
 import java.lang.reflect.Method;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-
-import org.ormada.util.Profiler;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A utility class
- * 
+ *
+ * Lookups are cached in a table per class, keyed by the class itself and then by field name,
+ * so a cache hit does not build any strings.  The tables are concurrent, which makes one
+ * reflector (and the ORMDataSource that owns it) safe to share between threads.
+ *
+ * NOTE: this would be a natural fit for ClassValue, but that is not available on Java 6 or Android.
+ *
  * @author thejenix
  *
  */
 public class DefaultReflector implements Reflector {
 
-    private Map<String, Method> reflCache = new HashMap<String, Method>();
-    private Profiler addProf = new Profiler("Add", 100);
-    private Profiler getProf = new Profiler("Get", 100);
-    private Profiler setProf = new Profiler("Set", 100);
+    /**
+     * A cached adder, along with the type it was looked up with.
+     *
+     */
+    private static class Adder {
+        final Class<?> fieldType;
+        final Method   method;
+
+        Adder(Class<?> fieldType, Method method) {
+            this.fieldType = fieldType;
+            this.method    = method;
+        }
+    }
+
+    /**
+     * The cached methods and accessors for one class.
+     *
+     */
+    private static class ClassTable {
+
+        //all public methods of the class, indexed by name...used to resolve cache misses
+        // without going through getMethod (and NoSuchMethodException)
+        final Map<String, List<Method>> methods = new HashMap<String, List<Method>>();
+
+        final ConcurrentMap<String, Method>           getters   = new ConcurrentHashMap<String, Method>();
+        final ConcurrentMap<String, Method>           setters   = new ConcurrentHashMap<String, Method>();
+        final ConcurrentMap<String, Adder>            adders    = new ConcurrentHashMap<String, Adder>();
+        final ConcurrentMap<String, PropertyAccessor> accessors = new ConcurrentHashMap<String, PropertyAccessor>();
+
+        ClassTable(Class<?> clazz) {
+            for (Method m : clazz.getMethods()) {
+                List<Method> named = methods.get(m.getName());
+                if (named == null) {
+                    named = new ArrayList<Method>(1);
+                    methods.put(m.getName(), named);
+                }
+                named.add(m);
+            }
+        }
+
+        /**
+         * Find a public method by name and parameter types, the same way Class.getMethod does,
+         * but return null instead of throwing if it does not exist.
+         *
+         * @param name
+         * @param parameterTypes
+         * @return
+         */
+        Method find(String name, Class<?> ... parameterTypes) {
+            List<Method> named = methods.get(name);
+            if (named == null) {
+                return null;
+            }
+            Method found = null;
+            for (Method m : named) {
+                Class<?>[] params = m.getParameterTypes();
+                if (params.length != parameterTypes.length) {
+                    continue;
+                }
+                boolean matches = true;
+                for (int ii = 0; matches && ii < params.length; ii++) {
+                    matches = params[ii] == parameterTypes[ii];
+                }
+                //like getMethod, prefer the most specific return type (e.g. over a bridge method)
+                if (matches && (found == null || found.getReturnType().isAssignableFrom(m.getReturnType()))) {
+                    found = m;
+                }
+            }
+            return found;
+        }
+    }
+
+    private final ConcurrentMap<Class<?>, ClassTable> tables = new ConcurrentHashMap<Class<?>, ClassTable>();
+
+    private ClassTable getTable(Class<?> clazz) {
+        ClassTable table = tables.get(clazz);
+        if (table == null) {
+            //NOTE: two threads may build the same table at once...that's harmless, as they're equivalent
+            table = new ClassTable(clazz);
+            ClassTable existing = tables.putIfAbsent(clazz, table);
+            if (existing != null) {
+                table = existing;
+            }
+        }
+        return table;
+    }
 
     /* (non-Javadoc)
      * @see org.ormada.Reflector#getFieldType(java.lang.Class, java.lang.String)
@@ -36,27 +126,18 @@ public class DefaultReflector implements Reflector {
      */
     @Override
     public Method getGetter(Class<?> clazz, String field) throws SecurityException, NoSuchMethodException {
-        Method m = null;
-        getProf.enter();
-        String cacheKey = clazz.getCanonicalName() + "#get" + field;
-        m = reflCache.get(cacheKey);
+        ClassTable table = getTable(clazz);
+        Method m = table.getters.get(field);
         if (m == null) {
-            try {
-                if (m == null) {
-                    String name = buildMethodName("is", field);
-                    m = clazz.getMethod(name);
-                    reflCache.put(cacheKey, m);
-                }
-            } catch (NoSuchMethodException nme) {
-                if (m == null) {
-                    String name = buildMethodName("get", field);
-                    m = clazz.getMethod(name);
-                    reflCache.put(cacheKey, m);
-                }
+            m = table.find(buildMethodName("is", field));
+            if (m == null) {
+                m = table.find(buildMethodName("get", field));
+            }
+            if (m == null) {
+                throw new NoSuchMethodException(clazz.getCanonicalName() + "." + buildMethodName("get", field) + "()");
             }
-            //let this one throw
+            table.getters.put(field, m);
         }
-        getProf.exit();
         return m;
     }
 
@@ -78,37 +159,76 @@ public class DefaultReflector implements Reflector {
      */
     @Override
     public Method getAdder(Class<?> clazz, String field, Class<?> fieldType) throws SecurityException, NoSuchMethodException {
-        addProf.enter();
-        String cacheKey = clazz.getCanonicalName() + "#add" + field + "(" + fieldType.getCanonicalName() + ")";
-        Method m = reflCache.get(cacheKey);
+        ClassTable table = getTable(clazz);
+        //NOTE: the cached adder is only good for the type it was looked up with
+        Adder cached = table.adders.get(field);
+        if (cached != null && cached.fieldType == fieldType) {
+            return cached.method;
+        }
+        String name = buildMethodName("add", toSingular(field));
+        Method m = table.find(name, fieldType);
         if (m == null) {
-            String name = buildMethodName("add", toSingular(field));
-            m = clazz.getMethod(name, fieldType);
-            reflCache.put(cacheKey, m);
+            throw new NoSuchMethodException(clazz.getCanonicalName() + "." + name + "(" + fieldType.getCanonicalName() + ")");
         }
-        
-        addProf.exit();
+        table.adders.put(field, new Adder(fieldType, m));
         return m;
     }
-    
+
     /* (non-Javadoc)
      * @see org.ormada.Reflector#getSetter(java.lang.Class, java.lang.String)
      */
     @Override
     public Method getSetter(Class<?> clazz, String field) throws SecurityException, NoSuchMethodException {
-        setProf.enter();
         //NOTE: optimization here to eschew the valueClass from the cacheKey...this should speed things up
         // on android, but will also mean that an Entity class cannot have 2 setters with different parameters
         //...for a persisted field...this should not be an issue.
-        String cacheKey = clazz.getCanonicalName() + "#set" + field + "()";
-        Method m = reflCache.get(cacheKey);
+        ClassTable table = getTable(clazz);
+        Method m = table.setters.get(field);
         if (m == null) {
             Class<?> valueClass = getFieldType(clazz, field);
             String name = buildMethodName("set", field);
-            m = clazz.getMethod(name, valueClass);
-            reflCache.put(cacheKey, m);
+            m = table.find(name, valueClass);
+            if (m == null) {
+                throw new NoSuchMethodException(clazz.getCanonicalName() + "." + name + "(" + valueClass.getCanonicalName() + ")");
+            }
+            table.setters.put(field, m);
         }
-        setProf.exit();
         return m;
     }
+
+    /* (non-Javadoc)
+     * @see org.ormada.Reflector#getAccessor(java.lang.Class, java.lang.String)
+     */
+    @Override
+    public PropertyAccessor getAccessor(Class<?> clazz, String field) throws SecurityException, NoSuchMethodException {
+        ClassTable table = getTable(clazz);
+        PropertyAccessor a = table.accessors.get(field);
+        if (a == null) {
+            Method g = getGetter(clazz, field);
+            Method s = null;
+            try {
+                s = getSetter(clazz, field);
+            } catch (NoSuchMethodException e) {
+                //read only field...the accessor will report that it is not writable
+            }
+            a = createAccessor(g, s);
+            PropertyAccessor existing = table.accessors.putIfAbsent(field, a);
+            if (existing != null) {
+                a = existing;
+            }
+        }
+        return a;
+    }
+
+    /**
+     * Create the accessor for a getter and (optional) setter.  Subclasses may override this
+     * to provide a faster accessor on platforms that support it.
+     *
+     * @param getter
+     * @param setter The setter, or null if the field cannot be written to
+     * @return
+     */
+    protected PropertyAccessor createAccessor(Method getter, Method setter) {
+        return new MethodPropertyAccessor(getter, setter);
+    }
 }
@@ -0,0 +1,132 @@
+package org.ormada.reflect;
+
+import java.lang.reflect.Method;
+
+/**
+ * A property accessor that calls the getter and setter using Method.invoke.  This works on
+ * every platform, but boxes every primitive value that passes through it.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class MethodPropertyAccessor implements PropertyAccessor {
+
+    private final Method getter;
+    private final Method setter;
+
+    /**
+     *
+     * @param getter
+     * @param setter The setter, or null if the property cannot be written to
+     */
+    public MethodPropertyAccessor(Method getter, Method setter) {
+        this.getter = getter;
+        this.setter = setter;
+    }
+
+    @Override
+    public boolean isWritable() {
+        return setter != null;
+    }
+
+    @Override
+    public Object get(Object o) {
+        try {
+            return getter.invoke(o);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public int getInt(Object o) {
+        return (Integer) get(o);
+    }
+
+    @Override
+    public short getShort(Object o) {
+        return (Short) get(o);
+    }
+
+    @Override
+    public long getLong(Object o) {
+        return (Long) get(o);
+    }
+
+    @Override
+    public float getFloat(Object o) {
+        return (Float) get(o);
+    }
+
+    @Override
+    public double getDouble(Object o) {
+        return (Double) get(o);
+    }
+
+    @Override
+    public boolean getBoolean(Object o) {
+        return (Boolean) get(o);
+    }
+
+    @Override
+    public byte getByte(Object o) {
+        return (Byte) get(o);
+    }
+
+    @Override
+    public char getChar(Object o) {
+        return (Character) get(o);
+    }
+
+    @Override
+    public void set(Object o, Object value) {
+        if (setter == null) {
+            throw new UnsupportedOperationException("No setter for " + getter.getDeclaringClass().getCanonicalName() + "#" + getter.getName());
+        }
+        try {
+            setter.invoke(o, value);
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    @Override
+    public void setInt(Object o, int value) {
+        set(o, value);
+    }
+
+    @Override
+    public void setShort(Object o, short value) {
+        set(o, value);
+    }
+
+    @Override
+    public void setLong(Object o, long value) {
+        set(o, value);
+    }
+
+    @Override
+    public void setFloat(Object o, float value) {
+        set(o, value);
+    }
+
+    @Override
+    public void setDouble(Object o, double value) {
+        set(o, value);
+    }
+
+    @Override
+    public void setBoolean(Object o, boolean value) {
+        set(o, value);
+    }
+
+    @Override
+    public void setByte(Object o, byte value) {
+        set(o, value);
+    }
+
+    @Override
+    public void setChar(Object o, char value) {
+        set(o, value);
+    }
+}
@@ -0,0 +1,54 @@
+package org.ormada.reflect;
+
+/**
+ * This interface defines an API for reading and writing one property of an entity class.
+ *
+ * The typed methods allow an implementation to move primitive values in and out of an
+ * object without boxing them.  Calling a typed method on a property of a different type
+ * is an error; the generic get and set methods work for any property.
+ *
+ * Any exception raised by the underlying getter or setter is rethrown as a RuntimeException.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public interface PropertyAccessor {
+
+    public boolean isWritable();
+
+    public Object get(Object o);
+
+    public int getInt(Object o);
+
+    public short getShort(Object o);
+
+    public long getLong(Object o);
+
+    public float getFloat(Object o);
+
+    public double getDouble(Object o);
+
+    public boolean getBoolean(Object o);
+
+    public byte getByte(Object o);
+
+    public char getChar(Object o);
+
+    public void set(Object o, Object value);
+
+    public void setInt(Object o, int value);
+
+    public void setShort(Object o, short value);
+
+    public void setLong(Object o, long value);
+
+    public void setFloat(Object o, float value);
+
+    public void setDouble(Object o, double value);
+
+    public void setBoolean(Object o, boolean value);
+
+    public void setByte(Object o, byte value);
+
+    public void setChar(Object o, char value);
+}
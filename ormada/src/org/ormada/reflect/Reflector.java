@@ -26,4 +26,17 @@ public interface Reflector {
     public Method getSetter(Class<?> clazz, String field)
             throws SecurityException, NoSuchMethodException;
 
+    /**
+     * Get an accessor for reading and writing the field.  The field must have a getter,
+     * but need not have a setter (see PropertyAccessor.isWritable).
+     *
+     * @param clazz
+     * @param field
+     * @return
+     * @throws SecurityException
+     * @throws NoSuchMethodException If the field does not have a getter
+     */
+    public PropertyAccessor getAccessor(Class<?> clazz, String field)
+            throws SecurityException, NoSuchMethodException;
+
 }
\ No newline at end of file
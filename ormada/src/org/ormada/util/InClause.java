@@ -0,0 +1,89 @@
+package org.ormada.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A "column in (?,...)" where clause over a chunk of ids, with the ids as bound parameters.
+ *
+ * Large id sets are split into several clauses, and each clause is padded (by repeating its
+ * last id) up to one of a few fixed sizes.  This keeps the SQL short, and keeps the number of
+ * distinct statements small, so the database and the dialect can reuse them.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class InClause {
+
+    //NOTE: the largest chunk must stay under SQLite's default limit of 999 bound parameters
+    private static final int[] CHUNK_SIZES = {1, 10, 100, 500};
+
+    private static final int MAX_CHUNK_SIZE = CHUNK_SIZES[CHUNK_SIZES.length - 1];
+
+    private final String   where;
+    private final String[] params;
+
+    private InClause(String where, String[] params) {
+        this.where  = where;
+        this.params = params;
+    }
+
+    public String getWhere() {
+        return where;
+    }
+
+    public String[] getParams() {
+        return params;
+    }
+
+    /**
+     * Split the ids into in clauses on the column.
+     *
+     * @param column
+     * @param ids
+     * @return The clauses, or an empty list if there are no ids
+     */
+    public static List<InClause> split(String column, Collection<Long> ids) {
+        List<InClause> clauses = new ArrayList<InClause>((ids.size() + MAX_CHUNK_SIZE - 1) / MAX_CHUNK_SIZE);
+        Iterator<Long> it = ids.iterator();
+        int remaining = ids.size();
+        while (remaining > 0) {
+            int count = Math.min(remaining, MAX_CHUNK_SIZE);
+            int size  = chunkSize(count);
+            String[] params = new String[size];
+            for (int ii = 0; ii < count; ii++) {
+                params[ii] = it.next().toString();
+            }
+            //pad out the chunk with the last id, which does not change the result
+            for (int ii = count; ii < size; ii++) {
+                params[ii] = params[count - 1];
+            }
+            clauses.add(new InClause(buildWhere(column, size), params));
+            remaining -= count;
+        }
+        return clauses;
+    }
+
+    private static int chunkSize(int count) {
+        for (int size : CHUNK_SIZES) {
+            if (count <= size) {
+                return size;
+            }
+        }
+        return MAX_CHUNK_SIZE;
+    }
+
+    private static String buildWhere(String column, int size) {
+        if (size == 1) {
+            return column + " = ?";
+        }
+        StringBuilder builder = new StringBuilder(column.length() + 6 + size * 2);
+        builder.append(column).append(" in (?");
+        for (int ii = 1; ii < size; ii++) {
+            builder.append(",?");
+        }
+        return builder.append(")").toString();
+    }
+}
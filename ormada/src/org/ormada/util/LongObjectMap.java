@@ -0,0 +1,125 @@
+package org.ormada.util;
+
+/**
+ * A map from primitive long keys to objects, using open addressing (linear probing) over parallel
+ * arrays.  This avoids boxing the keys and allocating an entry for each mapping, which matters for
+ * maps that hold an entry for every row of a large fetch.
+ *
+ * Values may not be null, and mappings cannot be removed.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class LongObjectMap<V> {
+
+    private static final int DEFAULT_CAPACITY = 16;
+
+    private long[]   keys;
+    private Object[] values;
+    private int      size;
+    //resize when the table is more than half full, to keep probe sequences short
+    private int      threshold;
+
+    public LongObjectMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * 
+     * @param expectedSize The number of mappings to size the table for
+     */
+    public LongObjectMap(int expectedSize) {
+        int capacity = DEFAULT_CAPACITY;
+        while (capacity / 2 < expectedSize) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        this.keys      = new long[capacity];
+        this.values    = new Object[capacity];
+        this.threshold = capacity / 2;
+    }
+
+    private static int hash(long key) {
+        //spread the bits, since ids are usually sequential
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * Get the value mapped to the key.
+     * 
+     * @param key
+     * @return The value, or null if the key is not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        int mask = this.keys.length - 1;
+        for (int ii = hash(key) & mask; this.values[ii] != null; ii = (ii + 1) & mask) {
+            if (this.keys[ii] == key) {
+                return (V) this.values[ii];
+            }
+        }
+        return null;
+    }
+
+    public boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Map the key to the value.
+     * 
+     * @param key
+     * @param value
+     * @return The value previously mapped to the key, or null if the key was not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Values may not be null");
+        }
+        int mask = this.keys.length - 1;
+        int ii   = hash(key) & mask;
+        for (; this.values[ii] != null; ii = (ii + 1) & mask) {
+            if (this.keys[ii] == key) {
+                V old = (V) this.values[ii];
+                this.values[ii] = value;
+                return old;
+            }
+        }
+        this.keys[ii]   = key;
+        this.values[ii] = value;
+        if (++this.size > this.threshold) {
+            rehash();
+        }
+        return null;
+    }
+
+    private void rehash() {
+        long[]   oldKeys   = this.keys;
+        Object[] oldValues = this.values;
+        allocate(oldKeys.length * 2);
+        int mask = this.keys.length - 1;
+        for (int jj = 0; jj < oldKeys.length; jj++) {
+            if (oldValues[jj] != null) {
+                int ii = hash(oldKeys[jj]) & mask;
+                while (this.values[ii] != null) {
+                    ii = (ii + 1) & mask;
+                }
+                this.keys[ii]   = oldKeys[jj];
+                this.values[ii] = oldValues[jj];
+            }
+        }
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+}
@@ -4,12 +4,15 @@ package org.ormada.util;
  * A basic method profiler, that will log accumulated method time and print out total time and time per n number of calls,
  * where n is a definible threshold.
  * 
+ * The profiler may be shared between threads: each thread times its own calls, and the times are
+ * accumulated together.
+ * 
  * @author Jesse Rosalia
  *
  */
 public class Profiler {
 
-    private long enterTime         = 0;
+    private final ThreadLocal<Long> enterTime = new ThreadLocal<Long>();
     private long accumulatedTime   = 0;
     private int  counter           = 0;
     private int  counterThresholds = 0;
@@ -21,12 +24,20 @@ public class Profiler {
     }
 
     public void enter() {
-        enterTime = System.currentTimeMillis();
+        enterTime.set(System.currentTimeMillis());
     }
     
     public void exit() {
         long exitTime = System.currentTimeMillis();
-        accumulatedTime += exitTime - enterTime;
+        Long enter = enterTime.get();
+        if (enter == null) {
+            return;
+        }
+        accumulate(exitTime - enter);
+    }
+
+    private synchronized void accumulate(long elapsed) {
+        accumulatedTime += elapsed;
         
         if (++this.counter == this.counterThresholds) {
             System.out.println(this.prefix + ": Elapsed time in ms: " + accumulatedTime + ", " + ((float)accumulatedTime)/this.counterThresholds + "/" + this.counterThresholds + " calls");
@@ -0,0 +1,94 @@
+package org.ormada.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A map that compares keys by identity, and holds them weakly, so a mapping goes away once its key
+ * is no longer used anywhere else.  This is like WeakHashMap, except that it does not depend on the
+ * keys' equals and hashCode methods, which entities may define in terms of mutable fields.
+ *
+ * NOTE: values must not hold strong references to their keys, or the keys will never be collected.
+ *
+ * This class is thread safe.
+ *
+ * @author Jesse Rosalia
+ *
+ */
+public class WeakIdentityMap<K, V> {
+
+    /**
+     * A weak reference to a key, that uses the key's identity hash code.
+     *
+     */
+    private static class IdentityWeakReference<K> extends WeakReference<K> {
+        private final int hash;
+
+        IdentityWeakReference(K key, ReferenceQueue<K> queue) {
+            super(key, queue);
+            this.hash = System.identityHashCode(key);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof IdentityWeakReference)) {
+                return false;
+            }
+            Object referent = get();
+            //NOTE: a cleared reference is only equal to itself
+            return referent != null && referent == ((IdentityWeakReference<?>) o).get();
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+
+    private final Map<IdentityWeakReference<K>, V> map   = new HashMap<IdentityWeakReference<K>, V>();
+    private final ReferenceQueue<K>                queue = new ReferenceQueue<K>();
+
+    public synchronized V get(K key) {
+        expunge();
+        return this.map.get(new IdentityWeakReference<K>(key, null));
+    }
+
+    public synchronized V put(K key, V value) {
+        expunge();
+        return this.map.put(new IdentityWeakReference<K>(key, this.queue), value);
+    }
+
+    public synchronized V remove(K key) {
+        expunge();
+        return this.map.remove(new IdentityWeakReference<K>(key, null));
+    }
+
+    public synchronized int size() {
+        expunge();
+        return this.map.size();
+    }
+
+    public synchronized void clear() {
+        this.map.clear();
+        while (this.queue.poll() != null) {
+            //drain the queue
+        }
+    }
+
+    /**
+     * Remove the mappings for keys that have been collected.
+     * 
+     */
+    private void expunge() {
+        Reference<? extends K> ref;
+        while ((ref = this.queue.poll()) != null) {
+            this.map.remove(ref);
+        }
+    }
+}